@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.sampling;
+
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-request sampling decision, made once and kept in the {@link ThreadContext} so the metrics interceptors, the
+ * servlet filters and the trace sampler all agree on whether a request is measured.
+ *
+ * The weight is the number of requests a sampled request stands for: 0 when it is not sampled, the sampling ratio
+ * when it was picked by ratio, and 1 when it is always measured.
+ *
+ * When a trace id is available the decision is derived from it, using the low 64 bits of the id the same way as the
+ * OpenTelemetry trace id ratio sampler. Requests of a trace sampled at 1/N are then also metered at any ratio up to N.
+ * Without a trace id, a thread-local random number is used.
+ */
+public final class SamplingDecision
+{
+    public static final String SAMPLING_DECISION = "sampling-decision";
+
+    public static final SamplingDecision NOT_SAMPLED = new SamplingDecision( 0 );
+
+    public static final SamplingDecision ALWAYS_SAMPLED = new SamplingDecision( 1 );
+
+    private final int weight;
+
+    private SamplingDecision( int weight )
+    {
+        this.weight = weight;
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    public boolean isSampled()
+    {
+        return weight > 0;
+    }
+
+    /**
+     * Decide for one request out of every <code>ratio</code>.
+     *
+     * @param traceId trace id of the request, or null to use a random number
+     */
+    public static SamplingDecision forRatio( int ratio, String traceId )
+    {
+        if ( ratio <= 1 )
+        {
+            return ALWAYS_SAMPLED;
+        }
+
+        long random = traceId == null ? ThreadLocalRandom.current().nextLong() : randomPart( traceId );
+        return isSampled( random, ratio ) ? new SamplingDecision( ratio ) : NOT_SAMPLED;
+    }
+
+    static boolean isSampled( long random, int ratio )
+    {
+        return Math.abs( random ) < Long.MAX_VALUE / ratio;
+    }
+
+    /**
+     * The low 64 bits of a hex trace id, or a mixed hash of the id if it is not hex.
+     */
+    static long randomPart( String traceId )
+    {
+        int len = traceId.length();
+        int from = Math.max( 0, len - 16 );
+        long value = 0;
+        for ( int i = from; i < len; i++ )
+        {
+            int digit = Character.digit( traceId.charAt( i ), 16 );
+            if ( digit < 0 )
+            {
+                return mix( traceId.hashCode() );
+            }
+            value = ( value << 4 ) | digit;
+        }
+        return value;
+    }
+
+    private static long mix( long h )
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the decision of the current request, or null if none was made yet or there is no context
+     */
+    public static SamplingDecision current()
+    {
+        ThreadContext ctx = ThreadContext.getContext( false );
+        return ctx == null ? null : (SamplingDecision) ctx.get( SAMPLING_DECISION );
+    }
+
+    /**
+     * Get the decision of the current request, making it if needed. Without a context the decision is not kept.
+     */
+    public static SamplingDecision decide( int ratio, String traceId )
+    {
+        ThreadContext ctx = ThreadContext.getContext( false );
+        if ( ctx == null )
+        {
+            return forRatio( ratio, traceId );
+        }
+
+        SamplingDecision decision = (SamplingDecision) ctx.get( SAMPLING_DECISION );
+        if ( decision == null )
+        {
+            decision = forRatio( ratio, traceId );
+            ctx.put( SAMPLING_DECISION, decision );
+        }
+        return decision;
+    }
+
+    /**
+     * Replace the decision of the current request, e.g. to force measuring it.
+     */
+    public static void set( SamplingDecision decision )
+    {
+        ThreadContext ctx = ThreadContext.getContext( false );
+        if ( ctx != null )
+        {
+            ctx.put( SAMPLING_DECISION, decision );
+        }
+    }
+
+    /**
+     * @return false only if the current request has a decision and it is not sampled
+     */
+    public static boolean isCurrentSampled()
+    {
+        SamplingDecision decision = current();
+        return decision == null || decision.isSampled();
+    }
+
+    /**
+     * @return the number of requests the current one stands for when recording metrics: the weight of a sampled
+     * decision, otherwise 1
+     */
+    public static int currentWeight()
+    {
+        SamplingDecision decision = current();
+        return decision == null || !decision.isSampled() ? 1 : decision.weight;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SamplingDecision{weight=" + weight + "}";
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * {@link ExecutorService} wrapper that carries the submitting thread's {@link ThreadContext} (including its MDC) and
+ * the context of any configured {@link ThreadContextualizer}s (e.g. trace spans) into the tasks, and cleans up after
+ * each task so pooled threads don't keep stale context.
+ *
+ * Context storages are carried over with one {@link ContextStorages#capture()} / {@link ContextStorages#attach}
+ * pair, which also counts the task's thread as a reference to the ThreadContext while the task runs. A task that
+ * runs on a thread already holding the captured ThreadContext (e.g. caller-runs) is run as-is: nothing is attached,
+ * and nothing is cleared afterwards.
+ *
+ * Context is captured when a task is submitted. The bulk methods ({@link #submitAll(Collection)},
+ * {@link #invokeAll(Collection)}, {@link #invokeAny(Collection)}) capture once for the whole batch, which matters when
+ * fanning out many small tasks.
+ *
+ * @since 1.9.3
+ */
+public class ContextPropagatingExecutorService
+                implements ExecutorService
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ExecutorService delegate;
+
+    private final ThreadContextualizer[] contextualizers;
+
+    public ContextPropagatingExecutorService( ExecutorService delegate, ThreadContextualizer... contextualizers )
+    {
+        this.delegate = delegate;
+        this.contextualizers = contextualizers == null ? new ThreadContextualizer[0] : contextualizers;
+    }
+
+    public ContextPropagatingExecutorService( ExecutorService delegate,
+                                              Collection<? extends ThreadContextualizer> contextualizers )
+    {
+        this( delegate, contextualizers.toArray( new ThreadContextualizer[0] ) );
+    }
+
+    public ExecutorService getDelegate()
+    {
+        return delegate;
+    }
+
+    /**
+     * Capture the current thread's context. The result can wrap any number of tasks.
+     */
+    public CapturedContext capture()
+    {
+        Object[] parentContexts = new Object[contextualizers.length];
+        for ( int i = 0; i < contextualizers.length; i++ )
+        {
+            parentContexts[i] = contextualizers[i].extractCurrentContext();
+        }
+        return new CapturedContext( ThreadContext.currentContext(), ContextStorages.capture(),
+                                    MDC.getCopyOfContextMap(), parentContexts );
+    }
+
+    @Override
+    public void execute( Runnable command )
+    {
+        delegate.execute( capture().wrap( command ) );
+    }
+
+    @Override
+    public Future<?> submit( Runnable task )
+    {
+        return delegate.submit( capture().wrap( task ) );
+    }
+
+    @Override
+    public <T> Future<T> submit( Runnable task, T result )
+    {
+        return delegate.submit( capture().wrap( task ), result );
+    }
+
+    @Override
+    public <T> Future<T> submit( Callable<T> task )
+    {
+        return delegate.submit( capture().wrap( task ) );
+    }
+
+    /**
+     * Submit a batch of tasks, capturing the context once for all of them.
+     */
+    public <T> List<Future<T>> submitAll( Collection<? extends Callable<T>> tasks )
+    {
+        CapturedContext captured = capture();
+        List<Future<T>> futures = new ArrayList<>( tasks.size() );
+        for ( Callable<T> task : tasks )
+        {
+            futures.add( delegate.submit( captured.wrap( task ) ) );
+        }
+        return futures;
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> tasks ) throws InterruptedException
+    {
+        return delegate.invokeAll( capture().wrapAll( tasks ) );
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit )
+                    throws InterruptedException
+    {
+        return delegate.invokeAll( capture().wrapAll( tasks ), timeout, unit );
+    }
+
+    @Override
+    public <T> T invokeAny( Collection<? extends Callable<T>> tasks ) throws InterruptedException, ExecutionException
+    {
+        return delegate.invokeAny( capture().wrapAll( tasks ) );
+    }
+
+    @Override
+    public <T> T invokeAny( Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit )
+                    throws InterruptedException, ExecutionException, TimeoutException
+    {
+        return delegate.invokeAny( capture().wrapAll( tasks ), timeout, unit );
+    }
+
+    public CompletableFuture<Void> runAsync( Runnable task )
+    {
+        return CompletableFuture.runAsync( capture().wrap( task ), delegate );
+    }
+
+    public <T> CompletableFuture<T> supplyAsync( Supplier<T> supplier )
+    {
+        return CompletableFuture.supplyAsync( capture().wrap( supplier ), delegate );
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException
+    {
+        return delegate.awaitTermination( timeout, unit );
+    }
+
+    /**
+     * Context captured from a parent thread. It can be attached on any number of threads, concurrently.
+     */
+    public final class CapturedContext
+    {
+        private final ThreadContext threadContext;
+
+        private final ContextStorageProvider.Snapshot snapshot;
+
+        private final Map<String, String> mdc;
+
+        private final Object[] parentContexts;
+
+        private CapturedContext( ThreadContext threadContext, ContextStorageProvider.Snapshot snapshot,
+                                 Map<String, String> mdc, Object[] parentContexts )
+        {
+            this.threadContext = threadContext;
+            this.snapshot = snapshot;
+            this.mdc = mdc;
+            this.parentContexts = parentContexts;
+        }
+
+        public Runnable wrap( Runnable task )
+        {
+            return () -> {
+                ContextStorageProvider.Scope scope = attach();
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    detach( scope );
+                }
+            };
+        }
+
+        public <T> Callable<T> wrap( Callable<T> task )
+        {
+            return () -> {
+                ContextStorageProvider.Scope scope = attach();
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    detach( scope );
+                }
+            };
+        }
+
+        public <T> Supplier<T> wrap( Supplier<T> supplier )
+        {
+            return () -> {
+                ContextStorageProvider.Scope scope = attach();
+                try
+                {
+                    return supplier.get();
+                }
+                finally
+                {
+                    detach( scope );
+                }
+            };
+        }
+
+        <T> List<Callable<T>> wrapAll( Collection<? extends Callable<T>> tasks )
+        {
+            List<Callable<T>> wrapped = new ArrayList<>( tasks.size() );
+            for ( Callable<T> task : tasks )
+            {
+                wrapped.add( wrap( task ) );
+            }
+            return wrapped;
+        }
+
+        /**
+         * @return the scope to close after the task, or null if the task runs in the captured context already
+         */
+        private ContextStorageProvider.Scope attach()
+        {
+            if ( threadContext != null && ThreadContext.currentContext() == threadContext )
+            {
+                return null;
+            }
+
+            Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+            ContextStorageProvider.Scope storages = ContextStorages.attach( snapshot );
+            setMdc( mdc );
+
+            for ( int i = 0; i < contextualizers.length; i++ )
+            {
+                if ( parentContexts[i] != null )
+                {
+                    contextualizers[i].setChildContext( parentContexts[i] );
+                }
+            }
+
+            return () -> {
+                for ( int i = contextualizers.length - 1; i >= 0; i-- )
+                {
+                    if ( parentContexts[i] == null )
+                    {
+                        continue;
+                    }
+
+                    try
+                    {
+                        contextualizers[i].clearContext();
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        logger.warn( "Failed to clear thread context of: " + contextualizers[i].getId(), e );
+                    }
+                }
+
+                // restores what the thread had before, e.g. its own context when it ran the task for the caller
+                storages.close();
+                setMdc( previousMdc );
+            };
+        }
+
+        private void detach( ContextStorageProvider.Scope scope )
+        {
+            if ( scope != null )
+            {
+                scope.close();
+            }
+        }
+
+        private void setMdc( Map<String, String> values )
+        {
+            if ( values == null )
+            {
+                MDC.clear();
+            }
+            else
+            {
+                MDC.setContextMap( values );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "CapturedContext{" + threadContext + ", " + Arrays.toString( parentContexts ) + "}";
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+/**
+ * Storage for one piece of per-thread context (the current {@link ThreadContext}, the active trace spans, ...).
+ * Instances are created by the process-wide {@link ContextStorageProvider}, see {@link ContextStorages}.
+ *
+ * @since 1.9.3
+ */
+public interface ContextStorage<T>
+{
+    T get();
+
+    void set( T value );
+
+    void remove();
+
+    /**
+     * Hooks for a storage whose value needs more than a plain reference copy when it is attached to another thread
+     * through {@link ContextStorageProvider#attach(ContextStorageProvider.Snapshot)}, e.g. reference counting or a
+     * copy of a mutable value. Both hooks run on the thread the snapshot is attached to, and only for non-null values.
+     */
+    interface Propagation<T>
+    {
+        /**
+         * Called when the scope opens, with the captured value.
+         *
+         * @return the value to store on the attached thread
+         */
+        T attach( T value );
+
+        /**
+         * Called when the scope closes, with the value stored at that time (before the previous value is restored).
+         */
+        void detach( T value );
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+/**
+ * Backend for {@link ContextStorage}. Besides creating storages, a provider can capture all context of the current
+ * thread in one {@link Snapshot} and attach it to another thread for the duration of a {@link Scope}. Closing the
+ * scope restores what the thread had before, and leaves nothing behind on a thread that had no context. Storages
+ * created with a {@link ContextStorage.Propagation} get its hooks called when a snapshot is attached and when the
+ * scope closes.
+ *
+ * @since 1.9.3
+ */
+public interface ContextStorageProvider
+{
+    default <T> ContextStorage<T> newStorage( String name )
+    {
+        return newStorage( name, null );
+    }
+
+    /**
+     * @param propagation hooks for attaching the value to another thread, or null to share it by reference
+     */
+    <T> ContextStorage<T> newStorage( String name, ContextStorage.Propagation<T> propagation );
+
+    Snapshot capture();
+
+    Scope attach( Snapshot snapshot );
+
+    /**
+     * Opaque, immutable capture of the context values of a thread.
+     */
+    interface Snapshot
+    {
+    }
+
+    interface Scope
+                    extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+}
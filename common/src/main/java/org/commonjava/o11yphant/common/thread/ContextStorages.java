@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holder of the process-wide {@link ContextStorageProvider}. It is selected with the system property
+ * {@value #PROVIDER_PROPERTY}: "threadlocal" (the default), "snapshot", or the class name of a custom provider with a
+ * no-arg constructor. The provider must be selected before the first context storage is created.
+ *
+ * @since 1.9.3
+ */
+public final class ContextStorages
+{
+    public static final String PROVIDER_PROPERTY = "o11yphant.context.storage";
+
+    public static final String THREAD_LOCAL = "threadlocal";
+
+    public static final String SNAPSHOT = "snapshot";
+
+    private ContextStorages()
+    {
+    }
+
+    public static ContextStorageProvider provider()
+    {
+        return Holder.PROVIDER;
+    }
+
+    public static <T> ContextStorage<T> newStorage( String name )
+    {
+        return Holder.PROVIDER.newStorage( name );
+    }
+
+    public static <T> ContextStorage<T> newStorage( String name, ContextStorage.Propagation<T> propagation )
+    {
+        return Holder.PROVIDER.newStorage( name, propagation );
+    }
+
+    /**
+     * Capture all context of the current thread, to {@link #attach(ContextStorageProvider.Snapshot)} it on another.
+     */
+    public static ContextStorageProvider.Snapshot capture()
+    {
+        return Holder.PROVIDER.capture();
+    }
+
+    public static ContextStorageProvider.Scope attach( ContextStorageProvider.Snapshot snapshot )
+    {
+        return Holder.PROVIDER.attach( snapshot );
+    }
+
+    private static final class Holder
+    {
+        private static final ContextStorageProvider PROVIDER = load( System.getProperty( PROVIDER_PROPERTY, THREAD_LOCAL ) );
+
+        private static ContextStorageProvider load( String selected )
+        {
+            if ( THREAD_LOCAL.equals( selected ) )
+            {
+                return new ThreadLocalContextStorageProvider();
+            }
+            else if ( SNAPSHOT.equals( selected ) )
+            {
+                return new SnapshotContextStorageProvider();
+            }
+
+            try
+            {
+                return (ContextStorageProvider) Class.forName( selected ).getDeclaredConstructor().newInstance();
+            }
+            catch ( ReflectiveOperationException | ClassCastException e )
+            {
+                Logger logger = LoggerFactory.getLogger( ContextStorages.class );
+                logger.error( "Cannot load context storage provider: " + selected + ", using thread-locals", e );
+                return new ThreadLocalContextStorageProvider();
+            }
+        }
+    }
+}
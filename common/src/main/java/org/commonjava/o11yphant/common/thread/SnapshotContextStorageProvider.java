@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ScopedValue-style backend, meant for large numbers of short-lived (e.g. virtual) threads. All storages share one
+ * per-thread slot that holds an immutable array of values. Reads index into the array, writes replace it with a
+ * modified copy. Capturing the context of a thread is a single reference read, and attaching it to another thread is
+ * a single reference write, no matter how many storages exist. When a thread's last value is removed, or an attached
+ * {@link Scope} closes on a thread that had no context, the slot is removed, so no per-thread map is left behind.
+ *
+ * Values are shared by reference between the threads a snapshot is attached to, the same way a {@link ThreadContext}
+ * is shared when it is passed to {@link ThreadContext#setContext(ThreadContext)}. Storages with a
+ * {@link ContextStorage.Propagation} are the exception: attaching a snapshot that holds values for them copies the
+ * array once and runs their hooks, so the cost of an attach grows only with the number of those storages.
+ *
+ * @since 1.9.3
+ */
+public class SnapshotContextStorageProvider
+                implements ContextStorageProvider
+{
+    private static final Object[] EMPTY = new Object[0];
+
+    private final ThreadLocal<Object[]> carrier = new ThreadLocal<>();
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    private volatile Propagating[] propagating = new Propagating[0];
+
+    @Override
+    public <T> ContextStorage<T> newStorage( String name, ContextStorage.Propagation<T> propagation )
+    {
+        SlotStorage<T> storage = new SlotStorage<>( name, nextIndex.getAndIncrement() );
+        if ( propagation != null )
+        {
+            addPropagating( new Propagating( storage.index, propagation ) );
+        }
+        return storage;
+    }
+
+    private synchronized void addPropagating( Propagating p )
+    {
+        Propagating[] current = propagating;
+        Propagating[] grown = Arrays.copyOf( current, current.length + 1 );
+        grown[current.length] = p;
+        propagating = grown;
+    }
+
+    @Override
+    public Snapshot capture()
+    {
+        return new CarrierSnapshot( carrier.get() );
+    }
+
+    @Override
+    public Scope attach( Snapshot snapshot )
+    {
+        Object[] previous = carrier.get();
+        Object[] values = ( (CarrierSnapshot) snapshot ).values;
+        Propagating[] hooks = propagating;
+        if ( values != null && hooks.length > 0 )
+        {
+            Object[] copy = null;
+            for ( Propagating p : hooks )
+            {
+                if ( p.index < values.length && values[p.index] != null )
+                {
+                    if ( copy == null )
+                    {
+                        copy = values.clone();
+                    }
+                    copy[p.index] = p.attach( values[p.index] );
+                }
+            }
+            if ( copy != null )
+            {
+                values = copy;
+            }
+        }
+        setCarrier( values );
+
+        return () -> {
+            Object[] current = carrier.get();
+            if ( current != null )
+            {
+                for ( Propagating p : hooks )
+                {
+                    if ( p.index < current.length && current[p.index] != null )
+                    {
+                        p.detach( current[p.index] );
+                    }
+                }
+            }
+            setCarrier( previous );
+        };
+    }
+
+    private void setCarrier( Object[] values )
+    {
+        if ( values == null )
+        {
+            carrier.remove();
+        }
+        else
+        {
+            carrier.set( values );
+        }
+    }
+
+    private final class SlotStorage<T>
+                    implements ContextStorage<T>
+    {
+        private final String name;
+
+        private final int index;
+
+        SlotStorage( String name, int index )
+        {
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        public T get()
+        {
+            Object[] values = carrier.get();
+            return values == null || index >= values.length ? null : (T) values[index];
+        }
+
+        @Override
+        public void set( T value )
+        {
+            Object[] values = carrier.get();
+            if ( values == null )
+            {
+                if ( value == null )
+                {
+                    return;
+                }
+                values = EMPTY;
+            }
+
+            Object[] updated = Arrays.copyOf( values, Math.max( values.length, index + 1 ) );
+            updated[index] = value;
+
+            for ( Object v : updated )
+            {
+                if ( v != null )
+                {
+                    carrier.set( updated );
+                    return;
+                }
+            }
+
+            carrier.remove();
+        }
+
+        @Override
+        public void remove()
+        {
+            set( null );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SlotStorage{" + name + "@" + index + "}";
+        }
+    }
+
+    private static final class Propagating
+    {
+        private final int index;
+
+        private final ContextStorage.Propagation<Object> propagation;
+
+        @SuppressWarnings( "unchecked" )
+        Propagating( int index, ContextStorage.Propagation<?> propagation )
+        {
+            this.index = index;
+            this.propagation = (ContextStorage.Propagation<Object>) propagation;
+        }
+
+        Object attach( Object value )
+        {
+            return propagation.attach( value );
+        }
+
+        void detach( Object value )
+        {
+            propagation.detach( value );
+        }
+    }
+
+    private static final class CarrierSnapshot
+                    implements Snapshot
+    {
+        private final Object[] values;
+
+        CarrierSnapshot( Object[] values )
+        {
+            this.values = values;
+        }
+    }
+}
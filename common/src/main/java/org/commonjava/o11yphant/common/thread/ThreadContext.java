@@ -41,7 +41,30 @@ import java.util.function.Function;
 public class ThreadContext
         implements Map<String, Object>
 {
-    private static ThreadLocal<ThreadContext> THREAD_LOCAL = new ThreadLocal<>();
+    /**
+     * System property to enable lazy MDC capture, see {@link #setLazyMdcCapture(boolean)}.
+     */
+    public static final String LAZY_MDC_CAPTURE_PROPERTY = "o11yphant.thread-context.lazy-mdc";
+
+    // attaching a captured snapshot to another thread counts as one more thread referencing the context
+    private static final ContextStorage<ThreadContext> STORAGE =
+                    ContextStorages.newStorage( "thread-context", new ContextStorage.Propagation<ThreadContext>()
+                    {
+                        @Override
+                        public ThreadContext attach( ThreadContext ctx )
+                        {
+                            ctx.retain();
+                            return ctx;
+                        }
+
+                        @Override
+                        public void detach( ThreadContext ctx )
+                        {
+                            ctx.release();
+                        }
+                    } );
+
+    private static volatile boolean lazyMdcCapture = Boolean.getBoolean( LAZY_MDC_CAPTURE_PROPERTY );
 
     private final Map<String, Object> contextMap = new ConcurrentHashMap<>();
 
@@ -53,13 +76,29 @@ public class ThreadContext
 
     public static ThreadContext getContext( boolean create )
     {
-        ThreadContext threadContext = THREAD_LOCAL.get();
+        ThreadContext threadContext = STORAGE.get();
         if ( threadContext == null && create )
         {
             threadContext = new ThreadContext();
-            THREAD_LOCAL.set( threadContext );
+            STORAGE.set( threadContext );
         }
 
+        if ( threadContext != null && !lazyMdcCapture )
+        {
+            threadContext.mdcMap = MDC.getCopyOfContextMap();
+        }
+
+        return threadContext;
+    }
+
+    /**
+     * Get the current context (or null) with a fresh snapshot of the MDC, for handing it to another thread via
+     * {@link #setContext(ThreadContext)}. With lazy MDC capture, this is the only place the MDC is copied.
+     * @since 1.9.3
+     */
+    public static ThreadContext captureContext()
+    {
+        ThreadContext threadContext = STORAGE.get();
         if ( threadContext != null )
         {
             threadContext.mdcMap = MDC.getCopyOfContextMap();
@@ -68,6 +107,31 @@ public class ThreadContext
         return threadContext;
     }
 
+    /**
+     * The current context, without touching the MDC.
+     */
+    static ThreadContext currentContext()
+    {
+        return STORAGE.get();
+    }
+
+    /**
+     * By default every {@link #getContext(boolean)} call copies the whole MDC into the context, so whichever context
+     * reference gets handed to another thread carries the MDC with it. Most calls only read a value from the context
+     * though, and the copy is pure garbage for them. With lazy capture enabled, getContext() doesn't touch the MDC;
+     * code that hands a context to another thread has to use {@link #captureContext()} instead.
+     * @since 1.9.3
+     */
+    public static void setLazyMdcCapture( boolean lazy )
+    {
+        lazyMdcCapture = lazy;
+    }
+
+    public static boolean isLazyMdcCapture()
+    {
+        return lazyMdcCapture;
+    }
+
     public static ThreadContext setContext( ThreadContext ctx )
     {
         ThreadContext oldCtx = swapContext( ctx );
@@ -80,28 +144,37 @@ public class ThreadContext
 
     private static ThreadContext swapContext( final ThreadContext ctx )
     {
-        ThreadContext oldCtx = THREAD_LOCAL.get();
+        ThreadContext oldCtx = STORAGE.get();
         if ( oldCtx != null )
         {
-            Logger logger = LoggerFactory.getLogger( ThreadContext.class );
-            oldCtx.refs--;
-            logger.trace( "context refs: {}", oldCtx.refs );
-            oldCtx.runFinalizersIfDone();
+            oldCtx.release();
         }
 
         if ( ctx != null )
         {
-            THREAD_LOCAL.set( ctx );
-            ctx.refs++;
+            STORAGE.set( ctx );
+            ctx.retain();
         }
         else
         {
-            THREAD_LOCAL.remove();
+            STORAGE.remove();
         }
 
         return oldCtx;
     }
 
+    private synchronized void retain()
+    {
+        refs++;
+    }
+
+    private synchronized void release()
+    {
+        refs--;
+        LoggerFactory.getLogger( ThreadContext.class ).trace( "context refs: {}", refs );
+        runFinalizersIfDone();
+    }
+
     /**
      * Provide some finalizer logic to handle the scenario where the number of "live" threads referencing this context
      * drops to 0. Before this happens, any contextual information in this ThreadContext may be needed by running threads,
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+/**
+ * Carries some kind of thread-bound context (beyond {@link ThreadContext}) from a parent thread into a child thread,
+ * see {@link ContextPropagatingExecutorService}.
+ *
+ * @since 1.9.3
+ */
+public interface ThreadContextualizer
+{
+    String getId();
+
+    /**
+     * Called on the parent thread, when the work is handed off.
+     */
+    Object extractCurrentContext();
+
+    /**
+     * Called on the child thread, before the work runs.
+     */
+    void setChildContext( Object parentContext );
+
+    /**
+     * Called on the child thread, after the work ran.
+     */
+    void clearContext();
+}
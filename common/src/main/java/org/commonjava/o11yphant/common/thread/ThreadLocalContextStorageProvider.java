@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Classic backend: one {@link ThreadLocal} per storage. Capturing reads every storage, attaching writes every
+ * storage (through its {@link ContextStorage.Propagation}, if it has one).
+ *
+ * @since 1.9.3
+ */
+public class ThreadLocalContextStorageProvider
+                implements ContextStorageProvider
+{
+    private final List<ThreadLocalStorage<?>> storages = new CopyOnWriteArrayList<>();
+
+    @Override
+    public <T> ContextStorage<T> newStorage( String name, ContextStorage.Propagation<T> propagation )
+    {
+        ThreadLocalStorage<T> storage = new ThreadLocalStorage<>( name, propagation );
+        storages.add( storage );
+        return storage;
+    }
+
+    @Override
+    public Snapshot capture()
+    {
+        ThreadLocalStorage<?>[] captured = storages.toArray( new ThreadLocalStorage<?>[0] );
+        Object[] values = new Object[captured.length];
+        for ( int i = 0; i < captured.length; i++ )
+        {
+            values[i] = captured[i].get();
+        }
+        return new ThreadLocalSnapshot( captured, values );
+    }
+
+    @Override
+    public Scope attach( Snapshot snapshot )
+    {
+        ThreadLocalSnapshot s = (ThreadLocalSnapshot) snapshot;
+        Object[] previous = new Object[s.storages.length];
+        for ( int i = 0; i < s.storages.length; i++ )
+        {
+            previous[i] = s.storages[i].get();
+            s.storages[i].attachRaw( s.values[i] );
+        }
+
+        return () -> {
+            for ( int i = 0; i < s.storages.length; i++ )
+            {
+                s.storages[i].detachCurrent();
+                s.storages[i].setRaw( previous[i] );
+            }
+        };
+    }
+
+    private static final class ThreadLocalStorage<T>
+                    implements ContextStorage<T>
+    {
+        private final String name;
+
+        private final Propagation<T> propagation;
+
+        private final ThreadLocal<T> threadLocal = new ThreadLocal<>();
+
+        ThreadLocalStorage( String name, Propagation<T> propagation )
+        {
+            this.name = name;
+            this.propagation = propagation;
+        }
+
+        @Override
+        public T get()
+        {
+            return threadLocal.get();
+        }
+
+        @Override
+        public void set( T value )
+        {
+            threadLocal.set( value );
+        }
+
+        @Override
+        public void remove()
+        {
+            threadLocal.remove();
+        }
+
+        @SuppressWarnings( "unchecked" )
+        void attachRaw( Object value )
+        {
+            T v = (T) value;
+            setRaw( v != null && propagation != null ? propagation.attach( v ) : v );
+        }
+
+        void detachCurrent()
+        {
+            T current = threadLocal.get();
+            if ( current != null && propagation != null )
+            {
+                propagation.detach( current );
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        void setRaw( Object value )
+        {
+            if ( value == null )
+            {
+                threadLocal.remove();
+            }
+            else
+            {
+                threadLocal.set( (T) value );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ThreadLocalStorage{" + name + "}";
+        }
+    }
+
+    private static final class ThreadLocalSnapshot
+                    implements Snapshot
+    {
+        private final ThreadLocalStorage<?>[] storages;
+
+        private final Object[] values;
+
+        ThreadLocalSnapshot( ThreadLocalStorage<?>[] storages, Object[] values )
+        {
+            this.storages = storages;
+            this.values = values;
+        }
+    }
+}
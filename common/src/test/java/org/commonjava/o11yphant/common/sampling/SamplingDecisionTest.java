@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.sampling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingDecisionTest
+{
+    @Test
+    public void noRatioAlwaysSamples()
+    {
+        assertSame( SamplingDecision.ALWAYS_SAMPLED, SamplingDecision.forRatio( 0, null ) );
+        assertSame( SamplingDecision.ALWAYS_SAMPLED, SamplingDecision.forRatio( 1, "abc" ) );
+    }
+
+    @Test
+    public void traceIdDecidesDeterministically()
+    {
+        assertEquals( 1L, SamplingDecision.randomPart( "4bf92f3577b34da60000000000000001" ) );
+        assertEquals( Long.MAX_VALUE, SamplingDecision.randomPart( "4bf92f3577b34da67fffffffffffffff" ) );
+
+        SamplingDecision sampled = SamplingDecision.forRatio( 10, "4bf92f3577b34da60000000000000001" );
+        assertTrue( sampled.isSampled() );
+        assertEquals( 10, sampled.getWeight() );
+        assertFalse( SamplingDecision.forRatio( 10, "4bf92f3577b34da67fffffffffffffff" ).isSampled() );
+
+        String uuid = "1b4e28ba-2fa1-11d2-883f-0016d3cca427";
+        assertEquals( SamplingDecision.forRatio( 3, uuid ).isSampled(), SamplingDecision.forRatio( 3, uuid ).isSampled() );
+    }
+
+    @Test
+    public void randomDecisionsFollowTheRatio()
+    {
+        int sampled = 0;
+        for ( int i = 0; i < 100000; i++ )
+        {
+            if ( SamplingDecision.forRatio( 10, null ).isSampled() )
+            {
+                sampled++;
+            }
+        }
+        assertTrue( "sampled: " + sampled, sampled > 9000 && sampled < 11000 );
+    }
+}
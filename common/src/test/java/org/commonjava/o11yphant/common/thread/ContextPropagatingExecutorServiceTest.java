@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ContextPropagatingExecutorServiceTest
+{
+    private final AtomicInteger extracted = new AtomicInteger();
+
+    private final AtomicInteger cleared = new AtomicInteger();
+
+    private final ThreadLocal<Object> childContext = new ThreadLocal<>();
+
+    private ContextPropagatingExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        ThreadContextualizer contextualizer = new ThreadContextualizer()
+        {
+            @Override
+            public String getId()
+            {
+                return "test";
+            }
+
+            @Override
+            public Object extractCurrentContext()
+            {
+                extracted.incrementAndGet();
+                return "parent-span";
+            }
+
+            @Override
+            public void setChildContext( Object parentContext )
+            {
+                childContext.set( parentContext );
+            }
+
+            @Override
+            public void clearContext()
+            {
+                childContext.remove();
+                cleared.incrementAndGet();
+            }
+        };
+
+        executor = new ContextPropagatingExecutorService( Executors.newSingleThreadExecutor(), contextualizer );
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        ThreadContext.clearContext();
+    }
+
+    @Test
+    public void testPropagateAndClean() throws Exception
+    {
+        ThreadContext.getContext( true ).put( "request-id", "abc" );
+        MDC.put( "user", "someone" );
+
+        String seen = executor.submit( () -> ThreadContext.getContext( false ).get( "request-id" ) + "/" + MDC.get(
+                        "user" ) + "/" + childContext.get() ).get();
+        assertEquals( "abc/someone/parent-span", seen );
+
+        // the pooled thread must not keep the context
+        ExecutorService plain = executor.getDelegate();
+        assertNull( plain.submit( () -> ThreadContext.getContext( false ) ).get() );
+        assertNull( plain.submit( () -> MDC.get( "user" ) ).get() );
+        assertNull( plain.submit( childContext::get ).get() );
+
+        assertEquals( "abc", executor.supplyAsync( () -> ThreadContext.getContext( false ).get( "request-id" ) )
+                                     .get() );
+    }
+
+    @Test
+    public void testBatchCapturesOnce() throws Exception
+    {
+        ThreadContext.getContext( true ).put( "request-id", "batch" );
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            tasks.add( () -> ThreadContext.getContext( false ).get( "request-id" ) );
+        }
+
+        for ( Future<Object> f : executor.submitAll( tasks ) )
+        {
+            assertEquals( "batch", f.get() );
+        }
+        for ( Future<Object> f : executor.invokeAll( tasks ) )
+        {
+            assertEquals( "batch", f.get() );
+        }
+
+        assertEquals( 2, extracted.get() );
+        assertEquals( 40, cleared.get() );
+    }
+
+    @Test
+    public void testCallerRunsKeepsTheCallersContext()
+    {
+        AtomicInteger finalized = new AtomicInteger();
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( c -> finalized.incrementAndGet() );
+        childContext.set( "caller-span" );
+
+        // what a caller-runs rejection policy does: run the wrapped task on the submitting thread
+        Object[] seen = new Object[2];
+        executor.capture().wrap( () -> {
+            seen[0] = ThreadContext.getContext( false );
+            seen[1] = childContext.get();
+        } ).run();
+
+        assertSame( ctx, seen[0] );
+        assertEquals( "caller-span", seen[1] );
+        assertEquals( 0, finalized.get() );
+        assertEquals( 0, cleared.get() );
+        assertSame( ctx, ThreadContext.getContext( false ) );
+        assertEquals( "caller-span", childContext.get() );
+
+        ThreadContext.clearContext();
+        assertEquals( 1, finalized.get() );
+        childContext.remove();
+    }
+
+    @Test
+    public void testWorkerDoesNotFinalizeTheParentContext() throws Exception
+    {
+        AtomicInteger finalized = new AtomicInteger();
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( c -> finalized.incrementAndGet() );
+
+        assertSame( ctx, executor.submit( () -> ThreadContext.getContext( false ) ).get() );
+        assertEquals( 0, finalized.get() );
+
+        ThreadContext.clearContext();
+        assertEquals( 1, finalized.get() );
+    }
+}
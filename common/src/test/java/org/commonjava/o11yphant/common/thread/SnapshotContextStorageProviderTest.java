@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotContextStorageProviderTest
+{
+    @Test
+    public void testCaptureAndAttach() throws Exception
+    {
+        SnapshotContextStorageProvider provider = new SnapshotContextStorageProvider();
+        ContextStorage<String> first = provider.newStorage( "first" );
+        ContextStorage<String> second = provider.newStorage( "second" );
+
+        first.set( "a" );
+        second.set( "b" );
+        ContextStorageProvider.Snapshot snapshot = provider.capture();
+
+        // later changes on the parent don't leak into the snapshot
+        first.set( "changed" );
+
+        AtomicReference<String> seen = new AtomicReference<>();
+        AtomicReference<String> afterScope = new AtomicReference<>( "not-run" );
+        Thread child = new Thread( () -> {
+            try (ContextStorageProvider.Scope ignored = provider.attach( snapshot ))
+            {
+                seen.set( first.get() + second.get() );
+            }
+            afterScope.set( first.get() );
+        } );
+        child.start();
+        child.join();
+
+        assertEquals( "ab", seen.get() );
+        assertNull( afterScope.get() );
+        assertEquals( "changed", first.get() );
+
+        first.remove();
+        second.remove();
+        assertNull( first.get() );
+        assertNull( second.get() );
+    }
+
+    @Test
+    public void testPropagationHooksRunOnAttachAndClose() throws Exception
+    {
+        SnapshotContextStorageProvider provider = new SnapshotContextStorageProvider();
+        ContextStorage<String> plain = provider.newStorage( "plain" );
+        ContextStorage.Propagation<StringBuilder> propagation = new ContextStorage.Propagation<StringBuilder>()
+        {
+            @Override
+            public StringBuilder attach( StringBuilder value )
+            {
+                return new StringBuilder( value );
+            }
+
+            @Override
+            public void detach( StringBuilder value )
+            {
+                value.append( "-detached" );
+            }
+        };
+        ContextStorage<StringBuilder> copied = provider.newStorage( "copied", propagation );
+
+        StringBuilder parent = new StringBuilder( "parent" );
+        plain.set( "p" );
+        copied.set( parent );
+        ContextStorageProvider.Snapshot snapshot = provider.capture();
+
+        AtomicReference<StringBuilder> seen = new AtomicReference<>();
+        Thread child = new Thread( () -> {
+            try (ContextStorageProvider.Scope ignored = provider.attach( snapshot ))
+            {
+                copied.get().append( "-child" );
+                seen.set( copied.get() );
+            }
+        } );
+        child.start();
+        child.join();
+
+        assertEquals( "parent", parent.toString() );
+        assertEquals( "parent-child-detached", seen.get().toString() );
+
+        plain.remove();
+        copied.remove();
+    }
+}
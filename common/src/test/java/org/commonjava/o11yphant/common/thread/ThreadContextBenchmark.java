@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.MDC;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates the ThreadContext lookups done during one request (classifiers, metering checks, request context
+ * helpers, trace context) with eager and lazy MDC capture. Run with the gc profiler to see the allocation per
+ * request, e.g. via {@link #main(String[])}.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ThreadContextBenchmark
+{
+    private static final int LOOKUPS_PER_REQUEST = 20;
+
+    @Param( { "false", "true" } )
+    public boolean lazyMdc;
+
+    @Setup
+    public void setup()
+    {
+        ThreadContext.setLazyMdcCapture( lazyMdc );
+        for ( int i = 0; i < 6; i++ )
+        {
+            MDC.put( "mdc-key-" + i, "some-value-for-" + i );
+        }
+        ThreadContext.getContext( true ).put( "is-metered", Boolean.TRUE );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ThreadContext.clearContext();
+        ThreadContext.setLazyMdcCapture( false );
+    }
+
+    @Benchmark
+    public int request()
+    {
+        int found = 0;
+        for ( int i = 0; i < LOOKUPS_PER_REQUEST; i++ )
+        {
+            ThreadContext ctx = ThreadContext.getContext( false );
+            if ( ctx != null && ctx.get( "is-metered" ) != null )
+            {
+                found++;
+            }
+        }
+
+        // one hand-off to a worker thread
+        return ThreadContext.captureContext() == null ? found : found + 1;
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( ThreadContextBenchmark.class.getSimpleName() )
+                                        .addProfiler( "gc" )
+                                        .build() ).run();
+    }
+}
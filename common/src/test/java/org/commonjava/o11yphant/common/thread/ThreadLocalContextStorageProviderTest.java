@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.common.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class ThreadLocalContextStorageProviderTest
+{
+    @Test
+    public void testCaptureAndAttach() throws Exception
+    {
+        ThreadLocalContextStorageProvider provider = new ThreadLocalContextStorageProvider();
+        ContextStorage<String> first = provider.newStorage( "first" );
+        ContextStorage<String> second = provider.newStorage( "second" );
+
+        first.set( "a" );
+        second.set( "b" );
+        ContextStorageProvider.Snapshot snapshot = provider.capture();
+
+        // later changes on the parent don't leak into the snapshot
+        first.set( "changed" );
+
+        AtomicReference<String> seen = new AtomicReference<>();
+        AtomicReference<String> afterScope = new AtomicReference<>( "not-run" );
+        Thread child = new Thread( () -> {
+            try (ContextStorageProvider.Scope ignored = provider.attach( snapshot ))
+            {
+                seen.set( first.get() + second.get() );
+            }
+            afterScope.set( first.get() );
+        } );
+        child.start();
+        child.join();
+
+        assertEquals( "ab", seen.get() );
+        assertNull( afterScope.get() );
+        assertEquals( "changed", first.get() );
+
+        first.remove();
+        second.remove();
+    }
+
+    @Test
+    public void testPropagationCopiesMutableValues() throws Exception
+    {
+        AtomicInteger detached = new AtomicInteger();
+        ThreadLocalContextStorageProvider provider = new ThreadLocalContextStorageProvider();
+        ContextStorage.Propagation<List<String>> propagation = new ContextStorage.Propagation<List<String>>()
+        {
+            @Override
+            public List<String> attach( List<String> value )
+            {
+                return new ArrayList<>( value );
+            }
+
+            @Override
+            public void detach( List<String> value )
+            {
+                detached.incrementAndGet();
+            }
+        };
+        ContextStorage<List<String>> storage = provider.newStorage( "list", propagation );
+
+        List<String> parent = new ArrayList<>();
+        parent.add( "parent" );
+        storage.set( parent );
+        ContextStorageProvider.Snapshot snapshot = provider.capture();
+
+        AtomicReference<List<String>> seen = new AtomicReference<>();
+        Thread child = new Thread( () -> {
+            try (ContextStorageProvider.Scope ignored = provider.attach( snapshot ))
+            {
+                storage.get().add( "child" );
+                seen.set( storage.get() );
+            }
+        } );
+        child.start();
+        child.join();
+
+        assertNotSame( parent, seen.get() );
+        assertEquals( 1, parent.size() );
+        assertEquals( 2, seen.get().size() );
+        assertEquals( 1, detached.get() );
+
+        storage.remove();
+    }
+
+    @Test
+    public void testAttachedThreadContextIsReferenceCounted() throws Exception
+    {
+        AtomicInteger finalized = new AtomicInteger();
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( c -> finalized.incrementAndGet() );
+        ContextStorageProvider.Snapshot snapshot = ContextStorages.capture();
+
+        Thread child = new Thread( () -> {
+            try (ContextStorageProvider.Scope ignored = ContextStorages.attach( snapshot ))
+            {
+                ThreadContext.getContext( false ).put( "child", true );
+            }
+        } );
+        child.start();
+        child.join();
+
+        assertEquals( "parent still holds the context", 0, finalized.get() );
+        assertEquals( true, ctx.get( "child" ) );
+
+        ThreadContext.clearContext();
+        assertEquals( 1, finalized.get() );
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.commonjava.o11yphant.metrics.api.Meter;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.commonjava.o11yphant.metrics.api.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
+/**
+ * Bundle of the standard metrics gathered around a measured method or classifier: the timer, the start meter, the
+ * completion meter and the exception meters. The names are calculated once when the handle is created, and the
+ * metrics are resolved on first use and then kept, so hot paths don't need to build names or look up the registry.
+ *
+ * Handles survive a registry reset. {@link #invalidate()} drops the resolved metrics, and they are resolved again
+ * on next access.
+ */
+public final class MetricHandle
+{
+    public static final String EXCEPTION_LABEL = "exception";
+
+    public static final String BY_CLASS = "by_class";
+
+    private final String name;
+
+    private final String timerName;
+
+    private final String startMeterName;
+
+    private final String meterName;
+
+    private final String exceptionMeterName;
+
+    private final Function<String, Timer> timerResolver;
+
+    private final Function<String, Meter> meterResolver;
+
+    private final boolean labelledExceptionMeters;
+
+    private final Map<Class<?>, Meter> exceptionClassMeters = new ConcurrentHashMap<>();
+
+    private volatile Timer timer;
+
+    private volatile Meter startMeter;
+
+    private volatile Meter meter;
+
+    private volatile Meter exceptionMeter;
+
+    /**
+     * @param name the name used for cumulative timings
+     * @param timerName full name of the timer
+     * @param startMeterName full name of the meter marked when the call starts
+     * @param meterName full name of the meter marked when the call completes
+     * @param exceptionMeterName full name of the meter marked on error. Exception-class meters are named after it.
+     */
+    public MetricHandle( String name, String timerName, String startMeterName, String meterName,
+                         String exceptionMeterName, Function<String, Timer> timerResolver,
+                         Function<String, Meter> meterResolver )
+    {
+        this( name, timerName, startMeterName, meterName, exceptionMeterName, timerResolver, meterResolver, false );
+    }
+
+    /**
+     * @param labelledExceptionMeters if true, exception-class meters are one labelled metric, see
+     *                                {@link #getExceptionMeter(Class)}
+     */
+    public MetricHandle( String name, String timerName, String startMeterName, String meterName,
+                         String exceptionMeterName, Function<String, Timer> timerResolver,
+                         Function<String, Meter> meterResolver, boolean labelledExceptionMeters )
+    {
+        this.name = name;
+        this.timerName = timerName;
+        this.startMeterName = startMeterName;
+        this.meterName = meterName;
+        this.exceptionMeterName = exceptionMeterName;
+        this.timerResolver = timerResolver;
+        this.meterResolver = meterResolver;
+        this.labelledExceptionMeters = labelledExceptionMeters;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getTimerName()
+    {
+        return timerName;
+    }
+
+    public String getStartMeterName()
+    {
+        return startMeterName;
+    }
+
+    public String getMeterName()
+    {
+        return meterName;
+    }
+
+    public String getExceptionMeterName()
+    {
+        return exceptionMeterName;
+    }
+
+    public Timer getTimer()
+    {
+        Timer t = timer;
+        if ( t == null )
+        {
+            t = timerResolver.apply( timerName );
+            timer = t;
+        }
+        return t;
+    }
+
+    public Meter getStartMeter()
+    {
+        Meter m = startMeter;
+        if ( m == null )
+        {
+            m = meterResolver.apply( startMeterName );
+            startMeter = m;
+        }
+        return m;
+    }
+
+    public Meter getMeter()
+    {
+        Meter m = meter;
+        if ( m == null )
+        {
+            m = meterResolver.apply( meterName );
+            meter = m;
+        }
+        return m;
+    }
+
+    public Meter getExceptionMeter()
+    {
+        Meter m = exceptionMeter;
+        if ( m == null )
+        {
+            m = meterResolver.apply( exceptionMeterName );
+            exceptionMeter = m;
+        }
+        return m;
+    }
+
+    /**
+     * Get the meter for a specific exception type, named &lt;exception-meter&gt;.&lt;exception-simple-name&gt;. With
+     * labelled exception meters it is &lt;exception-meter&gt;.{@value #BY_CLASS} with an {@value #EXCEPTION_LABEL}
+     * label holding the simple name ({@link MetricId}). The base name differs from the exception meter, so summing
+     * the series of a family doesn't count errors twice.
+     */
+    public Meter getExceptionMeter( Class<? extends Throwable> type )
+    {
+        Meter m = exceptionClassMeters.get( type );
+        if ( m == null )
+        {
+            m = exceptionClassMeters.computeIfAbsent( type, t -> meterResolver.apply( exceptionClassMeterName( t ) ) );
+        }
+        return m;
+    }
+
+    private String exceptionClassMeterName( Class<?> type )
+    {
+        if ( !labelledExceptionMeters )
+        {
+            return name( exceptionMeterName, type.getSimpleName() );
+        }
+
+        String simpleName = type.getSimpleName();
+        return MetricId.of( name( exceptionMeterName, BY_CLASS ), EXCEPTION_LABEL,
+                            simpleName.isEmpty() ? type.getName() : simpleName ).getEncoded();
+    }
+
+    /**
+     * Drop the resolved metrics, e.g. after the registry has been cleared. They are resolved again on next access.
+     */
+    public void invalidate()
+    {
+        timer = null;
+        startMeter = null;
+        meter = null;
+        exceptionMeter = null;
+        exceptionClassMeters.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MetricHandle{" + name + "}";
+    }
+}
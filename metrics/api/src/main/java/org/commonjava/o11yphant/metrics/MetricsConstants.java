@@ -31,10 +31,14 @@ public class MetricsConstants
 
     public static final String CUMULATIVE_COUNT = "cumulative-count";
 
+    public static final String CUMULATIVE_TIMINGS_ACCUMULATOR = "cumulative-timings-accumulator";
+
     public static final String AVERAGE_TIME_MS = "avg-time-ms";
 
     public static final String MAX_TIME_MS = "max-time-ms";
 
+    public static final String TIMER_STACK = "timer-stack";
+
     public static final double NANOS_PER_MILLISECOND = 1E6;
 
 }
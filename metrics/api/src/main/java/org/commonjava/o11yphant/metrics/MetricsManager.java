@@ -34,6 +34,12 @@ public interface MetricsManager
 
     long stopTimer( String name );
 
+    /**
+     * Stop a timer started by {@link #startTimer(String)}, the same way {@link #stopTimers(Map)} stops each entry but
+     * without building a map for a single timer.
+     */
+    long stopTimer( String name, Timer.Context timer );
+
     Meter getMeter( String name );
 
     void accumulate( String name, final double elapsed );
@@ -49,4 +55,9 @@ public interface MetricsManager
     void addGauges( Class<?> className, String method, Map<String, Gauge<Integer>> gauges );
 
     Histogram getHistogram( String name );
+
+    /**
+     * Get the cached {@link MetricHandle} for a measured method, using the same names as the metrics interceptor.
+     */
+    MetricHandle handle( Class<?> declaringClass, String method );
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.api;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Metric set which can grow after it has been registered. The registry sets a listener when the set is registered,
+ * and the set passes the metrics it adds later to that listener, keyed like {@link #getMetrics()}.
+ */
+public interface DynamicMetricSet
+                extends MetricSet
+{
+    void setMetricsAddedListener( Consumer<Map<String, Metric>> listener );
+}
@@ -21,6 +21,17 @@ public interface Histogram extends Metric
 
     void update( long value );
 
+    /**
+     * Record a value that stands for <code>weight</code> values, e.g. for a sampled request.
+     *
+     * The default records the value once and ignores the weight, so the count is only approximate. Implementations
+     * that support weights override it.
+     */
+    default void update( long value, long weight )
+    {
+        update( value );
+    }
+
     long getCount();
 
     Snapshot getSnapshot();
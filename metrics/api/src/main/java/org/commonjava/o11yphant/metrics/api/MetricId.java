@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Metric name plus a set of labels, e.g. a function timer labelled with the exception class instead of one timer per
+ * exception class encoded in the dotted name.
+ *
+ * Labels are kept sorted by name, so the same labels given in any order make the same id. Ids are interned and
+ * immutable, with the hash code and the encoded form computed once: callers keep ids in fields or handles and
+ * look up metrics without building strings.
+ *
+ * Registries are keyed by string, so an id is registered under its encoded form {@code name;k1=v1;k2=v2}. A name
+ * without labels encodes to itself, so existing dotted names and ids without labels are the same metric. Exporters
+ * which support labels decode the key with {@link #parse(String)}.
+ *
+ * The label names the exporters add themselves (node, hostname, quantile, mins) are reserved.
+ */
+public final class MetricId
+{
+    public static final char SEPARATOR = ';';
+
+    private static final int MAX_INTERNED = 100_000;
+
+    private static final Pattern LABEL_NAME = Pattern.compile( "[a-zA-Z_][a-zA-Z0-9_]*" );
+
+    private static final String[] NO_LABELS = new String[0];
+
+    private static final Set<String> RESERVED_LABELS = Collections.unmodifiableSet(
+                    new HashSet<>( Arrays.asList( "node", "hostname", "quantile", "mins" ) ) );
+
+    private static final Map<String, MetricId> INTERNED = new ConcurrentHashMap<>();
+
+    private final String name;
+
+    private final String[] labelNames;
+
+    private final String[] labelValues;
+
+    private final String encoded;
+
+    private MetricId( String name, String[] labelNames, String[] labelValues, String encoded )
+    {
+        this.name = name;
+        this.labelNames = labelNames;
+        this.labelValues = labelValues;
+        this.encoded = encoded;
+    }
+
+    public static MetricId of( String name )
+    {
+        return of( name, NO_LABELS );
+    }
+
+    /**
+     * @param labels alternating label names and values
+     */
+    public static MetricId of( String name, String... labels )
+    {
+        if ( labels.length % 2 != 0 )
+        {
+            throw new IllegalArgumentException( "Labels must be name / value pairs: " + Arrays.toString( labels ) );
+        }
+
+        Map<String, String> map = new LinkedHashMap<>();
+        for ( int i = 0; i < labels.length; i += 2 )
+        {
+            map.put( labels[i], labels[i + 1] );
+        }
+        return of( name, map );
+    }
+
+    public static MetricId of( String name, Map<String, String> labels )
+    {
+        checkName( name );
+        String[] names = labels.keySet().toArray( NO_LABELS );
+        Arrays.sort( names );
+        String[] values = new String[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            checkLabel( names[i], labels.get( names[i] ) );
+            values[i] = labels.get( names[i] );
+        }
+
+        String encoded = encode( name, names, values );
+        MetricId id = INTERNED.get( encoded );
+        return id != null ? id : intern( new MetricId( name, names, values, encoded ) );
+    }
+
+    /**
+     * Decode a registry key. Plain names give an id without labels, and so do keys which contain the separator but
+     * don't decode to valid labels (e.g. legacy names with a ';'), so exporters never fail on a registered metric.
+     */
+    public static MetricId parse( String encoded )
+    {
+        MetricId id = INTERNED.get( encoded );
+        if ( id != null )
+        {
+            return id;
+        }
+
+        int idx = encoded.indexOf( SEPARATOR );
+        if ( idx < 0 )
+        {
+            return plain( encoded );
+        }
+
+        Map<String, String> labels = new LinkedHashMap<>();
+        String name = encoded.substring( 0, idx );
+        while ( idx >= 0 )
+        {
+            int next = encoded.indexOf( SEPARATOR, idx + 1 );
+            String label = next < 0 ? encoded.substring( idx + 1 ) : encoded.substring( idx + 1, next );
+            int eq = label.indexOf( '=' );
+            if ( eq < 0 || labels.put( label.substring( 0, eq ), label.substring( eq + 1 ) ) != null )
+            {
+                return plain( encoded );
+            }
+            idx = next;
+        }
+
+        try
+        {
+            return of( name, labels );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return plain( encoded );
+        }
+    }
+
+    /**
+     * Get the base name of a registry key, without labels.
+     */
+    public static String nameOf( String encoded )
+    {
+        int idx = encoded.indexOf( SEPARATOR );
+        return idx < 0 ? encoded : encoded.substring( 0, idx );
+    }
+
+    /**
+     * Get an id with one more label, or with a different value for an existing label.
+     */
+    public MetricId tagged( String labelName, String labelValue )
+    {
+        Map<String, String> labels = new LinkedHashMap<>( getLabels() );
+        labels.put( labelName, labelValue );
+        return of( name, labels );
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Labels sorted by name.
+     */
+    public Map<String, String> getLabels()
+    {
+        if ( labelNames.length == 0 )
+        {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> labels = new LinkedHashMap<>();
+        for ( int i = 0; i < labelNames.length; i++ )
+        {
+            labels.put( labelNames[i], labelValues[i] );
+        }
+        return Collections.unmodifiableMap( labels );
+    }
+
+    public int getLabelCount()
+    {
+        return labelNames.length;
+    }
+
+    public String getLabelName( int index )
+    {
+        return labelNames[index];
+    }
+
+    public String getLabelValue( int index )
+    {
+        return labelValues[index];
+    }
+
+    public boolean hasLabels()
+    {
+        return labelNames.length > 0;
+    }
+
+    /**
+     * Registry key of this id.
+     */
+    public String getEncoded()
+    {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return this == o || ( o instanceof MetricId && encoded.equals( ( (MetricId) o ).encoded ) );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // String caches its hash
+        return encoded.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return encoded;
+    }
+
+    private static MetricId plain( String encoded )
+    {
+        return intern( new MetricId( encoded, NO_LABELS, NO_LABELS, encoded ) );
+    }
+
+    private static MetricId intern( MetricId id )
+    {
+        if ( INTERNED.size() >= MAX_INTERNED )
+        {
+            return id;
+        }
+        MetricId existing = INTERNED.putIfAbsent( id.encoded, id );
+        return existing == null ? id : existing;
+    }
+
+    private static String encode( String name, String[] names, String[] values )
+    {
+        if ( names.length == 0 )
+        {
+            return name;
+        }
+
+        StringBuilder sb = new StringBuilder( name );
+        for ( int i = 0; i < names.length; i++ )
+        {
+            sb.append( SEPARATOR ).append( names[i] ).append( '=' ).append( values[i] );
+        }
+        return sb.toString();
+    }
+
+    private static void checkName( String name )
+    {
+        if ( name == null || name.isEmpty() || name.indexOf( SEPARATOR ) >= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid metric name: " + name );
+        }
+    }
+
+    private static void checkLabel( String labelName, String labelValue )
+    {
+        if ( labelName == null || !LABEL_NAME.matcher( labelName ).matches() )
+        {
+            throw new IllegalArgumentException( "Invalid label name: " + labelName );
+        }
+        if ( RESERVED_LABELS.contains( labelName ) )
+        {
+            throw new IllegalArgumentException( "Reserved label name: " + labelName );
+        }
+        if ( labelValue == null || labelValue.indexOf( SEPARATOR ) >= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid value for label " + labelName + ": " + labelValue );
+        }
+    }
+}
@@ -38,4 +38,39 @@ public interface MetricRegistry
     <T> Gauge<T> gauge( String name, Gauge<T> o );
 
     Histogram histogram( String name );
+
+    default Meter meter( MetricId id )
+    {
+        return meter( id.getEncoded() );
+    }
+
+    default Timer timer( MetricId id )
+    {
+        return timer( id.getEncoded() );
+    }
+
+    default <T> Gauge<T> gauge( MetricId id, Gauge<T> o )
+    {
+        return gauge( id.getEncoded(), o );
+    }
+
+    default Histogram histogram( MetricId id )
+    {
+        return histogram( id.getEncoded() );
+    }
+
+    /**
+     * Remove a metric. Instances already handed out keep working but are no longer reported.
+     *
+     * @return true if a metric with this name was removed
+     */
+    default boolean remove( String name )
+    {
+        return false;
+    }
+
+    default boolean remove( MetricId id )
+    {
+        return remove( id.getEncoded() );
+    }
 }
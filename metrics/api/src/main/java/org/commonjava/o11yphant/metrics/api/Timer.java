@@ -24,6 +24,17 @@ public interface Timer
 
     void update( long duration, TimeUnit timeUnit );
 
+    /**
+     * Record a duration that stands for <code>weight</code> calls, e.g. for a sampled request.
+     *
+     * The default records the duration once and ignores the weight, so counts and rates are only approximate.
+     * Implementations that support weights override it.
+     */
+    default void update( long duration, TimeUnit timeUnit, long weight )
+    {
+        update( duration, timeUnit );
+    }
+
     Snapshot getSnapshot();
 
     interface Context
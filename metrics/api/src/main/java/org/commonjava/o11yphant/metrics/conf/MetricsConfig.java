@@ -15,6 +15,9 @@
  */
 package org.commonjava.o11yphant.metrics.conf;
 
+import java.util.Collections;
+import java.util.List;
+
 public interface MetricsConfig
 {
     String REPORTER_GRAPHITE = "graphite";
@@ -25,6 +28,8 @@ public interface MetricsConfig
 
     String REPORTER_PROMETHEUS = "prometheus";
 
+    String REPORTER_OTEL = "otel";
+
     String getNodePrefix();
 
     boolean isEnabled();
@@ -40,4 +45,112 @@ public interface MetricsConfig
     ELKConfig getELKConfig();
 
     int getMeterRatio();
+
+    /**
+     * Settings of the OTLP metrics reporter, used when the reporter list contains {@link #REPORTER_OTEL}.
+     */
+    default OtelMetricsConfig getOtelMetricsConfig()
+    {
+        return new OtelMetricsConfig();
+    }
+
+    /**
+     * Whether timers may be stopped on a different thread than the one that started them. If true (the default),
+     * running timers are kept with the ThreadContext, so they follow it between threads and are dropped with it.
+     * Setting this to false keeps them in a thread-local instead, which avoids the synchronization but is only
+     * correct when every timer is stopped on the thread that started it. Timers that are never stopped then stay
+     * on that (possibly pooled) thread until they are pushed out of its bounded stack.
+     */
+    default boolean isCrossThreadTimers()
+    {
+        return true;
+    }
+
+    /**
+     * Timers and histograms that should be backed by HdrHistogram instead of the default exponentially decaying
+     * reservoir. Each entry is a full metric name, or a name prefix ending with '*' ("*" alone selects everything).
+     */
+    default List<String> getHdrHistogramMetrics()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Meters that should only count on mark() and compute their rates lazily (see StripedMeter), using the same
+     * name / prefix format as {@link #getHdrHistogramMetrics()}.
+     */
+    default List<String> getStripedMeterMetrics()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * If true, the Graphite, Elasticsearch and console reporters only send the metrics which changed since their
+     * previous report, and resend every series at least once per {@link #getFullReportPeriodInSeconds()}.
+     */
+    default boolean isReportChangedOnly()
+    {
+        return false;
+    }
+
+    default long getFullReportPeriodInSeconds()
+    {
+        return 600;
+    }
+
+    /**
+     * If true, the per exception class meters of measured methods and classifiers are registered as one labelled
+     * metric, &lt;exception-meter&gt;.by_class with an exception label, instead of one dotted name per exception
+     * class. Exporters that support labels turn it into a single series family.
+     */
+    default boolean isLabelledExceptionMeters()
+    {
+        return false;
+    }
+
+    /**
+     * Counters, meters, timers and histograms which may be evicted from the registry, using the same name / prefix
+     * format as {@link #getHdrHistogramMetrics()}. Eviction is enabled if this is not empty and either
+     * {@link #getMetricIdleSeconds()} or {@link #getMaxMetricsPerEvictablePrefix()} is set. Metrics that belong to
+     * a registered metric set (e.g. the golden signals) are never evicted, even if an entry selects them.
+     */
+    default List<String> getEvictableMetrics()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Evictable metrics whose count didn't change for this long are removed. 0 disables idle eviction.
+     */
+    default long getMetricIdleSeconds()
+    {
+        return 0;
+    }
+
+    /**
+     * Max number of metrics selected by each entry of {@link #getEvictableMetrics()}. Above that, the metrics that
+     * changed least recently are removed. 0 means no limit.
+     */
+    default int getMaxMetricsPerEvictablePrefix()
+    {
+        return 0;
+    }
+
+    /**
+     * Budget of metered calls per second for each golden signals function. When set, the meter ratio of a request is
+     * adapted to the load of its functions, between {@link #getMeterRatio()} and {@link #getMaxMeterRatio()}. 0
+     * disables adaptive metering.
+     */
+    default double getMeteredCallsPerFunctionPerSecond()
+    {
+        return 0;
+    }
+
+    /**
+     * Upper bound of the adaptive meter ratio.
+     */
+    default int getMaxMeterRatio()
+    {
+        return 1000;
+    }
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.conf;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class OtelMetricsConfig
+{
+    public static final String PROTOCOL_GRPC = "grpc";
+
+    public static final String PROTOCOL_HTTP = "http/protobuf";
+
+    public static final String TEMPORALITY_CUMULATIVE = "cumulative";
+
+    public static final String TEMPORALITY_DELTA = "delta";
+
+    private String otelEndpoint = "http://localhost:4317";
+
+    private String otelProtocol = PROTOCOL_GRPC;
+
+    private Map<String, String> otelHeaders = new HashMap<>();
+
+    private Map<String, String> otelResources = new HashMap<>();
+
+    private long otelPeriodInSeconds = 60;
+
+    private String otelTemporality = TEMPORALITY_CUMULATIVE;
+
+    private String otelCompression = "none";
+
+    /**
+     * The OTLP endpoint, e.g. http://collector:4317 for grpc or http://collector:4318/v1/metrics for http/protobuf.
+     */
+    public String getOtelEndpoint()
+    {
+        return otelEndpoint;
+    }
+
+    public void setOtelEndpoint( String otelEndpoint )
+    {
+        this.otelEndpoint = otelEndpoint;
+    }
+
+    /**
+     * {@link #PROTOCOL_GRPC} or {@link #PROTOCOL_HTTP}.
+     */
+    public String getOtelProtocol()
+    {
+        return otelProtocol;
+    }
+
+    public void setOtelProtocol( String otelProtocol )
+    {
+        this.otelProtocol = otelProtocol;
+    }
+
+    public Map<String, String> getOtelHeaders()
+    {
+        return otelHeaders;
+    }
+
+    public void setOtelHeaders( Map<String, String> otelHeaders )
+    {
+        this.otelHeaders = otelHeaders;
+    }
+
+    /**
+     * Resource attributes added to the exported metrics, typically the same as the ones configured for traces.
+     */
+    public Map<String, String> getOtelResources()
+    {
+        return otelResources;
+    }
+
+    public void setOtelResources( Map<String, String> otelResources )
+    {
+        this.otelResources = otelResources;
+    }
+
+    public long getOtelPeriodInSeconds()
+    {
+        return otelPeriodInSeconds;
+    }
+
+    public void setOtelPeriodInSeconds( long otelPeriodInSeconds )
+    {
+        this.otelPeriodInSeconds = otelPeriodInSeconds;
+    }
+
+    /**
+     * {@link #TEMPORALITY_CUMULATIVE} or {@link #TEMPORALITY_DELTA}, applied to the counters.
+     */
+    public String getOtelTemporality()
+    {
+        return otelTemporality;
+    }
+
+    public void setOtelTemporality( String otelTemporality )
+    {
+        this.otelTemporality = otelTemporality;
+    }
+
+    /**
+     * "none" or "gzip".
+     */
+    public String getOtelCompression()
+    {
+        return otelCompression;
+    }
+
+    public void setOtelCompression( String otelCompression )
+    {
+        this.otelCompression = otelCompression;
+    }
+}
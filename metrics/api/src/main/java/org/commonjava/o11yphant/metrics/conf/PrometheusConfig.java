@@ -15,50 +15,61 @@
  */
 package org.commonjava.o11yphant.metrics.conf;
 
+import org.commonjava.o11yphant.metrics.util.MetricNameMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 
 public class PrometheusConfig
 {
-    private final Logger logger = LoggerFactory.getLogger( getClass() );
+    /**
+     * Upper bound of cached expressed-metric decisions. The cache is dropped when it fills up, which only happens when
+     * metric names keep changing (e.g. names containing ids).
+     */
+    public static final int MAX_EXPRESSED_CACHE_SIZE = 50000;
 
-    private final Map<String, Boolean> expressedCache = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private List<String> expressedMetrics;
+    private volatile Expressions expressions = new Expressions( null );
 
     private String nodeLabel;
 
-    private final Function<String, Boolean> lookupFunction =
-                    name -> expressedMetrics != null && expressedMetrics.stream().anyMatch( n -> {
-        String pname = n.replace( '.', '_' );
-        if ( name.equals( n ) || name.contains( n ) || name.matches( n ) || pname.equals( name ) || pname.contains(
-                        name ) )
-        {
-            logger.trace( "ACCEPT metric: {} for expression: {}", name, n );
-            return true;
-        }
-        logger.trace( "REJECT metric: {} for expression: {}", name, n );
-        return false;
-    } );
+    private boolean streamingExposition;
+
+    private int scrapeCacheSeconds;
+
+    private boolean scrapeCacheBackgroundRefresh;
+
+    private boolean scrapeCacheGzip;
 
     public List<String> getExpressedMetrics()
     {
-        return expressedMetrics;
+        return expressions.metrics;
     }
 
     public void setExpressedMetrics( List<String> expressedMetrics )
     {
-        this.expressedMetrics = expressedMetrics;
+        this.expressions = new Expressions( expressedMetrics );
     }
 
     public boolean isMetricExpressed( String metricName )
     {
-        return expressedCache.computeIfAbsent( metricName, lookupFunction);
+        Expressions current = expressions;
+        Boolean expressed = current.cache.get( metricName );
+        if ( expressed == null )
+        {
+            expressed = current.matcher.matches( metricName );
+            if ( current.cache.size() >= MAX_EXPRESSED_CACHE_SIZE )
+            {
+                current.cache.clear();
+            }
+            current.cache.put( metricName, expressed );
+            logger.trace( "{} metric: {}", expressed ? "ACCEPT" : "REJECT", metricName );
+        }
+        return expressed;
     }
 
     public String getNodeLabel()
@@ -70,4 +81,77 @@ public class PrometheusConfig
     {
         this.nodeLabel = nodeLabel;
     }
+
+    /**
+     * When enabled, the Codahale metrics are written straight to the scrape response by
+     * PrometheusStreamingWriter instead of being collected into MetricFamilySamples first.
+     */
+    public boolean isStreamingExposition()
+    {
+        return streamingExposition;
+    }
+
+    public void setStreamingExposition( boolean streamingExposition )
+    {
+        this.streamingExposition = streamingExposition;
+    }
+
+    /**
+     * How long a rendered /metrics response is served to scrapers before it is rendered again. 0 (the default)
+     * disables the scrape cache.
+     */
+    public int getScrapeCacheSeconds()
+    {
+        return scrapeCacheSeconds;
+    }
+
+    public void setScrapeCacheSeconds( int scrapeCacheSeconds )
+    {
+        this.scrapeCacheSeconds = scrapeCacheSeconds;
+    }
+
+    /**
+     * Render the cached response from a background thread instead of on the first scrape that finds it stale.
+     */
+    public boolean isScrapeCacheBackgroundRefresh()
+    {
+        return scrapeCacheBackgroundRefresh;
+    }
+
+    public void setScrapeCacheBackgroundRefresh( boolean scrapeCacheBackgroundRefresh )
+    {
+        this.scrapeCacheBackgroundRefresh = scrapeCacheBackgroundRefresh;
+    }
+
+    /**
+     * Keep a gzip-compressed copy of the cached response for scrapers sending Accept-Encoding: gzip.
+     */
+    public boolean isScrapeCacheGzip()
+    {
+        return scrapeCacheGzip;
+    }
+
+    public void setScrapeCacheGzip( boolean scrapeCacheGzip )
+    {
+        this.scrapeCacheGzip = scrapeCacheGzip;
+    }
+
+    /**
+     * The expressed metrics list with its compiled matcher and decision cache, replaced as a whole when the list
+     * changes.
+     */
+    private static final class Expressions
+    {
+        private final List<String> metrics;
+
+        private final MetricNameMatcher matcher;
+
+        private final Map<String, Boolean> cache = new ConcurrentHashMap<>();
+
+        Expressions( List<String> metrics )
+        {
+            this.metrics = metrics;
+            this.matcher = MetricNameMatcher.compile( metrics );
+        }
+    }
 }
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiled form of a list of metric expressions. A metric name matches when, for any expression, the name contains
+ * the expression, the name fully matches the expression as a regex, or the expression with dots replaced by
+ * underscores contains the name.
+ *
+ * The substring check runs through one Aho-Corasick automaton for all expressions, so a name is scanned once no
+ * matter how many expressions there are. Regexes are compiled once; expressions that are not valid regexes are only
+ * used for the substring checks.
+ */
+public final class MetricNameMatcher
+{
+    private static final Logger logger = LoggerFactory.getLogger( MetricNameMatcher.class );
+
+    private static final MetricNameMatcher NONE = new MetricNameMatcher( new ArrayList<>() );
+
+    private final Node root = new Node();
+
+    private final boolean matchAll;
+
+    private final Pattern[] patterns;
+
+    private final String[] underscored;
+
+    private MetricNameMatcher( Collection<String> expressions )
+    {
+        List<Pattern> compiled = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        boolean all = false;
+        for ( String expression : expressions )
+        {
+            if ( expression == null )
+            {
+                continue;
+            }
+
+            if ( expression.isEmpty() )
+            {
+                all = true;
+            }
+
+            add( expression );
+            names.add( expression.replace( '.', '_' ) );
+            try
+            {
+                compiled.add( Pattern.compile( expression ) );
+            }
+            catch ( PatternSyntaxException e )
+            {
+                logger.warn( "Metric expression is not a valid regex, only using it as a substring: {}", expression );
+            }
+        }
+
+        this.matchAll = all;
+        this.patterns = compiled.toArray( new Pattern[0] );
+        this.underscored = names.toArray( new String[0] );
+        link();
+    }
+
+    public static MetricNameMatcher compile( Collection<String> expressions )
+    {
+        return expressions == null || expressions.isEmpty() ? NONE : new MetricNameMatcher( expressions );
+    }
+
+    public boolean matches( String name )
+    {
+        if ( matchAll || containsExpression( name ) )
+        {
+            return true;
+        }
+
+        for ( Pattern pattern : patterns )
+        {
+            if ( pattern.matcher( name ).matches() )
+            {
+                return true;
+            }
+        }
+
+        for ( String expression : underscored )
+        {
+            if ( expression.contains( name ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean containsExpression( String name )
+    {
+        Node node = root;
+        for ( int i = 0; i < name.length(); i++ )
+        {
+            char c = name.charAt( i );
+            Node next = node.next.get( c );
+            while ( next == null && node != root )
+            {
+                node = node.fail;
+                next = node.next.get( c );
+            }
+
+            node = next == null ? root : next;
+            if ( node.terminal )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void add( String expression )
+    {
+        Node node = root;
+        for ( int i = 0; i < expression.length(); i++ )
+        {
+            node = node.next.computeIfAbsent( expression.charAt( i ), c -> new Node() );
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Breadth-first pass setting the failure links. A node is terminal if any suffix of its path is an expression.
+     */
+    private void link()
+    {
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for ( Node child : root.next.values() )
+        {
+            child.fail = root;
+            queue.add( child );
+        }
+
+        while ( !queue.isEmpty() )
+        {
+            Node node = queue.remove();
+            for ( Map.Entry<Character, Node> entry : node.next.entrySet() )
+            {
+                Node child = entry.getValue();
+                Node fail = node.fail;
+                while ( fail != root && !fail.next.containsKey( entry.getKey() ) )
+                {
+                    fail = fail.fail;
+                }
+
+                Node target = fail.next.get( entry.getKey() );
+                child.fail = target == null || target == child ? root : target;
+                child.terminal |= child.fail.terminal;
+                queue.add( child );
+            }
+        }
+    }
+
+    private static final class Node
+    {
+        private final Map<Character, Node> next = new HashMap<>();
+
+        private Node fail;
+
+        private boolean terminal;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.api;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class MetricIdTest
+{
+    @Test
+    public void labelsAreSortedAndIdsInterned()
+    {
+        MetricId id = MetricId.of( "content.retrieve", "status", "200", "function", "get" );
+        assertEquals( "content.retrieve;function=get;status=200", id.getEncoded() );
+        assertSame( id, MetricId.of( "content.retrieve", "function", "get", "status", "200" ) );
+        assertSame( id, MetricId.parse( "content.retrieve;function=get;status=200" ) );
+        assertSame( id, MetricId.of( "content.retrieve", "function", "get" ).tagged( "status", "200" ) );
+        assertEquals( "function", id.getLabelName( 0 ) );
+        assertEquals( "200", id.getLabelValue( 1 ) );
+    }
+
+    @Test
+    public void plainNamesAreTheirOwnEncoding()
+    {
+        MetricId id = MetricId.parse( "node.Foo.bar.timer" );
+        assertEquals( "node.Foo.bar.timer", id.getName() );
+        assertFalse( id.hasLabels() );
+        assertSame( id, MetricId.of( "node.Foo.bar.timer" ) );
+        assertEquals( Collections.emptyMap(), id.getLabels() );
+        assertEquals( "app.errors", MetricId.nameOf( "app.errors;exception=IOException" ) );
+    }
+
+    @Test
+    public void valuesMayContainEqualsAndDots()
+    {
+        MetricId id = MetricId.parse( "path.hits;path=/a=b.c" );
+        assertEquals( "/a=b.c", id.getLabels().get( "path" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void invalidLabelName()
+    {
+        MetricId.of( "name", "not-valid", "v" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void separatorInValue()
+    {
+        MetricId.of( "name", "k", "a;b" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void reservedLabelName()
+    {
+        MetricId.of( "name", "quantile", "0.99" );
+    }
+
+    @Test
+    public void undecodableNamesParseAsPlainNames()
+    {
+        for ( String legacy : new String[] { "legacy;name", "legacy;node=a", "legacy;k=a;k=b", ";k=v" } )
+        {
+            MetricId id = MetricId.parse( legacy );
+            assertEquals( legacy, id.getName() );
+            assertEquals( legacy, id.getEncoded() );
+            assertEquals( 0, id.getLabelCount() );
+        }
+    }
+}
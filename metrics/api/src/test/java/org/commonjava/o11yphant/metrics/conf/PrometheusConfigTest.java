@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.conf;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusConfigTest
+{
+    @Test
+    public void expressedMetrics()
+    {
+        PrometheusConfig config = new PrometheusConfig();
+        assertFalse( config.isMetricExpressed( "anything" ) );
+
+        config.setExpressedMetrics( Arrays.asList( "content.retrieve", "jvm\\.memory\\..*", "[broken", "she", "hers" ) );
+
+        // name contains the expression
+        assertTrue( config.isMetricExpressed( "node1.content.retrieve.timer" ) );
+        assertTrue( config.isMetricExpressed( "ushers" ) );
+        assertTrue( config.isMetricExpressed( "a[broken" ) );
+
+        // name matches the expression as a regex
+        assertTrue( config.isMetricExpressed( "jvm.memory.heap.used" ) );
+        assertFalse( config.isMetricExpressed( "jvm.memorypool" ) );
+
+        // the expression, with dots as underscores, contains the name
+        assertTrue( config.isMetricExpressed( "content_retrieve" ) );
+        assertTrue( config.isMetricExpressed( "retrie" ) );
+
+        assertFalse( config.isMetricExpressed( "content.store.timer" ) );
+        assertFalse( config.isMetricExpressed( "his" ) );
+    }
+
+    @Test
+    public void changedExpressionsInvalidateCache()
+    {
+        PrometheusConfig config = new PrometheusConfig();
+        config.setExpressedMetrics( Collections.singletonList( "content" ) );
+        assertTrue( config.isMetricExpressed( "content.retrieve" ) );
+        assertFalse( config.isMetricExpressed( "jvm.gc" ) );
+
+        config.setExpressedMetrics( Collections.singletonList( "jvm" ) );
+        assertFalse( config.isMetricExpressed( "content.retrieve" ) );
+        assertTrue( config.isMetricExpressed( "jvm.gc" ) );
+    }
+}
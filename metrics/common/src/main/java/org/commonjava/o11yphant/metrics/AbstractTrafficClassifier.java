@@ -16,8 +16,13 @@
 package org.commonjava.o11yphant.metrics;
 
 import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.commonjava.o11yphant.metrics.api.Meter;
+import org.commonjava.o11yphant.metrics.api.Metric;
+import org.commonjava.o11yphant.metrics.api.MetricSet;
+import org.commonjava.o11yphant.metrics.impl.StripedMeter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Arrays.asList;
 
@@ -28,8 +33,52 @@ public abstract class AbstractTrafficClassifier
 
     public static final Set<String> MODIFY_METHODS = new HashSet<>( asList( "POST", "PUT", "DELETE" ) );
 
+    public static final String CACHE_HITS = "cache.hits";
+
+    public static final String CACHE_MISSES = "cache.misses";
+
+    private static final int DEFAULT_MAX_CACHED_ROUTES = 10000;
+
+    /**
+     * Classifiers are often {@code @Dependent} beans, so every injection point or lookup gets a new instance. The
+     * route cache and its meters are kept per classifier class instead, so all the instances share them.
+     */
+    private static final ClassValue<RouteCache> ROUTE_CACHES = new ClassValue<RouteCache>()
+    {
+        @Override
+        protected RouteCache computeValue( Class<?> type )
+        {
+            return new RouteCache();
+        }
+    };
+
+    private final RouteCache cache = ROUTE_CACHES.get( getClass() );
+
+    private volatile String[] routeHeaders;
+
     protected abstract List<String> calculateCachedFunctionClassifiers( String restPath, String method, Map<String, String> headers);
 
+    /**
+     * Normalize the request path to the route it belongs to, e.g. the first few path segments. Requests with the same
+     * route key, method and values of the {@link #getRequiredHeaders()} share one calculated result, so the key must
+     * keep every part of the path that {@link #calculateCachedFunctionClassifiers(String, String, Map)} looks at.
+     * Classifiers that read headers must declare them in {@link #getRequiredHeaders()} when using this.
+     *
+     * @return the route key, or null (the default) to calculate the classifiers for every request
+     */
+    protected String getRouteKey( String restPath )
+    {
+        return null;
+    }
+
+    /**
+     * Maximum number of routes kept in the process-wide cache. The cache is cleared when it is full.
+     */
+    protected int getMaxCachedRoutes()
+    {
+        return DEFAULT_MAX_CACHED_ROUTES;
+    }
+
     public List<String> classifyFunctions( String restPath, String method, Map<String, String> headers )
     {
         Optional<List<String>> cached = getCachedFunctionClassifiers();
@@ -38,12 +87,107 @@ public abstract class AbstractTrafficClassifier
             return cached.get();
         }
 
-        List<String> result = calculateCachedFunctionClassifiers( restPath, method, headers );
+        List<String> result;
+        String route = restPath == null ? null : getRouteKey( restPath );
+        if ( route == null )
+        {
+            result = calculateCachedFunctionClassifiers( restPath, method, headers );
+        }
+        else
+        {
+            String key = cacheKey( route, method, headers );
+            result = cache.routes.get( key );
+            if ( result != null )
+            {
+                cache.hits.mark();
+            }
+            else
+            {
+                cache.misses.mark();
+                List<String> calculated = calculateCachedFunctionClassifiers( restPath, method, headers );
+                result = calculated == null ?
+                                Collections.emptyList() :
+                                Collections.unmodifiableList( new ArrayList<>( calculated ) );
+
+                if ( cache.routes.size() >= getMaxCachedRoutes() )
+                {
+                    cache.routes.clear();
+                }
+                cache.routes.put( key, result );
+            }
+        }
 
         putCachedFunctionClassifiers( result );
         return result;
     }
 
+    private String cacheKey( String route, String method, Map<String, String> headers )
+    {
+        String[] names = routeHeaders;
+        if ( names == null )
+        {
+            Set<String> required = getRequiredHeaders();
+            names = required == null ? new String[0] : new TreeSet<>( required ).toArray( new String[0] );
+            routeHeaders = names;
+        }
+
+        StringBuilder sb = new StringBuilder( route.length() + 16 ).append( method ).append( ' ' ).append( route );
+        for ( String name : names )
+        {
+            String value = headers == null ? null : headers.get( name );
+            sb.append( '\n' ).append( value == null ? "" : value );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Keep the first segments of a path, e.g. <code>pathPrefix( "/api/content/maven/x/y", 3 )</code> returns
+     * <code>/api/content/maven</code>. Handy for {@link #getRouteKey(String)}.
+     */
+    protected static String pathPrefix( String restPath, int segments )
+    {
+        int idx = restPath.startsWith( "/" ) ? 1 : 0;
+        for ( int i = 0; i < segments; i++ )
+        {
+            int next = restPath.indexOf( '/', idx );
+            if ( next < 0 )
+            {
+                return restPath;
+            }
+            idx = next + 1;
+        }
+        return restPath.substring( 0, idx - 1 );
+    }
+
+    int getCachedRouteCount() // for test
+    {
+        return cache.routes.size();
+    }
+
+    /**
+     * Hit and miss meters of the process-wide route cache, shared by all instances of the classifier class.
+     */
+    public MetricSet getCacheMetricSet()
+    {
+        return new MetricSet()
+        {
+            @Override
+            public Map<String, Metric> getMetrics()
+            {
+                Map<String, Metric> metrics = new HashMap<>();
+                metrics.put( CACHE_HITS, cache.hits );
+                metrics.put( CACHE_MISSES, cache.misses );
+                return metrics;
+            }
+
+            @Override
+            public void reset()
+            {
+                cache.routes.clear();
+            }
+        };
+    }
+
     public Optional<List<String>> getCachedFunctionClassifiers()
     {
         ThreadContext ctx = ThreadContext.getContext( false );
@@ -69,4 +213,12 @@ public abstract class AbstractTrafficClassifier
         }
     }
 
+    private static final class RouteCache
+    {
+        private final Map<String, List<String>> routes = new ConcurrentHashMap<>();
+
+        private final Meter hits = new StripedMeter();
+
+        private final Meter misses = new StripedMeter();
+    }
 }
@@ -0,0 +1,620 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_COUNT;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_TIMINGS;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_TIMINGS_ACCUMULATOR;
+
+/**
+ * Per-request cumulative timings (total elapsed ms, call count and max ms per metric name).
+ *
+ * Names are interned process-wide into int ids once. The values live in primitive arrays split into fixed-size
+ * chunks (stripes) of ids, which are only allocated when an id in their range is first used. Updates are lock-free
+ * CAS operations, so one instance can be shared by all threads working on the same request context. Nothing is
+ * allocated or boxed on the accumulate path once the name and its stripe are known.
+ *
+ * The id table is bounded ({@link #MAX_IDS}), since names can come from request data. Names seen after it is full
+ * get no id; they are kept in a small per-instance map instead, which is slower but goes away with the request.
+ *
+ * For code using the {@link MetricsConstants#CUMULATIVE_TIMINGS} and {@link MetricsConstants#CUMULATIVE_COUNT}
+ * maps from the ThreadContext, {@link #get(ThreadContext, boolean)} registers live map views under those keys when
+ * the instance is created. The views support put(), which overwrites the total (or count) of a name.
+ */
+public final class CumulativeTimings
+{
+    /**
+     * Maximum number of names that get a process-wide id.
+     */
+    public static final int MAX_IDS = 4096;
+
+    /**
+     * Returned from {@link #id(String)} when the id table is full.
+     */
+    public static final int NO_ID = -1;
+
+    private static final int STRIPE_SHIFT = 5;
+
+    private static final int STRIPE_SIZE = 1 << STRIPE_SHIFT;
+
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    private static final Map<String, Integer> NAME_IDS = new ConcurrentHashMap<>();
+
+    private static volatile String[] idNames = new String[64];
+
+    private static int nextId;
+
+    private volatile Stripe[] stripes = new Stripe[0];
+
+    private volatile Map<String, Overflow> overflow;
+
+    /**
+     * Callback for {@link #forEach(Visitor)}.
+     */
+    @FunctionalInterface
+    public interface Visitor
+    {
+        void visit( String name, long count, double totalMs, double maxMs );
+    }
+
+    /**
+     * Get the instance stored in the given context, optionally creating it.
+     *
+     * @return the instance, or null if ctx is null or create is false and there is none yet
+     */
+    public static CumulativeTimings get( ThreadContext ctx, boolean create )
+    {
+        if ( ctx == null )
+        {
+            return null;
+        }
+
+        CumulativeTimings timings = (CumulativeTimings) ctx.get( CUMULATIVE_TIMINGS_ACCUMULATOR );
+        if ( timings == null && create )
+        {
+            CumulativeTimings created = new CumulativeTimings();
+            timings = (CumulativeTimings) ctx.putIfAbsent( CUMULATIVE_TIMINGS_ACCUMULATOR, created );
+            if ( timings == null )
+            {
+                timings = created;
+                ctx.put( CUMULATIVE_TIMINGS, created.timingsView() );
+                ctx.put( CUMULATIVE_COUNT, created.countsView() );
+            }
+        }
+
+        return timings;
+    }
+
+    /**
+     * Get the process-wide id for a metric name, assigning one if needed.
+     *
+     * @return the id, or {@link #NO_ID} if the name has none and the id table is full
+     */
+    public static int id( String name )
+    {
+        Integer id = NAME_IDS.get( name );
+        return id != null ? id : assignId( name );
+    }
+
+    private static synchronized int assignId( String name )
+    {
+        Integer id = NAME_IDS.get( name );
+        if ( id != null )
+        {
+            return id;
+        }
+
+        if ( nextId >= MAX_IDS )
+        {
+            return NO_ID;
+        }
+
+        int assigned = nextId++;
+        String[] names = idNames;
+        if ( assigned >= names.length )
+        {
+            String[] grown = new String[names.length * 2];
+            System.arraycopy( names, 0, grown, 0, names.length );
+            names = grown;
+        }
+        names[assigned] = name;
+        idNames = names;
+
+        // publish the id only after the name can be resolved from it
+        NAME_IDS.put( name, assigned );
+        return assigned;
+    }
+
+    private static String nameOf( int id )
+    {
+        return idNames[id];
+    }
+
+    public void accumulate( String name, double elapsedMs )
+    {
+        int id = id( name );
+        if ( id == NO_ID )
+        {
+            overflow( name, true ).accumulate( elapsedMs );
+        }
+        else
+        {
+            accumulate( id, elapsedMs );
+        }
+    }
+
+    /**
+     * Accumulate by id. The id must come from {@link #id(String)} and must not be {@link #NO_ID}.
+     */
+    public void accumulate( int id, double elapsedMs )
+    {
+        if ( id < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid cumulative timing id: " + id );
+        }
+
+        Stripe stripe = stripe( id >>> STRIPE_SHIFT, true );
+        int idx = id & STRIPE_MASK;
+
+        stripe.counts.incrementAndGet( idx );
+
+        long prev;
+        do
+        {
+            prev = stripe.totals.get( idx );
+        }
+        while ( !stripe.totals.compareAndSet( idx, prev,
+                                              Double.doubleToRawLongBits( Double.longBitsToDouble( prev ) + elapsedMs ) ) );
+
+        do
+        {
+            prev = stripe.maxes.get( idx );
+        }
+        while ( elapsedMs > Double.longBitsToDouble( prev ) && !stripe.maxes.compareAndSet( idx, prev,
+                                                                                            Double.doubleToRawLongBits(
+                                                                                                            elapsedMs ) ) );
+    }
+
+    public long getCount( String name )
+    {
+        Integer id = NAME_IDS.get( name );
+        if ( id == null )
+        {
+            Overflow o = overflow( name, false );
+            return o == null ? 0 : o.getCount();
+        }
+
+        Stripe stripe = stripe( id >>> STRIPE_SHIFT, false );
+        return stripe == null ? 0 : stripe.counts.get( id & STRIPE_MASK );
+    }
+
+    public double getTotalMs( String name )
+    {
+        Integer id = NAME_IDS.get( name );
+        if ( id == null )
+        {
+            Overflow o = overflow( name, false );
+            return o == null ? 0 : o.getTotal();
+        }
+
+        Stripe stripe = stripe( id >>> STRIPE_SHIFT, false );
+        return stripe == null ? 0 : Double.longBitsToDouble( stripe.totals.get( id & STRIPE_MASK ) );
+    }
+
+    public double getMaxMs( String name )
+    {
+        Integer id = NAME_IDS.get( name );
+        if ( id == null )
+        {
+            Overflow o = overflow( name, false );
+            return o == null ? 0 : o.getMax();
+        }
+
+        Stripe stripe = stripe( id >>> STRIPE_SHIFT, false );
+        return stripe == null ? 0 : Double.longBitsToDouble( stripe.maxes.get( id & STRIPE_MASK ) );
+    }
+
+    /**
+     * Visit every metric that was accumulated at least once. This is the bulk export, it allocates nothing itself
+     * unless names without an id were accumulated.
+     */
+    public void forEach( Visitor visitor )
+    {
+        Stripe[] current = stripes;
+        for ( int s = 0; s < current.length; s++ )
+        {
+            Stripe stripe = current[s];
+            if ( stripe == null )
+            {
+                continue;
+            }
+
+            for ( int i = 0; i < STRIPE_SIZE; i++ )
+            {
+                long count = stripe.counts.get( i );
+                if ( count > 0 )
+                {
+                    visitor.visit( nameOf( ( s << STRIPE_SHIFT ) | i ), count,
+                                   Double.longBitsToDouble( stripe.totals.get( i ) ),
+                                   Double.longBitsToDouble( stripe.maxes.get( i ) ) );
+                }
+            }
+        }
+
+        Map<String, Overflow> extra = overflow;
+        if ( extra != null )
+        {
+            extra.forEach( ( name, o ) -> {
+                long count = o.getCount();
+                if ( count > 0 )
+                {
+                    visitor.visit( name, count, o.getTotal(), o.getMax() );
+                }
+            } );
+        }
+    }
+
+    public Map<String, Double> exportTimings()
+    {
+        Map<String, Double> result = new HashMap<>();
+        forEach( ( name, count, total, max ) -> result.put( name, total ) );
+        return result;
+    }
+
+    public Map<String, Integer> exportCounts()
+    {
+        Map<String, Integer> result = new HashMap<>();
+        forEach( ( name, count, total, max ) -> result.put( name, (int) count ) );
+        return result;
+    }
+
+    /**
+     * Live view of the total ms per name. Putting a total for a name with no calls yet counts it as one call.
+     */
+    public Map<String, Double> timingsView()
+    {
+        return new View<Double>()
+        {
+            @Override
+            Double value( long count, double total )
+            {
+                return total;
+            }
+
+            @Override
+            void set( String name, Double value )
+            {
+                setValues( name, -1, value );
+            }
+        };
+    }
+
+    /**
+     * Live view of the call count per name.
+     */
+    public Map<String, Integer> countsView()
+    {
+        return new View<Integer>()
+        {
+            @Override
+            Integer value( long count, double total )
+            {
+                return (int) count;
+            }
+
+            @Override
+            void set( String name, Integer value )
+            {
+                setValues( name, value, Double.NaN );
+            }
+        };
+    }
+
+    /**
+     * Overwrite the count (if not negative) and / or total (if not NaN) of a name. Used by the map views.
+     */
+    private void setValues( String name, long count, double total )
+    {
+        int id = id( name );
+        if ( id == NO_ID )
+        {
+            overflow( name, true ).set( count, total );
+            return;
+        }
+
+        Stripe stripe = stripe( id >>> STRIPE_SHIFT, true );
+        int idx = id & STRIPE_MASK;
+        if ( !Double.isNaN( total ) )
+        {
+            stripe.totals.set( idx, Double.doubleToRawLongBits( total ) );
+            if ( count < 0 )
+            {
+                stripe.counts.compareAndSet( idx, 0, 1 );
+            }
+        }
+        if ( count >= 0 )
+        {
+            stripe.counts.set( idx, count );
+        }
+    }
+
+    private Overflow overflow( String name, boolean create )
+    {
+        Map<String, Overflow> extra = overflow;
+        if ( extra == null )
+        {
+            if ( !create )
+            {
+                return null;
+            }
+
+            synchronized ( this )
+            {
+                extra = overflow;
+                if ( extra == null )
+                {
+                    extra = new ConcurrentHashMap<>();
+                    overflow = extra;
+                }
+            }
+        }
+
+        return create ? extra.computeIfAbsent( name, k -> new Overflow() ) : extra.get( name );
+    }
+
+    private Stripe stripe( int index, boolean create )
+    {
+        Stripe[] current = stripes;
+        if ( index < current.length && current[index] != null )
+        {
+            return current[index];
+        }
+
+        return create ? createStripe( index ) : null;
+    }
+
+    private synchronized Stripe createStripe( int index )
+    {
+        Stripe[] current = stripes;
+        if ( index >= current.length )
+        {
+            Stripe[] grown = new Stripe[index + 1];
+            System.arraycopy( current, 0, grown, 0, current.length );
+            current = grown;
+        }
+
+        Stripe stripe = current[index];
+        if ( stripe == null )
+        {
+            stripe = new Stripe();
+            current[index] = stripe;
+        }
+
+        stripes = current;
+        return stripe;
+    }
+
+    private static final class Stripe
+    {
+        private final AtomicLongArray counts = new AtomicLongArray( STRIPE_SIZE );
+
+        private final AtomicLongArray totals = new AtomicLongArray( STRIPE_SIZE );
+
+        private final AtomicLongArray maxes = new AtomicLongArray( STRIPE_SIZE );
+    }
+
+    private static final class Overflow
+    {
+        private long count;
+
+        private double total;
+
+        private double max;
+
+        synchronized void accumulate( double elapsedMs )
+        {
+            count++;
+            total += elapsedMs;
+            max = Math.max( max, elapsedMs );
+        }
+
+        synchronized void set( long newCount, double newTotal )
+        {
+            if ( !Double.isNaN( newTotal ) )
+            {
+                total = newTotal;
+                if ( newCount < 0 && count == 0 )
+                {
+                    count = 1;
+                }
+            }
+            if ( newCount >= 0 )
+            {
+                count = newCount;
+            }
+        }
+
+        synchronized long getCount()
+        {
+            return count;
+        }
+
+        synchronized double getTotal()
+        {
+            return total;
+        }
+
+        synchronized double getMax()
+        {
+            return max;
+        }
+    }
+
+    private abstract class View<V>
+                    extends AbstractMap<String, V>
+    {
+        abstract V value( long count, double total );
+
+        abstract void set( String name, V value );
+
+        @Override
+        public V get( Object key )
+        {
+            if ( !( key instanceof String ) )
+            {
+                return null;
+            }
+
+            String name = (String) key;
+            long count = getCount( name );
+            return count == 0 ? null : value( count, getTotalMs( name ) );
+        }
+
+        @Override
+        public V put( String key, V value )
+        {
+            V old = get( key );
+            set( key, value );
+            return old;
+        }
+
+        @Override
+        public boolean containsKey( Object key )
+        {
+            return get( key ) != null;
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet()
+        {
+            return new AbstractSet<Entry<String, V>>()
+            {
+                @Override
+                public Iterator<Entry<String, V>> iterator()
+                {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    int size = 0;
+                    for ( Iterator<Entry<String, V>> it = iterator(); it.hasNext(); it.next() )
+                    {
+                        size++;
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private final class EntryIterator
+                        implements Iterator<Entry<String, V>>
+        {
+            private final Stripe[] snapshot = stripes;
+
+            private final Iterator<Entry<String, Overflow>> extra;
+
+            private Entry<String, Overflow> nextExtra;
+
+            private int next = -1;
+
+            EntryIterator()
+            {
+                Map<String, Overflow> o = overflow;
+                extra = o == null ? Collections.emptyIterator() : o.entrySet().iterator();
+                advance();
+            }
+
+            private void advance()
+            {
+                int limit = snapshot.length << STRIPE_SHIFT;
+                for ( next++; next < limit; next++ )
+                {
+                    Stripe stripe = snapshot[next >>> STRIPE_SHIFT];
+                    if ( stripe == null )
+                    {
+                        next = ( ( next >>> STRIPE_SHIFT ) << STRIPE_SHIFT ) + STRIPE_MASK;
+                    }
+                    else if ( stripe.counts.get( next & STRIPE_MASK ) > 0 )
+                    {
+                        return;
+                    }
+                }
+
+                nextExtra = null;
+                while ( extra.hasNext() )
+                {
+                    Entry<String, Overflow> e = extra.next();
+                    if ( e.getValue().getCount() > 0 )
+                    {
+                        nextExtra = e;
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < snapshot.length << STRIPE_SHIFT || nextExtra != null;
+            }
+
+            @Override
+            public Entry<String, V> next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                Entry<String, V> result;
+                if ( next < snapshot.length << STRIPE_SHIFT )
+                {
+                    int id = next;
+                    Stripe stripe = snapshot[id >>> STRIPE_SHIFT];
+                    int idx = id & STRIPE_MASK;
+                    result = new SimpleImmutableEntry<>( nameOf( id ), value( stripe.counts.get( idx ),
+                                                                              Double.longBitsToDouble(
+                                                                                              stripe.totals.get(
+                                                                                                              idx ) ) ) );
+                }
+                else
+                {
+                    Overflow o = nextExtra.getValue();
+                    result = new SimpleImmutableEntry<>( nextExtra.getKey(), value( o.getCount(), o.getTotal() ) );
+                }
+
+                advance();
+                return result;
+            }
+        }
+    }
+}
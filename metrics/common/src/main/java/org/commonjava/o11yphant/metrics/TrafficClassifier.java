@@ -18,11 +18,25 @@ package org.commonjava.o11yphant.metrics;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface TrafficClassifier
 {
+    /**
+     * @param headers request headers. Callers may pass a lazy, read-only view, so prefer {@link Map#get(Object)} over
+     *                iterating.
+     */
     List<String> classifyFunctions( String restPath, String method, Map<String, String> headers );
 
+    /**
+     * Headers the classifier reads, or null if it may read any of them. Other headers are not passed to
+     * {@link #classifyFunctions(String, String, Map)}.
+     */
+    default Set<String> getRequiredHeaders()
+    {
+        return null;
+    }
+
     default void putCachedFunctionClassifiers( List<String> result )
     {}
 
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codahale {@link Reservoir} backed by an HdrHistogram {@link Recorder}. Recording is lock-free (no contention
+ * between threads calling update()), and percentiles are exact up to the configured number of significant digits,
+ * instead of being estimated from a sample.
+ *
+ * Values are gathered in time windows. A snapshot covers the last complete window plus the current one, so it always
+ * reflects between one and two windows of recent data. Windows are rotated when snapshots are taken. Negative values
+ * cannot be recorded in an HdrHistogram and are ignored.
+ */
+public class HdrHistogramReservoir
+                implements Reservoir
+{
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+    public static final long DEFAULT_WINDOW_SECONDS = 60;
+
+    private final Recorder recorder;
+
+    private final long windowNanos;
+
+    private Histogram intervalHistogram;
+
+    private Histogram current;
+
+    private Histogram previous;
+
+    private long windowStart;
+
+    public HdrHistogramReservoir()
+    {
+        this( DEFAULT_SIGNIFICANT_DIGITS, DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS );
+    }
+
+    public HdrHistogramReservoir( int significantDigits, long window, TimeUnit windowUnit )
+    {
+        this.recorder = new Recorder( significantDigits );
+        this.windowNanos = windowUnit.toNanos( window );
+        this.current = new Histogram( significantDigits );
+        this.previous = new Histogram( significantDigits );
+        this.windowStart = System.nanoTime();
+    }
+
+    @Override
+    public int size()
+    {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update( long value )
+    {
+        if ( value >= 0 )
+        {
+            recorder.recordValue( value );
+        }
+    }
+
+    /**
+     * Record a value <code>count</code> times at once.
+     */
+    public void update( long value, long count )
+    {
+        if ( value >= 0 && count > 0 )
+        {
+            recorder.recordValueWithCount( value, count );
+        }
+    }
+
+    @Override
+    public Snapshot getSnapshot()
+    {
+        return new HdrSnapshot( windowedHistogram() );
+    }
+
+    private synchronized Histogram windowedHistogram()
+    {
+        intervalHistogram = recorder.getIntervalHistogram( intervalHistogram );
+        current.add( intervalHistogram );
+
+        long now = System.nanoTime();
+        if ( now - windowStart >= windowNanos )
+        {
+            Histogram recycled = previous;
+            previous = current;
+            current = recycled;
+            current.reset();
+            windowStart = now;
+        }
+
+        Histogram merged = previous.copy();
+        merged.add( current );
+        return merged;
+    }
+}
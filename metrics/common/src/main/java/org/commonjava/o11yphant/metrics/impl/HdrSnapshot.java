@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codahale {@link Snapshot} over an HdrHistogram. {@link #getValues()} and {@link #dump(OutputStream)} return one
+ * value per distinct recorded bucket (not one per recorded value), since a histogram doesn't keep individual values.
+ */
+public class HdrSnapshot
+                extends Snapshot
+{
+    private final Histogram histogram;
+
+    public HdrSnapshot( Histogram histogram )
+    {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue( double quantile )
+    {
+        if ( quantile < 0.0 || quantile > 1.0 || Double.isNaN( quantile ) )
+        {
+            throw new IllegalArgumentException( quantile + " is not in [0..1]" );
+        }
+
+        if ( histogram.getTotalCount() == 0 )
+        {
+            return 0.0;
+        }
+
+        return histogram.getValueAtPercentile( quantile * 100.0 );
+    }
+
+    @Override
+    public long[] getValues()
+    {
+        long[] values = new long[countDistinct()];
+        int i = 0;
+        for ( HistogramIterationValue v : histogram.recordedValues() )
+        {
+            values[i++] = histogram.highestEquivalentValue( v.getValueIteratedTo() );
+        }
+        return values;
+    }
+
+    @Override
+    public int size()
+    {
+        return (int) Math.min( histogram.getTotalCount(), Integer.MAX_VALUE );
+    }
+
+    @Override
+    public long getMax()
+    {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean()
+    {
+        return histogram.getTotalCount() == 0 ? 0.0 : histogram.getMean();
+    }
+
+    @Override
+    public long getMin()
+    {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev()
+    {
+        return histogram.getTotalCount() < 2 ? 0.0 : histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump( OutputStream output )
+    {
+        try (PrintWriter out = new PrintWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ) ))
+        {
+            for ( long value : getValues() )
+            {
+                out.printf( "%d%n", value );
+            }
+        }
+    }
+
+    public Histogram getHistogram()
+    {
+        return histogram;
+    }
+
+    private int countDistinct()
+    {
+        int count = 0;
+        for ( HistogramIterationValue ignored : histogram.recordedValues() )
+        {
+            count++;
+        }
+        return count;
+    }
+}
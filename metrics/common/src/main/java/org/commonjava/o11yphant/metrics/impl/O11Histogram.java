@@ -25,7 +25,7 @@ public class O11Histogram implements Histogram
 
     public O11Histogram()
     {
-        this.codehaleHistogram = new com.codahale.metrics.Histogram( new ExponentiallyDecayingReservoir() );
+        this.codehaleHistogram = new WeightedHistogram( new ExponentiallyDecayingReservoir() );
     }
 
     public O11Histogram( com.codahale.metrics.Histogram codehaleHistogram )
@@ -44,6 +44,19 @@ public class O11Histogram implements Histogram
         codehaleHistogram.update( value );
     }
 
+    @Override
+    public void update( long value, long weight )
+    {
+        if ( codehaleHistogram instanceof WeightedHistogram )
+        {
+            ( (WeightedHistogram) codehaleHistogram ).update( value, weight );
+        }
+        else
+        {
+            Histogram.super.update( value, weight );
+        }
+    }
+
     @Override
     public long getCount()
     {
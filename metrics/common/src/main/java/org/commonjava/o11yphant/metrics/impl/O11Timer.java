@@ -27,7 +27,7 @@ public class O11Timer
 
     public O11Timer()
     {
-        codahaleTimer = new com.codahale.metrics.Timer();
+        codahaleTimer = new WeightedTimer();
     }
 
     public O11Timer( com.codahale.metrics.Timer timer )
@@ -77,6 +77,19 @@ public class O11Timer
         codahaleTimer.update( duration, timeUnit );
     }
 
+    @Override
+    public void update( long duration, TimeUnit timeUnit, long weight )
+    {
+        if ( codahaleTimer instanceof WeightedTimer )
+        {
+            ( (WeightedTimer) codahaleTimer ).update( duration, timeUnit, weight );
+        }
+        else
+        {
+            Timer.super.update( duration, timeUnit, weight );
+        }
+    }
+
     @Override
     public Snapshot getSnapshot()
     {
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.EWMA;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * High-throughput meter. The Codahale {@link com.codahale.metrics.Meter} checks the clock and updates three moving
+ * averages on every mark(); here mark() only increments a {@link LongAdder}, and the moving averages catch up on the
+ * marked events lazily when a rate is read (usually by a reporter or a scrape).
+ *
+ * Events counted between two reads are spread evenly over the 5 second intervals that passed in between, so the
+ * rates match the Codahale meter for steady traffic, and smooth out bursts that happen between reads.
+ */
+public class StripedMeter
+                extends O11Meter
+{
+    public StripedMeter()
+    {
+        this( new LazyTickingMeter() );
+    }
+
+    public StripedMeter( LazyTickingMeter meter )
+    {
+        super( meter );
+    }
+
+    /**
+     * The Codahale side of a {@link StripedMeter}, so it can be registered in a Codahale registry and read by all
+     * reporters.
+     */
+    public static class LazyTickingMeter
+                    extends com.codahale.metrics.Meter
+    {
+        private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos( 5 );
+
+        // more than 30 minutes of missed ticks leaves nothing of the older events in the 15 minute average
+        private static final long MAX_TICKS = 360;
+
+        private final LongAdder count = new LongAdder();
+
+        private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+
+        private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+
+        private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+
+        private final Clock clock;
+
+        private final long startTime;
+
+        private long lastTick;
+
+        private long tickedCount;
+
+        public LazyTickingMeter()
+        {
+            this( Clock.defaultClock() );
+        }
+
+        public LazyTickingMeter( Clock clock )
+        {
+            super( clock );
+            this.clock = clock;
+            this.startTime = clock.getTick();
+            this.lastTick = startTime;
+        }
+
+        @Override
+        public void mark()
+        {
+            count.increment();
+        }
+
+        @Override
+        public void mark( long n )
+        {
+            count.add( n );
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        @Override
+        public double getMeanRate()
+        {
+            long current = getCount();
+            if ( current == 0 )
+            {
+                return 0.0;
+            }
+
+            double elapsed = clock.getTick() - startTime;
+            return elapsed <= 0 ? 0.0 : current / elapsed * TimeUnit.SECONDS.toNanos( 1 );
+        }
+
+        @Override
+        public double getOneMinuteRate()
+        {
+            tickIfNecessary();
+            return m1Rate.getRate( TimeUnit.SECONDS );
+        }
+
+        @Override
+        public double getFiveMinuteRate()
+        {
+            tickIfNecessary();
+            return m5Rate.getRate( TimeUnit.SECONDS );
+        }
+
+        @Override
+        public double getFifteenMinuteRate()
+        {
+            tickIfNecessary();
+            return m15Rate.getRate( TimeUnit.SECONDS );
+        }
+
+        private synchronized void tickIfNecessary()
+        {
+            long age = clock.getTick() - lastTick;
+            if ( age < TICK_INTERVAL )
+            {
+                return;
+            }
+
+            long ticks = age / TICK_INTERVAL;
+            lastTick += ticks * TICK_INTERVAL;
+
+            long total = count.sum();
+            long uncounted = total - tickedCount;
+            tickedCount = total;
+
+            long applied = Math.min( ticks, MAX_TICKS );
+            long events = ticks == applied ? uncounted : uncounted * applied / ticks;
+            long perTick = events / applied;
+            long remainder = events - perTick * applied;
+
+            for ( long i = 0; i < applied; i++ )
+            {
+                long n = i == applied - 1 ? perTick + remainder : perTick;
+                if ( n > 0 )
+                {
+                    m1Rate.update( n );
+                    m5Rate.update( n );
+                    m15Rate.update( n );
+                }
+                m1Rate.tick();
+                m5Rate.tick();
+                m15Rate.tick();
+            }
+        }
+    }
+}
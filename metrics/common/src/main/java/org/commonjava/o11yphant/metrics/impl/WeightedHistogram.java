@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import com.codahale.metrics.Reservoir;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Codahale histogram that can record a value standing for several values, for sampled recording. The count grows by
+ * the weight. An {@link HdrHistogramReservoir} records the value with the weight as its count; other reservoirs keep
+ * a sample of the values anyway, so they get the value once.
+ */
+public class WeightedHistogram
+                extends com.codahale.metrics.Histogram
+{
+    private final Reservoir reservoir;
+
+    private final LongAdder count = new LongAdder();
+
+    public WeightedHistogram( Reservoir reservoir )
+    {
+        super( reservoir );
+        this.reservoir = reservoir;
+    }
+
+    @Override
+    public void update( int value )
+    {
+        update( (long) value );
+    }
+
+    @Override
+    public void update( long value )
+    {
+        count.increment();
+        reservoir.update( value );
+    }
+
+    public void update( long value, long weight )
+    {
+        if ( weight <= 0 )
+        {
+            return;
+        }
+
+        count.add( weight );
+        if ( reservoir instanceof HdrHistogramReservoir )
+        {
+            ( (HdrHistogramReservoir) reservoir ).update( value, weight );
+        }
+        else
+        {
+            reservoir.update( value );
+        }
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.sum();
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codahale timer that can record a duration standing for several calls, for sampled recording. The count and the
+ * rates grow by the weight, see {@link WeightedHistogram} for the durations.
+ */
+public class WeightedTimer
+                extends com.codahale.metrics.Timer
+{
+    private final Meter meter;
+
+    private final WeightedHistogram histogram;
+
+    public WeightedTimer()
+    {
+        this( new ExponentiallyDecayingReservoir() );
+    }
+
+    public WeightedTimer( Reservoir reservoir )
+    {
+        this( new Meter(), new WeightedHistogram( reservoir ), Clock.defaultClock() );
+    }
+
+    private WeightedTimer( Meter meter, WeightedHistogram histogram, Clock clock )
+    {
+        super( meter, histogram, clock );
+        this.meter = meter;
+        this.histogram = histogram;
+    }
+
+    @Override
+    public void update( long duration, TimeUnit unit )
+    {
+        update( duration, unit, 1 );
+    }
+
+    public void update( long duration, TimeUnit unit, long weight )
+    {
+        if ( duration >= 0 && weight > 0 )
+        {
+            histogram.update( unit.toNanos( duration ), weight );
+            meter.mark( weight );
+        }
+    }
+}
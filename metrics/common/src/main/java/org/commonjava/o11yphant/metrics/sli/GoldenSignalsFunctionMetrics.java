@@ -20,7 +20,7 @@ import org.commonjava.o11yphant.metrics.api.Meter;
 import org.commonjava.o11yphant.metrics.api.Metric;
 import org.commonjava.o11yphant.metrics.api.Timer;
 import org.commonjava.o11yphant.metrics.healthcheck.impl.HealthCheckResult;
-import org.commonjava.o11yphant.metrics.impl.O11Meter;
+import org.commonjava.o11yphant.metrics.impl.StripedMeter;
 import org.commonjava.o11yphant.metrics.impl.O11Timer;
 
 import java.util.HashMap;
@@ -43,9 +43,9 @@ public class GoldenSignalsFunctionMetrics
     public GoldenSignalsFunctionMetrics( String name )
     {
         this.name = name;
-        this.load = new O11Meter();
-        this.errors = new O11Meter();
-        this.throughput = new O11Meter();
+        this.load = new StripedMeter();
+        this.errors = new StripedMeter();
+        this.throughput = new StripedMeter();
         this.latency = new O11Timer();
     }
 
@@ -78,6 +78,14 @@ public class GoldenSignalsFunctionMetrics
         return this;
     }
 
+    /**
+     * @return the number of calls started so far
+     */
+    public long getLoadCount()
+    {
+        return load.getCount();
+    }
+
     public HealthCheck getHealthCheck()
     {
         return new GSFunctionHealthCheck();
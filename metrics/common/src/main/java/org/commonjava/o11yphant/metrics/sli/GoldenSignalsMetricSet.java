@@ -15,24 +15,45 @@
  */
 package org.commonjava.o11yphant.metrics.sli;
 
+import org.commonjava.o11yphant.metrics.api.DynamicMetricSet;
 import org.commonjava.o11yphant.metrics.api.Metric;
-import org.commonjava.o11yphant.metrics.api.MetricSet;
 import org.commonjava.o11yphant.metrics.api.healthcheck.CompoundHealthCheck;
 import org.commonjava.o11yphant.metrics.api.healthcheck.HealthCheck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+/**
+ * Golden signals (load, latency, errors, throughput) per function.
+ *
+ * The function map is copy-on-write: lookups from request threads read a volatile immutable map with a single probe,
+ * while {@link #reset()} and functions added at runtime swap in a new map. Functions that are not configured can be
+ * registered on first use, up to {@link #getMaxDynamicFunctions()}.
+ */
 public abstract class GoldenSignalsMetricSet
-                implements MetricSet, CompoundHealthCheck
+                implements DynamicMetricSet, CompoundHealthCheck
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private final Map<String, GoldenSignalsFunctionMetrics> functionMetrics = new HashMap<>();
+    private final Object lock = new Object();
+
+    private volatile Map<String, GoldenSignalsFunctionMetrics> functionMetrics = Collections.emptyMap();
+
+    private int dynamicFunctions;
+
+    /**
+     * Set once the dynamic function cap is reached, so lookups of unknown functions skip the lock until the next
+     * reset.
+     */
+    private volatile boolean capReached;
+
+    private volatile Consumer<Map<String, Metric>> metricsAddedListener;
 
     protected abstract Collection<String> getFunctions();
 
@@ -41,14 +62,36 @@ public abstract class GoldenSignalsMetricSet
         reset();
     }
 
+    /**
+     * Max number of functions which are registered on first use instead of being configured by
+     * {@link #getFunctions()}. The default 0 ignores unknown functions.
+     */
+    protected int getMaxDynamicFunctions()
+    {
+        return 0;
+    }
+
     @Override
     public void reset()
     {
-        functionMetrics.clear();
+        Map<String, GoldenSignalsFunctionMetrics> metrics = new HashMap<>();
         getFunctions().forEach( function -> {
             logger.info( "Wiring SLI metrics for: {}", function );
-            functionMetrics.put( function, new GoldenSignalsFunctionMetrics( function ) );
+            metrics.put( function, new GoldenSignalsFunctionMetrics( function ) );
         } );
+
+        synchronized ( lock )
+        {
+            functionMetrics = Collections.unmodifiableMap( metrics );
+            dynamicFunctions = 0;
+            capReached = false;
+        }
+    }
+
+    @Override
+    public void setMetricsAddedListener( Consumer<Map<String, Metric>> listener )
+    {
+        this.metricsAddedListener = listener;
     }
 
     @Override
@@ -63,7 +106,59 @@ public abstract class GoldenSignalsMetricSet
 
     public Optional<GoldenSignalsFunctionMetrics> function( String name )
     {
-        return functionMetrics.containsKey( name ) ? Optional.of( functionMetrics.get( name ) ) : Optional.empty();
+        GoldenSignalsFunctionMetrics metrics = functionMetrics.get( name );
+        if ( metrics == null && name != null && !capReached && getMaxDynamicFunctions() > 0 )
+        {
+            metrics = addFunction( name );
+        }
+        return Optional.ofNullable( metrics );
+    }
+
+    /**
+     * Add a function at runtime, without a reset. Added functions are dropped by the next reset unless
+     * {@link #getFunctions()} includes them.
+     *
+     * @return the metrics of the function, or null if the dynamic function cap is reached
+     */
+    public GoldenSignalsFunctionMetrics addFunction( String name )
+    {
+        GoldenSignalsFunctionMetrics metrics;
+        if ( capReached )
+        {
+            return functionMetrics.get( name );
+        }
+
+        synchronized ( lock )
+        {
+            metrics = functionMetrics.get( name );
+            if ( metrics != null )
+            {
+                return metrics;
+            }
+
+            if ( dynamicFunctions >= getMaxDynamicFunctions() )
+            {
+                capReached = true;
+                return null;
+            }
+
+            logger.info( "Wiring SLI metrics for dynamic function: {}", name );
+            metrics = new GoldenSignalsFunctionMetrics( name );
+            Map<String, GoldenSignalsFunctionMetrics> updated = new HashMap<>( functionMetrics );
+            updated.put( name, metrics );
+            functionMetrics = Collections.unmodifiableMap( updated );
+            if ( ++dynamicFunctions >= getMaxDynamicFunctions() )
+            {
+                capReached = true;
+            }
+        }
+
+        Consumer<Map<String, Metric>> listener = metricsAddedListener;
+        if ( listener != null )
+        {
+            listener.accept( metrics.getMetrics() );
+        }
+        return metrics;
     }
 
     @Override
@@ -74,6 +169,9 @@ public abstract class GoldenSignalsMetricSet
         return checks;
     }
 
+    /**
+     * Current functions, as an immutable snapshot.
+     */
     public Map<String, GoldenSignalsFunctionMetrics> getFunctionMetrics() {
         return functionMetrics;
     }
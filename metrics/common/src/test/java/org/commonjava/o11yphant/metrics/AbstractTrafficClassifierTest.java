@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.commonjava.o11yphant.metrics.api.Meter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.commonjava.o11yphant.metrics.AbstractTrafficClassifier.CACHE_HITS;
+import static org.commonjava.o11yphant.metrics.AbstractTrafficClassifier.CACHE_MISSES;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AbstractTrafficClassifierTest
+{
+    private final AtomicInteger calculated = new AtomicInteger();
+
+    private final AbstractTrafficClassifier classifier = new RouteClassifier( calculated );
+
+    private long hits;
+
+    private long misses;
+
+    @Before
+    public void setUp()
+    {
+        // the route cache is shared by all RouteClassifier instances
+        classifier.getCacheMetricSet().reset();
+        hits = meterCount( CACHE_HITS );
+        misses = meterCount( CACHE_MISSES );
+    }
+
+    @Test
+    public void sameRouteIsCalculatedOnce()
+    {
+        Map<String, String> headers = Collections.singletonMap( "Accept", "text/html" );
+        List<String> first = classifier.classifyFunctions( "/api/content/maven/a.jar", "GET", headers );
+        List<String> second = classifier.classifyFunctions( "/api/content/npm/b.tgz", "GET", headers );
+
+        assertThat( second, equalTo( first ) );
+        assertThat( first, equalTo( asList( "/api/content", "GET", "text/html" ) ) );
+        assertThat( calculated.get(), equalTo( 1 ) );
+        assertThat( meterCount( CACHE_HITS ) - hits, equalTo( 1L ) );
+        assertThat( meterCount( CACHE_MISSES ) - misses, equalTo( 1L ) );
+    }
+
+    @Test
+    public void instancesShareTheRouteCache()
+    {
+        Map<String, String> headers = Collections.singletonMap( "Accept", "text/html" );
+        classifier.classifyFunctions( "/api/content/maven/a.jar", "GET", headers );
+
+        AbstractTrafficClassifier other = new RouteClassifier( calculated );
+        other.classifyFunctions( "/api/content/npm/b.tgz", "GET", headers );
+
+        assertThat( calculated.get(), equalTo( 1 ) );
+        assertThat( meterCount( CACHE_HITS ) - hits, equalTo( 1L ) );
+        assertThat( ( (Meter) other.getCacheMetricSet().getMetrics().get( CACHE_HITS ) ).getCount() - hits,
+                    equalTo( 1L ) );
+    }
+
+    @Test
+    public void methodAndRequiredHeadersAreInTheKey()
+    {
+        Map<String, String> headers = new HashMap<>();
+        headers.put( "Accept", "text/html" );
+        classifier.classifyFunctions( "/api/content/a", "GET", headers );
+        classifier.classifyFunctions( "/api/content/a", "PUT", headers );
+
+        headers.put( "Accept", "application/json" );
+        List<String> json = classifier.classifyFunctions( "/api/content/a", "GET", headers );
+
+        headers.put( "User-Agent", "curl" );
+        classifier.classifyFunctions( "/api/content/b", "GET", headers );
+
+        assertThat( json.get( 2 ), equalTo( "application/json" ) );
+        assertThat( calculated.get(), equalTo( 3 ) );
+    }
+
+    @Test
+    public void cacheIsBounded()
+    {
+        Map<String, String> headers = Collections.emptyMap();
+        for ( int i = 0; i < 10; i++ )
+        {
+            classifier.classifyFunctions( "/api/route" + i + "/x", "GET", headers );
+        }
+
+        assertThat( classifier.getCachedRouteCount() <= 3, equalTo( true ) );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void cachedListsAreImmutable()
+    {
+        classifier.classifyFunctions( "/api/content/a", "GET", Collections.emptyMap() ).add( "other" );
+    }
+
+    @Test
+    public void pathPrefixKeepsLeadingSegments()
+    {
+        assertThat( AbstractTrafficClassifier.pathPrefix( "/api/content/maven/x", 3 ), equalTo( "/api/content/maven" ) );
+        assertThat( AbstractTrafficClassifier.pathPrefix( "/api/content", 3 ), equalTo( "/api/content" ) );
+        assertThat( AbstractTrafficClassifier.pathPrefix( "api/content/x", 1 ), equalTo( "api" ) );
+    }
+
+    private long meterCount( String name )
+    {
+        return ( (Meter) classifier.getCacheMetricSet().getMetrics().get( name ) ).getCount();
+    }
+
+    private static final class RouteClassifier
+            extends AbstractTrafficClassifier
+    {
+        private final AtomicInteger calculated;
+
+        private RouteClassifier( AtomicInteger calculated )
+        {
+            this.calculated = calculated;
+        }
+
+        @Override
+        protected List<String> calculateCachedFunctionClassifiers( String restPath, String method,
+                                                                   Map<String, String> headers )
+        {
+            calculated.incrementAndGet();
+            return asList( pathPrefix( restPath, 2 ), method, String.valueOf( headers.get( "Accept" ) ) );
+        }
+
+        @Override
+        protected String getRouteKey( String restPath )
+        {
+            return pathPrefix( restPath, 2 );
+        }
+
+        @Override
+        protected int getMaxCachedRoutes()
+        {
+            return 3;
+        }
+
+        @Override
+        public Set<String> getRequiredHeaders()
+        {
+            return Collections.singleton( "Accept" );
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CumulativeTimingsTest
+{
+    @Test
+    public void namesBeyondTheIdTableAreStillAccumulated()
+    {
+        CumulativeTimings timings = new CumulativeTimings();
+        for ( int i = 0; i < CumulativeTimings.MAX_IDS + 10; i++ )
+        {
+            timings.accumulate( "name-" + i, 1.0 );
+        }
+        timings.accumulate( "name-" + CumulativeTimings.MAX_IDS, 3.0 );
+
+        assertEquals( CumulativeTimings.NO_ID, CumulativeTimings.id( "one-more" ) );
+
+        String extra = "name-" + CumulativeTimings.MAX_IDS;
+        assertEquals( 2, timings.getCount( extra ) );
+        assertEquals( 4.0, timings.getTotalMs( extra ), 0.0 );
+        assertEquals( 3.0, timings.getMaxMs( extra ), 0.0 );
+
+        Map<String, Double> view = timings.timingsView();
+        assertEquals( CumulativeTimings.MAX_IDS + 10, view.size() );
+        assertEquals( 4.0, view.get( extra ), 0.0 );
+        assertEquals( view, timings.exportTimings() );
+    }
+
+    @Test
+    public void viewsAreWritable()
+    {
+        CumulativeTimings timings = new CumulativeTimings();
+        timings.accumulate( "written", 2.0 );
+
+        Map<String, Double> totals = timings.timingsView();
+        Map<String, Integer> counts = timings.countsView();
+
+        assertEquals( 2.0, totals.put( "written", 10.0 ), 0.0 );
+        assertEquals( Integer.valueOf( 1 ), counts.put( "written", 4 ) );
+        assertEquals( 10.0, timings.getTotalMs( "written" ), 0.0 );
+        assertEquals( 4, timings.getCount( "written" ) );
+
+        totals.put( "new", 5.0 );
+        assertTrue( counts.containsKey( "new" ) );
+        assertEquals( Integer.valueOf( 1 ), counts.get( "new" ) );
+    }
+}
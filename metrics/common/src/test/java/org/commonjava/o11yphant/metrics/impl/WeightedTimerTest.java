@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.impl;
+
+import org.commonjava.o11yphant.metrics.api.Histogram;
+import org.commonjava.o11yphant.metrics.api.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeightedTimerTest
+{
+    @Test
+    public void weightedUpdatesCountByWeight()
+    {
+        Timer timer = new O11Timer( new WeightedTimer( new HdrHistogramReservoir() ) );
+        timer.update( 10, TimeUnit.MILLISECONDS, 5 );
+        timer.update( 20, TimeUnit.MILLISECONDS );
+
+        assertEquals( 6, timer.getCount() );
+        assertEquals( 6, timer.getSnapshot().size() );
+        assertEquals( TimeUnit.MILLISECONDS.toNanos( 10 ), timer.getSnapshot().getMedian(), 20000 );
+    }
+
+    @Test
+    public void weightedHistogramWithSamplingReservoir()
+    {
+        Histogram histogram = new O11Histogram();
+        histogram.update( 7, 3 );
+        histogram.update( 7, 0 );
+
+        assertEquals( 3, histogram.getCount() );
+        assertEquals( 1, histogram.getSnapshot().size() );
+    }
+
+    @Test
+    public void plainCodahaleTimerRecordsOnce()
+    {
+        Timer timer = new O11Timer( new com.codahale.metrics.Timer() );
+        timer.update( 10, TimeUnit.MILLISECONDS, 3 );
+
+        assertEquals( "weight is ignored without a weighted timer", 1, timer.getCount() );
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.sli;
+
+import org.commonjava.o11yphant.metrics.api.Metric;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GoldenSignalsMetricSetTest
+{
+    @Test
+    public void unknownFunctionsAreIgnoredByDefault()
+    {
+        GoldenSignalsMetricSet set = new TestMetricSet( 0 );
+        assertTrue( set.function( "content.retrieve" ).isPresent() );
+        assertFalse( set.function( "unknown" ).isPresent() );
+        assertEquals( 8, set.getMetrics().size() );
+    }
+
+    @Test
+    public void registersUnknownFunctionsUpToTheCap()
+    {
+        GoldenSignalsMetricSet set = new TestMetricSet( 2 );
+        List<Map<String, Metric>> added = new ArrayList<>();
+        set.setMetricsAddedListener( added::add );
+
+        GoldenSignalsFunctionMetrics first = set.function( "dynamic.one" ).orElse( null );
+        assertSame( first, set.function( "dynamic.one" ).orElse( null ) );
+        assertTrue( set.function( "dynamic.two" ).isPresent() );
+        assertFalse( "cap reached", set.function( "dynamic.three" ).isPresent() );
+
+        assertEquals( 2, added.size() );
+        assertTrue( added.get( 0 ).containsKey( "dynamic.one.latency" ) );
+        assertEquals( 16, set.getMetrics().size() );
+
+        set.reset();
+        assertFalse( set.getFunctionMetrics().containsKey( "dynamic.one" ) );
+        assertTrue( "reset frees the cap", set.function( "dynamic.three" ).isPresent() );
+    }
+
+    @Test
+    public void missesAfterTheCapDoNotTryToAdd()
+    {
+        TestMetricSet set = new TestMetricSet( 1 );
+        assertTrue( set.function( "dynamic.one" ).isPresent() );
+
+        int checks = set.capChecks;
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertFalse( set.function( "dynamic.other" + i ).isPresent() );
+        }
+        assertEquals( checks, set.capChecks );
+        assertTrue( set.function( "dynamic.one" ).isPresent() );
+    }
+
+    @Test
+    public void lookupsDuringResets()
+            throws Exception
+    {
+        GoldenSignalsMetricSet set = new TestMetricSet( 0 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        CountDownLatch start = new CountDownLatch( 1 );
+        try
+        {
+            Future<?> resets = executor.submit( () -> {
+                start.await();
+                for ( int i = 0; i < 10000; i++ )
+                {
+                    set.reset();
+                }
+                return null;
+            } );
+            Future<Integer> lookups = executor.submit( () -> {
+                start.await();
+                int missing = 0;
+                for ( int i = 0; i < 100000; i++ )
+                {
+                    if ( !set.function( "content.store" ).isPresent() )
+                    {
+                        missing++;
+                    }
+                }
+                return missing;
+            } );
+            start.countDown();
+            resets.get( 30, TimeUnit.SECONDS );
+            assertEquals( "configured functions never disappear", 0, (int) lookups.get( 30, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class TestMetricSet
+                    extends GoldenSignalsMetricSet
+    {
+        private final int maxDynamicFunctions;
+
+        private int capChecks;
+
+        private TestMetricSet( int maxDynamicFunctions )
+        {
+            this.maxDynamicFunctions = maxDynamicFunctions;
+        }
+
+        @Override
+        protected Collection<String> getFunctions()
+        {
+            return Arrays.asList( "content.retrieve", "content.store" );
+        }
+
+        @Override
+        protected int getMaxDynamicFunctions()
+        {
+            capChecks++;
+            return maxDynamicFunctions;
+        }
+    }
+}
@@ -16,7 +16,9 @@
 package org.commonjava.o11yphant.metrics;
 
 import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.metrics.api.DynamicMetricSet;
 import org.commonjava.o11yphant.metrics.api.Gauge;
 import org.commonjava.o11yphant.metrics.api.Histogram;
 import org.commonjava.o11yphant.metrics.api.Meter;
@@ -25,15 +27,21 @@ import org.commonjava.o11yphant.metrics.api.MetricRegistry;
 import org.commonjava.o11yphant.metrics.api.MetricSet;
 import org.commonjava.o11yphant.metrics.api.Timer;
 import org.commonjava.o11yphant.metrics.api.healthcheck.HealthCheck;
+import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
+import org.commonjava.o11yphant.metrics.impl.HdrHistogramReservoir;
 import org.commonjava.o11yphant.metrics.impl.O11Histogram;
 import org.commonjava.o11yphant.metrics.impl.O11Meter;
 import org.commonjava.o11yphant.metrics.impl.O11Timer;
+import org.commonjava.o11yphant.metrics.impl.StripedMeter;
+import org.commonjava.o11yphant.metrics.impl.WeightedHistogram;
+import org.commonjava.o11yphant.metrics.impl.WeightedTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -57,12 +65,25 @@ public class DefaultMetricRegistry
 
     private final HealthCheckRegistry healthCheckRegistry;
 
+    private final List<String> hdrHistogramMetrics;
+
+    private final List<String> stripedMeterMetrics;
+
     @Inject
     public DefaultMetricRegistry( com.codahale.metrics.MetricRegistry registry,
-                                  HealthCheckRegistry healthCheckRegistry )
+                                  HealthCheckRegistry healthCheckRegistry, MetricsConfig config )
     {
         this.registry = registry;
         this.healthCheckRegistry = healthCheckRegistry;
+        this.hdrHistogramMetrics = config == null ? Collections.emptyList() : config.getHdrHistogramMetrics();
+        this.stripedMeterMetrics = config == null ? Collections.emptyList() : config.getStripedMeterMetrics();
+    }
+
+    // for test
+    public DefaultMetricRegistry( com.codahale.metrics.MetricRegistry registry,
+                                  HealthCheckRegistry healthCheckRegistry )
+    {
+        this( registry, healthCheckRegistry, null );
     }
 
     @Override
@@ -113,6 +134,12 @@ public class DefaultMetricRegistry
         if ( metricSet != null )
         {
             logger.trace( "Registering metric-set named: {}", setName );
+            if ( metricSet instanceof DynamicMetricSet )
+            {
+                // set before taking the metrics, so nothing added in between is missed
+                ( (DynamicMetricSet) metricSet ).setMetricsAddedListener(
+                                added -> added.forEach( ( k, v ) -> registerAdded( setName, k, v ) ) );
+            }
             metricSet.getMetrics().forEach( ( k, v ) -> {
                 logger.trace( "Registering: '{}' in metric-set named: {}", k, setName );
                 register( name( setName, k ), v );
@@ -120,6 +147,19 @@ public class DefaultMetricRegistry
         }
     }
 
+    private void registerAdded( String setName, String name, Metric metric )
+    {
+        logger.trace( "Registering: '{}' added to metric-set named: {}", name, setName );
+        try
+        {
+            register( name( setName, name ), metric );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            logger.debug( "Metric {} of metric-set {} is already registered", name, setName );
+        }
+    }
+
     /**
      * This only returns metric registered via {@link #register(String, Metric)} and {@link #register(String, MetricSet)}
      */
@@ -156,13 +196,21 @@ public class DefaultMetricRegistry
     @Override
     public Meter meter( String name )
     {
-        return new O11Meter( registry.meter( name ) );
+        com.codahale.metrics.Meter meter = registry.meter( name, () -> isSelected( stripedMeterMetrics, name ) ?
+                        new StripedMeter.LazyTickingMeter() :
+                        new com.codahale.metrics.Meter() );
+
+        return meter instanceof StripedMeter.LazyTickingMeter ?
+                        new StripedMeter( (StripedMeter.LazyTickingMeter) meter ) :
+                        new O11Meter( meter );
     }
 
     @Override
     public Timer timer( String name )
     {
-        return new O11Timer( registry.timer( name ) );
+        return new O11Timer( registry.timer( name, () -> isSelected( hdrHistogramMetrics, name ) ?
+                        new WeightedTimer( new HdrHistogramReservoir() ) :
+                        new WeightedTimer() ) );
     }
 
     @Override
@@ -175,7 +223,35 @@ public class DefaultMetricRegistry
     @Override
     public Histogram histogram( String name )
     {
-        return new O11Histogram( registry.histogram( name ) );
+        return new O11Histogram( registry.histogram( name, () -> new WeightedHistogram(
+                        isSelected( hdrHistogramMetrics, name ) ?
+                                        new HdrHistogramReservoir() :
+                                        new ExponentiallyDecayingReservoir() ) ) );
+    }
+
+    @Override
+    public boolean remove( String name )
+    {
+        metrics.remove( name );
+        return registry.remove( name );
+    }
+
+    private static boolean isSelected( List<String> selection, String name )
+    {
+        if ( selection == null )
+        {
+            return false;
+        }
+
+        for ( String selected : selection )
+        {
+            if ( selected.endsWith( "*" ) ? name.startsWith( selected.substring( 0, selected.length() - 1 ) ) :
+                            name.equals( selected ) )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     protected com.codahale.metrics.MetricRegistry getRegistry()
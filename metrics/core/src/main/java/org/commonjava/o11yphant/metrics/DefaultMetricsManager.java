@@ -16,6 +16,7 @@
 package org.commonjava.o11yphant.metrics;
 
 import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
 import org.commonjava.o11yphant.common.thread.ThreadContext;
 import org.commonjava.o11yphant.metrics.annotation.MetricWrapper;
 import org.commonjava.o11yphant.metrics.annotation.MetricWrapperEnd;
@@ -24,6 +25,7 @@ import org.commonjava.o11yphant.metrics.annotation.MetricWrapperStart;
 import org.commonjava.o11yphant.metrics.api.Gauge;
 import org.commonjava.o11yphant.metrics.api.Histogram;
 import org.commonjava.o11yphant.metrics.api.Meter;
+import org.commonjava.o11yphant.metrics.api.MetricId;
 import org.commonjava.o11yphant.metrics.api.MetricRegistry;
 import org.commonjava.o11yphant.metrics.api.Timer;
 import org.commonjava.o11yphant.metrics.api.healthcheck.CompoundHealthCheck;
@@ -31,23 +33,29 @@ import org.commonjava.o11yphant.metrics.api.healthcheck.HealthCheck;
 import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
 import org.commonjava.o11yphant.metrics.healthcheck.impl.AbstractHealthCheck;
 import org.commonjava.o11yphant.metrics.jvm.JVMInstrumentation;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsMetricSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static org.commonjava.o11yphant.metrics.MetricsConstants.*;
+import static org.commonjava.o11yphant.metrics.RequestContextConstants.GOLDEN_SIGNALS_FUNCTIONS;
 import static org.commonjava.o11yphant.metrics.RequestContextConstants.IS_METERED;
+import static org.commonjava.o11yphant.metrics.RequestContextConstants.TRACE_ID;
 import static org.commonjava.o11yphant.metrics.util.HealthCheckUtils.wrap;
 import static org.commonjava.o11yphant.metrics.util.NameUtils.*;
 
@@ -56,6 +64,9 @@ public class DefaultMetricsManager
                 implements MetricsManager
 {
 
+    private static final ThreadLocal<TimerStack> THREAD_TIMERS =
+                    ThreadLocal.withInitial( () -> new TimerStack( TimerStack.DEFAULT_MAX_DEPTH ) );
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     @Inject
@@ -79,7 +90,22 @@ public class DefaultMetricsManager
     @Inject
     private MetricsConfig config;
 
-    private final Random random = new Random();
+    @Inject
+    private Instance<GoldenSignalsMetricSet> goldenSignalsMetricSets;
+
+    private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Function<String, Timer> timerResolver = this::getTimer;
+
+    private final Map<Class<?>, Map<String, MetricHandle>> methodHandles = new ConcurrentHashMap<>();
+
+    private final Map<String, MetricHandle> classifierHandles = new ConcurrentHashMap<>();
+
+    private MetricEvictor evictor;
+
+    private volatile MeterRatioController ratioController;
 
     public DefaultMetricsManager()
     {
@@ -91,6 +117,13 @@ public class DefaultMetricsManager
         this.metricRegistry = metricRegistry;
     }
 
+    // for test
+    public DefaultMetricsManager( MetricRegistry metricRegistry, MetricsConfig config )
+    {
+        this.metricRegistry = metricRegistry;
+        this.config = config;
+    }
+
     @PostConstruct
     public void init()
     {
@@ -126,6 +159,122 @@ public class DefaultMetricsManager
                 metricRegistry.register( provider.getName(), provider.getMetricSet() );
             }
         } );
+
+        initEviction();
+
+        if ( goldenSignalsMetricSets != null && !goldenSignalsMetricSets.isUnsatisfied()
+                        && !goldenSignalsMetricSets.isAmbiguous() )
+        {
+            initAdaptiveMetering( goldenSignalsMetricSets.get() );
+        }
+    }
+
+    /**
+     * Start removing idle evictable metrics, if configured. Sweeps run at a quarter of the idle time, between 1 second
+     * and 1 minute (every minute when only the cap is set).
+     */
+    synchronized void initEviction()
+    {
+        List<String> evictable = config.getEvictableMetrics();
+        long idle = config.getMetricIdleSeconds();
+        int max = config.getMaxMetricsPerEvictablePrefix();
+        if ( evictor != null || evictable == null || evictable.isEmpty() || ( idle <= 0 && max <= 0 ) )
+        {
+            return;
+        }
+
+        if ( !( metricRegistry instanceof DefaultMetricRegistry ) )
+        {
+            logger.warn( "Metric eviction is not supported by {}", metricRegistry.getClass().getName() );
+            return;
+        }
+
+        logger.info( "Evicting metrics {} when idle for {}s, max {} per prefix", evictable, idle, max );
+        evictor = new MetricEvictor( (DefaultMetricRegistry) metricRegistry, evictable, idle, TimeUnit.SECONDS, max,
+                                     this::evicted );
+        long period = idle > 0 ? Math.max( 1, Math.min( 60, idle / 4 ) ) : 60;
+        evictor.start( period, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Adapt the meter ratio of each golden signals function to its load, if a budget is configured. Ratios are
+     * updated every 10 seconds.
+     */
+    synchronized void initAdaptiveMetering( GoldenSignalsMetricSet metricSet )
+    {
+        double budget = config.getMeteredCallsPerFunctionPerSecond();
+        if ( ratioController != null || budget <= 0 )
+        {
+            return;
+        }
+
+        logger.info( "Metering about {} calls per second per function, with ratios between {} and {}", budget,
+                     config.getMeterRatio(), config.getMaxMeterRatio() );
+        MeterRatioController controller =
+                        new MeterRatioController( metricSet, budget, config.getMeterRatio(), config.getMaxMeterRatio() );
+        controller.start( 10, TimeUnit.SECONDS );
+        ratioController = controller;
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        if ( evictor != null )
+        {
+            evictor.close();
+            evictor = null;
+        }
+        if ( ratioController != null )
+        {
+            ratioController.close();
+            ratioController = null;
+        }
+    }
+
+    // for test
+    MetricEvictor getEvictor()
+    {
+        return evictor;
+    }
+
+    // for test
+    MeterRatioController getRatioController()
+    {
+        return ratioController;
+    }
+
+    /**
+     * Drop cached metrics which were removed from the registry, they are resolved (and registered) again on next use.
+     */
+    void evicted( Set<String> names )
+    {
+        meters.keySet().removeAll( names );
+        timers.keySet().removeAll( names );
+
+        // exception-class meters are named <exception-meter>.<exception-simple-name>, or
+        // <exception-meter>.by_class with an exception label
+        Set<String> parents = new HashSet<>();
+        names.forEach( n -> {
+            String base = MetricId.nameOf( n );
+            int idx = base.lastIndexOf( '.' );
+            if ( idx > 0 )
+            {
+                parents.add( base.substring( 0, idx ) );
+            }
+        } );
+
+        methodHandles.values().forEach( handles -> handles.values().forEach( h -> invalidate( h, names, parents ) ) );
+        classifierHandles.values().forEach( h -> invalidate( h, names, parents ) );
+    }
+
+    private static void invalidate( MetricHandle handle, Set<String> names, Set<String> parents )
+    {
+        if ( names.contains( handle.getTimerName() ) || names.contains( handle.getMeterName() ) || names.contains(
+                        handle.getStartMeterName() ) || names.contains( handle.getExceptionMeterName() )
+                        || parents.contains( handle.getExceptionMeterName() ) )
+        {
+            handle.invalidate();
+        }
     }
 
     public void reset()
@@ -138,6 +287,18 @@ public class DefaultMetricsManager
 
         logger.info( "Clear metrics subsystem..." );
         metricRegistry.clear();
+
+        // Cached metrics are detached from the registry now, resolve them again on next use
+        meters.clear();
+        timers.clear();
+        methodHandles.values().forEach( handles -> handles.values().forEach( MetricHandle::invalidate ) );
+        classifierHandles.values().forEach( MetricHandle::invalidate );
+
+        if ( metricSetProviderInstances == null )
+        {
+            return;
+        }
+
         metricSetProviderInstances.forEach( ( provider ) -> {
             if ( provider.isEnabled() )
             {
@@ -156,14 +317,38 @@ public class DefaultMetricsManager
         } );
     }
 
+    /**
+     * Decide whether the current request is metered, once per request. The decision is derived from the trace id in
+     * the {@link ThreadContext} when there is one, and kept there as a {@link SamplingDecision} for
+     * {@link #checkMetered()}, the interceptors and the trace sampler.
+     *
+     * With adaptive metering, the ratio is the one of the golden signals functions of the request. A true override is
+     * applied first, so the request is always measured and recorded with weight 1 rather than the ratio.
+     */
     public boolean isMetered( Supplier<Boolean> meteringOverride )
     {
-        int meterRatio = config.getMeterRatio();
-        if ( meterRatio <= 1 || random.nextInt() % meterRatio == 0 )
+        if ( meteringOverride != null && Boolean.TRUE.equals( meteringOverride.get() ) )
         {
+            SamplingDecision.set( SamplingDecision.ALWAYS_SAMPLED );
             return true;
         }
-        return meteringOverride != null && Boolean.TRUE.equals( meteringOverride.get() );
+
+        ThreadContext ctx = ThreadContext.getContext( false );
+        MeterRatioController controller = ratioController;
+        int meterRatio;
+        if ( controller == null )
+        {
+            meterRatio = config.getMeterRatio();
+        }
+        else
+        {
+            //noinspection unchecked
+            meterRatio = controller.getRatio(
+                            ctx == null ? null : (Collection<String>) ctx.get( GOLDEN_SIGNALS_FUNCTIONS ) );
+        }
+
+        Object traceId = ctx == null ? null : ctx.get( TRACE_ID );
+        return SamplingDecision.decide( meterRatio, traceId == null ? null : traceId.toString() ).isSampled();
     }
 
     @MetricWrapperStart
@@ -174,10 +359,15 @@ public class DefaultMetricsManager
 
     private Timer.Context startTimerInternal( String name )
     {
-        Timer.Context tctx = metricRegistry.timer( name ).time();
-        ThreadContext ctx = ThreadContext.getContext( true );
-        ctx.put( TIMER + name, tctx );
-        return tctx;
+        return timerStack( true ).start( getTimer( name ), name );
+    }
+
+    /**
+     * Start a timer that is stopped by {@link #stopTimerInternal(Timer)}, without allocating a context.
+     */
+    private void startTimerInternal( Timer timer )
+    {
+        timerStack( true ).push( timer, null );
     }
 
     @MetricWrapperEnd
@@ -186,27 +376,106 @@ public class DefaultMetricsManager
         return stopTimerInternal( name );
     }
 
+    public long stopTimer( String name, Timer.Context timer )
+    {
+        return stopTimerInternal( name );
+    }
+
+    /**
+     * Stopped by name rather than by the cached Timer, which may have been evicted (and re-created) since the start.
+     */
     private long stopTimerInternal( String name )
     {
-        ThreadContext ctx = ThreadContext.getContext( false );
-        if ( ctx == null )
+        TimerStack stack = timerStack( false );
+        return stack == null ? 0 : stack.stop( name, timerResolver, SamplingDecision.currentWeight() );
+    }
+
+    private long stopTimerInternal( Timer timer )
+    {
+        TimerStack stack = timerStack( false );
+        return stack == null ? 0 : stack.stop( timer, SamplingDecision.currentWeight() );
+    }
+
+    private TimerStack timerStack( boolean create )
+    {
+        if ( config != null && !config.isCrossThreadTimers() )
         {
-            return 0;
+            return THREAD_TIMERS.get();
         }
 
-        Timer.Context tctx = (Timer.Context) ctx.get( TIMER + name );
-        if ( tctx != null )
+        ThreadContext ctx = ThreadContext.getContext( create );
+        if ( ctx == null )
         {
-            ctx.remove( TIMER + name );
-            return tctx.stop();
+            return null;
         }
 
-        return 0;
+        TimerStack stack = (TimerStack) ctx.get( TIMER_STACK );
+        if ( stack == null && create )
+        {
+            stack = (TimerStack) ctx.computeIfAbsent( TIMER_STACK,
+                                                      k -> TimerStack.concurrent( TimerStack.DEFAULT_MAX_DEPTH ) );
+        }
+        return stack;
     }
 
     public Meter getMeter( String name )
     {
-        return metricRegistry.meter( name );
+        Meter meter = meters.get( name );
+        if ( meter == null )
+        {
+            meter = meters.computeIfAbsent( name, n -> metricRegistry.meter( n ) );
+        }
+        return meter;
+    }
+
+    private Timer getTimer( String name )
+    {
+        Timer timer = timers.get( name );
+        if ( timer == null )
+        {
+            timer = timers.computeIfAbsent( name, n -> metricRegistry.timer( n ) );
+        }
+        return timer;
+    }
+
+    @Override
+    public MetricHandle handle( Class<?> declaringClass, String method )
+    {
+        Map<String, MetricHandle> handles = methodHandles.get( declaringClass );
+        if ( handles == null )
+        {
+            handles = methodHandles.computeIfAbsent( declaringClass, c -> new ConcurrentHashMap<>() );
+        }
+
+        MetricHandle handle = handles.get( method );
+        if ( handle == null )
+        {
+            handle = handles.computeIfAbsent( method, m -> {
+                String nodePrefix = config.getNodePrefix();
+                String defaultName = getDefaultName( declaringClass, m );
+                String meterName = getName( nodePrefix, DEFAULT, defaultName, METER );
+                return new MetricHandle( defaultName, getName( nodePrefix, DEFAULT, defaultName, TIMER ),
+                                         name( meterName, "starts" ), meterName,
+                                         getName( nodePrefix, DEFAULT, defaultName, EXCEPTION ), this::getTimer,
+                                         this::getMeter, config.isLabelledExceptionMeters() );
+            } );
+        }
+        return handle;
+    }
+
+    private MetricHandle classifierHandle( String classifier )
+    {
+        MetricHandle handle = classifierHandles.get( classifier );
+        if ( handle == null )
+        {
+            handle = classifierHandles.computeIfAbsent( classifier, c -> {
+                String metricName = name( config.getNodePrefix(), c );
+                return new MetricHandle( metricName, name( metricName, TIMER ), name( metricName, "starts" ),
+                                         metricName, name( c, EXCEPTION ), this::getTimer, this::getMeter,
+                                         config.isLabelledExceptionMeters() );
+            } );
+        }
+        return handle;
     }
 
     @Override
@@ -215,7 +484,6 @@ public class DefaultMetricsManager
         return metricRegistry.histogram( name );
     }
 
-    @SuppressWarnings( "unchecked" )
     public void accumulate( String name, final double elapsed )
     {
         ThreadContext ctx = ThreadContext.getContext( true );
@@ -226,15 +494,7 @@ public class DefaultMetricsManager
                 return;
             }
 
-            ctx.putIfAbsent( CUMULATIVE_TIMINGS, new ConcurrentHashMap<>() );
-            Map<String, Double> timingMap = (Map<String, Double>) ctx.get( CUMULATIVE_TIMINGS );
-
-            timingMap.merge( name, elapsed, Double::sum );
-
-            ctx.putIfAbsent( CUMULATIVE_COUNT, new ConcurrentHashMap<>() );
-            Map<String, Integer> countMap = (Map<String, Integer>) ctx.get( CUMULATIVE_COUNT );
-
-            countMap.merge( name, 1, ( existingVal, newVal ) -> existingVal + 1 );
+            CumulativeTimings.get( ctx, true ).accumulate( name, elapsed );
         }
     }
 
@@ -242,45 +502,45 @@ public class DefaultMetricsManager
     public <T> T wrapWithStandardMetrics( final Supplier<T> method,
                                           @MetricWrapperNamed final Supplier<String> classifier )
     {
-        String name = classifier.get();
-        if ( !checkMetered() || SKIP_METRIC.equals( name ) )
+        if ( !checkMetered() )
         {
             return method.get();
         }
 
-        String nodePrefix = config.getNodePrefix();
-
-        String metricName = name( nodePrefix, name );
-        String startName = name( metricName, "starts" );
+        String name = classifier.get();
+        if ( SKIP_METRIC.equals( name ) )
+        {
+            return method.get();
+        }
 
-        String timerName = name( metricName, TIMER );
-        String errorName = name( name, EXCEPTION );
-        String eClassName;
+        MetricHandle handle = classifierHandle( name );
+        Timer timer = handle.getTimer();
+        int weight = SamplingDecision.currentWeight();
 
-        Timer.Context timer = startTimerInternal( timerName );
-        logger.trace( "START: {} ({})", metricName, timer );
+        startTimerInternal( timer );
+        logger.trace( "START: {}", handle.getMeterName() );
 
         long start = System.nanoTime();
         try
         {
-            mark( Collections.singletonList( startName ) );
+            handle.getStartMeter().mark( weight );
 
             return method.get();
         }
         catch ( Throwable e )
         {
-            eClassName = name( name, EXCEPTION, e.getClass().getSimpleName() );
-            mark( Arrays.asList( errorName, eClassName ) );
+            handle.getExceptionMeter().mark( weight );
+            handle.getExceptionMeter( e.getClass() ).mark( weight );
 
             throw e;
         }
         finally
         {
-            stopTimers( Collections.singletonMap( timerName, timer ) );
-            mark( Collections.singletonList( metricName ) );
+            stopTimerInternal( timer );
+            handle.getMeter().mark( weight );
 
             double elapsed = ( System.nanoTime() - start ) / NANOS_PER_MILLISECOND;
-            accumulate( metricName, elapsed );
+            accumulate( handle.getName(), elapsed );
         }
     }
 
@@ -296,7 +556,18 @@ public class DefaultMetricsManager
             ctx = ThreadContext.getContext( false );
         }
 
-        return  ctx == null ||  (Boolean) ctx.getOrDefault( IS_METERED, Boolean.TRUE ) ;
+        if ( ctx == null )
+        {
+            return true;
+        }
+
+        if ( Boolean.FALSE.equals( ctx.get( IS_METERED ) ) )
+        {
+            return false;
+        }
+
+        SamplingDecision decision = (SamplingDecision) ctx.get( SamplingDecision.SAMPLING_DECISION );
+        return decision == null || decision.isSampled();
     }
 
     public void stopTimers( final Map<String, Timer.Context> timers )
@@ -309,7 +580,8 @@ public class DefaultMetricsManager
 
     public void mark( final Collection<String> meters )
     {
-        meters.forEach( name -> getMeter( name ).mark() );
+        int weight = SamplingDecision.currentWeight();
+        meters.forEach( name -> getMeter( name ).mark( weight ) );
     }
 
     public void addGauges( Class<?> className, String method, Map<String, Gauge<Integer>> gauges )
@@ -32,9 +32,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static org.commonjava.o11yphant.metrics.MetricsConstants.NANOS_PER_MILLISECOND;
 import static org.commonjava.o11yphant.metrics.RequestContextConstants.GOLDEN_SIGNALS_FUNCTIONS;
@@ -51,6 +49,9 @@ public class GoldenSignalsFilter
     @Inject
     private TrafficClassifier classifier;
 
+    @Inject
+    private MetricsManager metricsManager;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     public GoldenSignalsFilter( final GoldenSignalsMetricSet metricSet, AbstractTrafficClassifier classifier )
@@ -78,12 +79,19 @@ public class GoldenSignalsFilter
         HttpServletRequest req = (HttpServletRequest) servletRequest;
         HttpServletResponse resp = (HttpServletResponse) servletResponse;
         String path = req.getPathInfo();
-        Map<String, String> headers = Collections.list(req.getHeaderNames()).stream()
-                                                .collect( Collectors.toMap( h -> h, req::getHeader));
+        Map<String, String> headers = new RequestHeaders( req, classifier.getRequiredHeaders() );
         Collection<String> functions = classifier.classifyFunctions( path, req.getMethod(), headers );
         logger.debug( "Get classified golden functions, path: {}, method: {}, functions: {}", path, req.getMethod(), functions );
 
         RequestContextHelper.setContext( GOLDEN_SIGNALS_FUNCTIONS, functions );
+
+        // decide metering once for the whole request. The golden signals are always recorded, since the SLIs need
+        // every call and error.
+        if ( metricsManager != null )
+        {
+            metricsManager.isMetered( null );
+        }
+
         try
         {
             functions.forEach( function -> metricSet.function( function ).ifPresent(
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.Clock;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsFunctionMetrics;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsMetricSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the meter ratio of each golden signals function to its load, so that about the same number of calls per
+ * second is metered for every function. Hot functions are metered less often when they spike, and rare functions are
+ * metered on every call.
+ *
+ * The load is the number of started calls counted by the {@link GoldenSignalsMetricSet}, which sees every request, so
+ * the ratio doesn't feed back into its own input. On each update the ratio of a function is set to its load since the
+ * previous update divided by the budget, between the configured minimum and maximum. A request with several functions
+ * uses the highest ratio among them.
+ */
+public class MeterRatioController
+                implements Closeable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final GoldenSignalsMetricSet metricSet;
+
+    private final double callsPerSecond;
+
+    private final int minRatio;
+
+    private final int maxRatio;
+
+    private final Clock clock;
+
+    private final Map<String, Long> lastCounts = new HashMap<>();
+
+    private volatile Map<String, Integer> ratios = Collections.emptyMap();
+
+    private long lastTick;
+
+    private ScheduledExecutorService scheduler;
+
+    public MeterRatioController( GoldenSignalsMetricSet metricSet, double callsPerSecond, int minRatio, int maxRatio )
+    {
+        this( metricSet, callsPerSecond, minRatio, maxRatio, Clock.defaultClock() );
+    }
+
+    MeterRatioController( GoldenSignalsMetricSet metricSet, double callsPerSecond, int minRatio, int maxRatio,
+                          Clock clock )
+    {
+        this.metricSet = metricSet;
+        this.callsPerSecond = callsPerSecond;
+        this.minRatio = Math.max( 1, minRatio );
+        this.maxRatio = Math.max( this.minRatio, maxRatio );
+        this.clock = clock;
+        this.lastTick = clock.getTick();
+    }
+
+    public synchronized void start( long period, TimeUnit unit )
+    {
+        if ( scheduler != null )
+        {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "meter-ratio-controller" );
+            t.setDaemon( true );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( () -> {
+            try
+            {
+                update();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Meter ratio update failed", e );
+            }
+        }, period, period, unit );
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Recalculate the ratio of each function from its load since the previous update.
+     */
+    public synchronized void update()
+    {
+        long now = clock.getTick();
+        double seconds = ( now - lastTick ) / (double) TimeUnit.SECONDS.toNanos( 1 );
+        lastTick = now;
+
+        Map<String, GoldenSignalsFunctionMetrics> functions = metricSet.getFunctionMetrics();
+        Map<String, Integer> updated = new HashMap<>();
+        functions.forEach( ( name, metrics ) -> {
+            long count = metrics.getLoadCount();
+            Long last = lastCounts.put( name, count );
+            if ( last == null || seconds <= 0 )
+            {
+                return;
+            }
+
+            long calls = Math.max( 0, count - last );
+
+            double ratio = Math.ceil( calls / seconds / callsPerSecond );
+            int r = (int) Math.max( minRatio, Math.min( maxRatio, ratio ) );
+            if ( r > minRatio )
+            {
+                updated.put( name, r );
+            }
+        } );
+        lastCounts.keySet().retainAll( functions.keySet() );
+
+        if ( !updated.equals( ratios ) )
+        {
+            logger.debug( "Meter ratios changed: {}", updated );
+        }
+        ratios = Collections.unmodifiableMap( updated );
+    }
+
+    /**
+     * @return the highest ratio of the given functions, or the minimum ratio if there are none
+     */
+    public int getRatio( Collection<String> functions )
+    {
+        int ratio = minRatio;
+        if ( functions != null )
+        {
+            Map<String, Integer> current = ratios;
+            for ( String function : functions )
+            {
+                Integer r = current.get( function );
+                if ( r != null && r > ratio )
+                {
+                    ratio = r;
+                }
+            }
+        }
+        return ratio;
+    }
+
+    /**
+     * @return the functions which are currently metered less often than the minimum ratio, with their ratios
+     */
+    public Map<String, Integer> getRatios()
+    {
+        return ratios;
+    }
+}
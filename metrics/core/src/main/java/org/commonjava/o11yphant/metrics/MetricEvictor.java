@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Removes idle metrics with runtime generated names (classifiers, exception classes...) so the registry doesn't only
+ * grow until the next reset.
+ *
+ * Only counters, meters, timers and histograms selected by one of the configured names / prefixes are considered. A
+ * metric is idle when its count didn't change for the idle time, which is checked on each sweep, so recording pays
+ * nothing for it. If a prefix selects more metrics than the cap, the ones that changed least recently are removed,
+ * i.e. LRU per prefix at the granularity of the sweep period.
+ *
+ * Metrics registered as objects through DefaultMetricRegistry.register(), on their own or as part of a metric set
+ * (e.g. the golden signals), are never evicted, even if a prefix selects them: nothing would register them again
+ * after removal.
+ */
+public class MetricEvictor
+                implements Closeable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final DefaultMetricRegistry registry;
+
+    private final List<String> selection;
+
+    private final long idleNanos;
+
+    private final int maxPerPrefix;
+
+    private final Consumer<Set<String>> evictionListener;
+
+    private final Clock clock;
+
+    private final Map<String, Activity> activities = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public MetricEvictor( DefaultMetricRegistry registry, List<String> selection, long idle, TimeUnit unit,
+                          int maxPerPrefix, Consumer<Set<String>> evictionListener )
+    {
+        this( registry, selection, idle, unit, maxPerPrefix, evictionListener, Clock.defaultClock() );
+    }
+
+    MetricEvictor( DefaultMetricRegistry registry, List<String> selection, long idle, TimeUnit unit, int maxPerPrefix,
+                   Consumer<Set<String>> evictionListener, Clock clock )
+    {
+        this.registry = registry;
+        this.selection = new ArrayList<>( selection );
+        this.idleNanos = unit.toNanos( idle );
+        this.maxPerPrefix = maxPerPrefix;
+        this.evictionListener = evictionListener;
+        this.clock = clock;
+    }
+
+    public synchronized void start( long period, TimeUnit unit )
+    {
+        if ( scheduler != null )
+        {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "metric-evictor" );
+            t.setDaemon( true );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( () -> {
+            try
+            {
+                sweep();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Metric eviction failed", e );
+            }
+        }, period, period, unit );
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Check the selected metrics and remove the idle ones and those above the cap.
+     *
+     * @return the names of the removed metrics
+     */
+    public synchronized Set<String> sweep()
+    {
+        long now = clock.getTick();
+        Set<String> evicted = new HashSet<>();
+        List<List<Activity>> groups = new ArrayList<>( selection.size() );
+        selection.forEach( s -> groups.add( new ArrayList<>() ) );
+        Set<String> present = new HashSet<>();
+        Set<String> registered = registry.getMetrics().keySet();
+
+        for ( Map.Entry<String, Metric> entry : registry.getRegistry().getMetrics().entrySet() )
+        {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            int group = selectorOf( name );
+            if ( group < 0 || !( metric instanceof Counting ) || registered.contains( name ) )
+            {
+                continue;
+            }
+
+            present.add( name );
+            long count = ( (Counting) metric ).getCount();
+            Activity activity = activities.computeIfAbsent( name, n -> new Activity( n, count, now ) );
+            if ( activity.count != count )
+            {
+                activity.count = count;
+                activity.changedAt = now;
+            }
+
+            if ( idleNanos > 0 && now - activity.changedAt >= idleNanos )
+            {
+                evicted.add( name );
+            }
+            else
+            {
+                groups.get( group ).add( activity );
+            }
+        }
+
+        if ( maxPerPrefix > 0 )
+        {
+            for ( List<Activity> group : groups )
+            {
+                if ( group.size() > maxPerPrefix )
+                {
+                    group.sort( Comparator.comparingLong( a -> a.changedAt - now ) );
+                    group.subList( 0, group.size() - maxPerPrefix ).forEach( a -> evicted.add( a.name ) );
+                }
+            }
+        }
+
+        activities.keySet().retainAll( present );
+        if ( evicted.isEmpty() )
+        {
+            return evicted;
+        }
+
+        evicted.forEach( name -> {
+            registry.remove( name );
+            activities.remove( name );
+        } );
+        logger.debug( "Evicted {} metrics", evicted.size() );
+        logger.trace( "Evicted metrics: {}", evicted );
+
+        if ( evictionListener != null )
+        {
+            evictionListener.accept( evicted );
+        }
+        return evicted;
+    }
+
+    private int selectorOf( String name )
+    {
+        for ( int i = 0; i < selection.size(); i++ )
+        {
+            String selected = selection.get( i );
+            if ( selected.endsWith( "*" ) ? name.startsWith( selected.substring( 0, selected.length() - 1 ) ) :
+                            name.equals( selected ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Activity
+    {
+        private final String name;
+
+        private long count;
+
+        private long changedAt;
+
+        private Activity( String name, long count, long changedAt )
+        {
+            this.name = name;
+            this.count = count;
+            this.changedAt = changedAt;
+        }
+    }
+}
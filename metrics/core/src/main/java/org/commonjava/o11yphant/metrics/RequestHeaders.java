@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Read-only map view of the headers of a request, for {@link TrafficClassifier#classifyFunctions}. Lookups go
+ * straight to the request (case-insensitive, like the servlet API), and the full map is only built if a classifier
+ * iterates it. If the classifier declares the headers it reads, the other headers are hidden.
+ */
+public final class RequestHeaders
+                extends AbstractMap<String, String>
+{
+    private final HttpServletRequest request;
+
+    private final Set<String> visible;
+
+    private Set<Entry<String, String>> entries;
+
+    /**
+     * @param visible headers to expose, or null for all of them
+     */
+    public RequestHeaders( HttpServletRequest request, Collection<String> visible )
+    {
+        this.request = request;
+        if ( visible == null )
+        {
+            this.visible = null;
+        }
+        else
+        {
+            this.visible = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+            this.visible.addAll( visible );
+        }
+    }
+
+    @Override
+    public String get( Object key )
+    {
+        if ( !( key instanceof String ) || ( visible != null && !visible.contains( key ) ) )
+        {
+            return null;
+        }
+        return request.getHeader( (String) key );
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        return get( key ) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        if ( entries == null )
+        {
+            Map<String, String> headers = new LinkedHashMap<>();
+            if ( visible != null )
+            {
+                visible.forEach( name -> {
+                    String value = request.getHeader( name );
+                    if ( value != null )
+                    {
+                        headers.put( name, value );
+                    }
+                } );
+            }
+            else
+            {
+                Enumeration<String> names = request.getHeaderNames();
+                while ( names != null && names.hasMoreElements() )
+                {
+                    String name = names.nextElement();
+                    headers.put( name, request.getHeader( name ) );
+                }
+            }
+            entries = Collections.unmodifiableMap( headers ).entrySet();
+        }
+        return entries;
+    }
+}
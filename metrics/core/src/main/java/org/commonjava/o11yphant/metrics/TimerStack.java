@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+import org.commonjava.o11yphant.metrics.api.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Stack of running timers, used in place of putting a {@link Timer.Context} into the ThreadContext under a
+ * concatenated name for every start/stop pair. Entries are found by the identity of the (cached) {@link Timer}
+ * instance or by the metric name they were started with (which still works after the cached instance was evicted),
+ * and the start times live in a primitive array. A start/stop pair allocates only the small {@link Timer.Context}
+ * returned from {@link #start(Timer)}, which has to be a new object per start so a stale context can be told apart
+ * from a later one; {@link #push(Timer, String)} starts an entry without a context and allocates nothing. Stopping
+ * a context records the elapsed time with the weight of the current {@link SamplingDecision}.
+ *
+ * Each context stops only its own entry. Stopping it a second time, or after its entry was dropped or the stack
+ * was cleared, returns 0 and leaves other running timers alone.
+ *
+ * The stack is bounded. If it is full, the oldest entry is dropped: that is a timer that was started but never
+ * stopped, e.g. because the request that started it failed in a way that skipped the stop.
+ *
+ * The plain stack is for one thread. Use {@link #concurrent(int)} when timers may be stopped on a different
+ * thread than the one that started them.
+ */
+class TimerStack
+{
+    static final int DEFAULT_MAX_DEPTH = 64;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final int maxDepth;
+
+    private Timer[] timers;
+
+    private String[] names;
+
+    private long[] starts;
+
+    private Frame[] frames;
+
+    private int depth;
+
+    TimerStack( int maxDepth )
+    {
+        this.maxDepth = Math.max( 1, maxDepth );
+
+        int capacity = Math.min( INITIAL_CAPACITY, this.maxDepth );
+        timers = new Timer[capacity];
+        names = new String[capacity];
+        starts = new long[capacity];
+        frames = new Frame[capacity];
+    }
+
+    static TimerStack concurrent( int maxDepth )
+    {
+        return new Concurrent( maxDepth );
+    }
+
+    Timer.Context start( Timer timer )
+    {
+        return start( timer, null );
+    }
+
+    /**
+     * Start a timer that can later be stopped by name, see {@link #stop(String, Function, long)}.
+     */
+    Timer.Context start( Timer timer, String name )
+    {
+        Frame frame = new Frame();
+        frames[push( timer, name )] = frame;
+        return frame;
+    }
+
+    /**
+     * Start a timer without a context, for callers that stop it by timer or by name. Nothing is allocated once the
+     * stack has grown to its working depth.
+     *
+     * @return the index of the new entry
+     */
+    int push( Timer timer, String name )
+    {
+        if ( depth == timers.length )
+        {
+            if ( depth < maxDepth )
+            {
+                grow();
+            }
+            else
+            {
+                logger.debug( "Timer stack is full (depth: {}), dropping oldest timer: {}", depth, timers[0] );
+                remove( 0 );
+            }
+        }
+
+        frames[depth] = null;
+        timers[depth] = timer;
+        names[depth] = name;
+        starts[depth] = System.nanoTime();
+        return depth++;
+    }
+
+    /**
+     * Stop the most recently started timer for the given metric and record the elapsed time on it.
+     *
+     * @return elapsed nanoseconds, or 0 if the timer is not running
+     */
+    long stop( Timer timer )
+    {
+        return stop( timer, 1 );
+    }
+
+    /**
+     * Same as {@link #stop(Timer)}, recording the elapsed time with a sample weight.
+     */
+    long stop( Timer timer, long weight )
+    {
+        for ( int i = depth - 1; i >= 0; i-- )
+        {
+            if ( timers[i] == timer )
+            {
+                long elapsed = System.nanoTime() - starts[i];
+                remove( i );
+                if ( weight == 1 )
+                {
+                    timer.update( elapsed, TimeUnit.NANOSECONDS );
+                }
+                else
+                {
+                    timer.update( elapsed, TimeUnit.NANOSECONDS, weight );
+                }
+                return elapsed;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Stop the most recently started timer with the given name, no matter which Timer instance it was started on,
+     * and record the elapsed time on the timer the resolver returns for that name.
+     *
+     * @return elapsed nanoseconds, or 0 if no timer with that name is running
+     */
+    long stop( String name, Function<String, Timer> resolver, long weight )
+    {
+        for ( int i = depth - 1; i >= 0; i-- )
+        {
+            if ( name.equals( names[i] ) )
+            {
+                long elapsed = System.nanoTime() - starts[i];
+                remove( i );
+                Timer target = resolver.apply( name );
+                if ( weight == 1 )
+                {
+                    target.update( elapsed, TimeUnit.NANOSECONDS );
+                }
+                else
+                {
+                    target.update( elapsed, TimeUnit.NANOSECONDS, weight );
+                }
+                return elapsed;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Stop the entry that was started with the given context, wherever it is in the stack, recording the elapsed
+     * time with a sample weight.
+     *
+     * @return elapsed nanoseconds, or 0 if that entry is no longer running
+     */
+    long stop( Frame frame, long weight )
+    {
+        for ( int i = depth - 1; i >= 0; i-- )
+        {
+            if ( frames[i] == frame )
+            {
+                long elapsed = System.nanoTime() - starts[i];
+                Timer timer = timers[i];
+                remove( i );
+                if ( weight == 1 )
+                {
+                    timer.update( elapsed, TimeUnit.NANOSECONDS );
+                }
+                else
+                {
+                    timer.update( elapsed, TimeUnit.NANOSECONDS, weight );
+                }
+                return elapsed;
+            }
+        }
+
+        return 0;
+    }
+
+    int depth()
+    {
+        return depth;
+    }
+
+    void clear()
+    {
+        for ( int i = 0; i < depth; i++ )
+        {
+            timers[i] = null;
+            names[i] = null;
+            frames[i] = null;
+        }
+        depth = 0;
+    }
+
+    private void remove( int idx )
+    {
+        int moved = depth - idx - 1;
+        if ( moved > 0 )
+        {
+            System.arraycopy( timers, idx + 1, timers, idx, moved );
+            System.arraycopy( names, idx + 1, names, idx, moved );
+            System.arraycopy( starts, idx + 1, starts, idx, moved );
+            System.arraycopy( frames, idx + 1, frames, idx, moved );
+        }
+
+        depth--;
+        timers[depth] = null;
+        names[depth] = null;
+        frames[depth] = null;
+    }
+
+    private void grow()
+    {
+        int capacity = Math.min( timers.length * 2, maxDepth );
+        Timer[] newTimers = new Timer[capacity];
+        String[] newNames = new String[capacity];
+        long[] newStarts = new long[capacity];
+        Frame[] newFrames = new Frame[capacity];
+
+        System.arraycopy( timers, 0, newTimers, 0, depth );
+        System.arraycopy( names, 0, newNames, 0, depth );
+        System.arraycopy( starts, 0, newStarts, 0, depth );
+        System.arraycopy( frames, 0, newFrames, 0, depth );
+
+        timers = newTimers;
+        names = newNames;
+        starts = newStarts;
+        frames = newFrames;
+    }
+
+    final class Frame
+                    implements Timer.Context
+    {
+        @Override
+        public long stop()
+        {
+            return TimerStack.this.stop( this, SamplingDecision.currentWeight() );
+        }
+
+        @Override
+        public void close()
+        {
+            stop();
+        }
+    }
+
+    private static final class Concurrent
+                    extends TimerStack
+    {
+        Concurrent( int maxDepth )
+        {
+            super( maxDepth );
+        }
+
+        @Override
+        synchronized Timer.Context start( Timer timer, String name )
+        {
+            return super.start( timer, name );
+        }
+
+        @Override
+        synchronized int push( Timer timer, String name )
+        {
+            return super.push( timer, name );
+        }
+
+        @Override
+        synchronized long stop( String name, Function<String, Timer> resolver, long weight )
+        {
+            return super.stop( name, resolver, weight );
+        }
+
+        @Override
+        synchronized long stop( Timer timer, long weight )
+        {
+            return super.stop( timer, weight );
+        }
+
+        @Override
+        synchronized long stop( Frame frame, long weight )
+        {
+            return super.stop( frame, weight );
+        }
+
+        @Override
+        synchronized int depth()
+        {
+            return super.depth();
+        }
+
+        @Override
+        synchronized void clear()
+        {
+            super.clear();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.commonjava.o11yphant.metrics.api.MetricSet;
+import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
+/**
+ * Registers the route cache meters of the {@link AbstractTrafficClassifier}, if the application provides one. The
+ * classifier is looked up once; its route cache and meters are shared by all instances of the classifier class, so
+ * this works for {@code @Dependent} classifiers too.
+ */
+@ApplicationScoped
+public class TrafficClassifierMetricSetProvider
+        implements MetricSetProvider
+{
+    private static final String CLASSIFIER = "classifier";
+
+    @Inject
+    private Instance<TrafficClassifier> classifierInstance;
+
+    @Inject
+    private MetricsConfig metricsConfig;
+
+    private volatile AbstractTrafficClassifier classifier;
+
+    private volatile boolean resolved;
+
+    @Override
+    public MetricSet getMetricSet()
+    {
+        return getClassifier().getCacheMetricSet();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name( metricsConfig.getNodePrefix(), CLASSIFIER );
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return getClassifier() != null;
+    }
+
+    @Override
+    public void reset()
+    {
+        AbstractTrafficClassifier classifier = getClassifier();
+        if ( classifier != null )
+        {
+            classifier.getCacheMetricSet().reset();
+        }
+    }
+
+    private AbstractTrafficClassifier getClassifier()
+    {
+        if ( !resolved )
+        {
+            synchronized ( this )
+            {
+                if ( !resolved )
+                {
+                    classifier = lookupClassifier();
+                    resolved = true;
+                }
+            }
+        }
+        return classifier;
+    }
+
+    private AbstractTrafficClassifier lookupClassifier()
+    {
+        if ( classifierInstance == null || classifierInstance.isUnsatisfied() || classifierInstance.isAmbiguous() )
+        {
+            return null;
+        }
+
+        TrafficClassifier classifier = classifierInstance.get();
+        return classifier instanceof AbstractTrafficClassifier ? (AbstractTrafficClassifier) classifier : null;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.commonjava.o11yphant.metrics.interceptor;
 
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+import org.commonjava.o11yphant.metrics.MetricHandle;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
 import org.commonjava.o11yphant.metrics.api.Timer;
 import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
@@ -26,16 +28,8 @@ import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.Interceptor;
 import javax.interceptor.InvocationContext;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-import static com.codahale.metrics.MetricRegistry.name;
-import static org.commonjava.o11yphant.metrics.MetricsConstants.*;
-import static org.commonjava.o11yphant.metrics.util.NameUtils.*;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.NANOS_PER_MILLISECOND;
 
 @Interceptor
 @Measure
@@ -57,79 +51,44 @@ public class DefaultMetricsInterceptor
             return context.proceed();
         }
 
-        Method method = context.getMethod();
-        Measure measure = method.getAnnotation( Measure.class );
-        if ( measure == null )
-        {
-            measure = method.getDeclaringClass().getAnnotation( Measure.class );
-        }
-
-        if ( measure == null )
+        InterceptionPlan plan = InterceptionPlan.of( context.getMethod() );
+        if ( plan.getMeasure() == null )
         {
             return context.proceed();
         }
 
-        String defaultName = getDefaultName( context.getMethod().getDeclaringClass(), context.getMethod().getName() );
-        logger.trace( "Gathering metrics for: {} using context: {}", defaultName, context.getContextData() );
+        MetricHandle handle = plan.getHandle( metricsManager );
+        logger.trace( "Gathering metrics for: {} using context: {}", handle.getName(), context.getContextData() );
 
-        Map<String, Timer.Context> timers = initTimers( defaultName );
-        List<String> exceptionMeters = initMeters( EXCEPTION, defaultName );
-        List<String> meters = initMeters( METER, defaultName );
-
-        List<String> startMeters = meters.stream().map( name -> name( name, "starts" ) ).collect( Collectors.toList() );
+        // go through the manager so timer start is visible to interceptors of MetricsManager
+        String timerName = handle.getTimerName();
+        int weight = SamplingDecision.currentWeight();
+        Timer.Context timer = metricsManager.startTimer( timerName );
 
         long start = System.nanoTime();
 
         try
         {
-            metricsManager.mark( startMeters );
+            handle.getStartMeter().mark( weight );
 
             return context.proceed();
         }
         catch ( Exception e )
         {
-            metricsManager.mark( exceptionMeters );
-
-            List<String> eClassMeters = exceptionMeters.stream()
-                                                       .map( name -> name( name, e.getClass().getSimpleName() ) )
-                                                       .filter( name -> !exceptionMeters.contains( name ) )
-                                                       .collect( Collectors.toList() );
-
-            metricsManager.mark( eClassMeters );
+            handle.getExceptionMeter().mark( weight );
+            handle.getExceptionMeter( e.getClass() ).mark( weight );
 
             throw e;
         }
         finally
         {
-            metricsManager.stopTimers( timers );
-            metricsManager.mark( meters );
+            metricsManager.stopTimer( timerName, timer );
+            handle.getMeter().mark( weight );
 
             double elapsed = (System.nanoTime() - start) / NANOS_PER_MILLISECOND;
 
-            metricsManager.accumulate( defaultName, elapsed );
+            metricsManager.accumulate( handle.getName(), elapsed );
         }
     }
 
-    private List<String> initMeters( String classifier, final String defaultName )
-    {
-        List<String> meters = new ArrayList<>();
-
-        meters.add( getName( config.getNodePrefix(), DEFAULT, defaultName, classifier ) );
-
-        logger.trace( "Got meter for {} with classifier: {}: {}", defaultName, classifier, meters );
-
-        return meters;
-    }
-
-    private Map<String, Timer.Context> initTimers( String defaultName )
-    {
-        Map<String, Timer.Context> timers = new HashMap<>();
-
-        String name = getName( config.getNodePrefix(), DEFAULT, defaultName, TIMER );
-        timers.put(name,
-                metricsManager.startTimer( name ) );
-
-        return timers;
-    }
-
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.interceptor;
+
+import org.commonjava.o11yphant.metrics.MetricHandle;
+import org.commonjava.o11yphant.metrics.MetricsManager;
+import org.commonjava.o11yphant.metrics.annotation.Measure;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * What the {@link Measure} interceptors need to know about an intercepted method: the resolved annotation (from the
+ * method, or else its class), the name and, once looked up, the metric handle and the trace sample rate. Plans are
+ * calculated once per method and shared by the metrics and trace interceptors, so a steady-state invocation does no
+ * reflection or name building.
+ *
+ * Plans are kept with the declaring class ({@link ClassValue}), so they don't keep redeployed classes and their class
+ * loaders alive. The handle and the sample rate are cached per manager / configuration instance.
+ */
+public final class InterceptionPlan
+{
+    private static final Plans PLANS = new Plans();
+
+    private final Class<?> declaringClass;
+
+    private final String methodName;
+
+    private final Measure measure;
+
+    private final String name;
+
+    private volatile HandleRef handleRef;
+
+    private volatile SampleRateRef sampleRateRef;
+
+    private InterceptionPlan( Method method )
+    {
+        this.declaringClass = method.getDeclaringClass();
+        this.methodName = method.getName();
+        this.name = declaringClass.getSimpleName() + "." + methodName;
+
+        Measure m = method.getAnnotation( Measure.class );
+        this.measure = m == null ? declaringClass.getAnnotation( Measure.class ) : m;
+    }
+
+    public static InterceptionPlan of( Method method )
+    {
+        Map<Method, InterceptionPlan> plans = PLANS.get( method.getDeclaringClass() );
+        InterceptionPlan plan = plans.get( method );
+        if ( plan == null )
+        {
+            plan = plans.computeIfAbsent( method, InterceptionPlan::new );
+        }
+        return plan;
+    }
+
+    /**
+     * @return the annotation of the method, or of its class, or null if neither is measured
+     */
+    public Measure getMeasure()
+    {
+        return measure;
+    }
+
+    /**
+     * @return &lt;class simple name&gt;.&lt;method name&gt;
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public Class<?> getDeclaringClass()
+    {
+        return declaringClass;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    /**
+     * Get the metric handle of the method from the given manager, which is only asked once.
+     */
+    public MetricHandle getHandle( MetricsManager manager )
+    {
+        HandleRef ref = handleRef;
+        if ( ref == null || ref.manager != manager )
+        {
+            ref = new HandleRef( manager, manager.handle( declaringClass, methodName ) );
+            handleRef = ref;
+        }
+        return ref.handle;
+    }
+
+    /**
+     * Get the trace sample rate of the method from the given configuration, which is only asked once.
+     *
+     * @param config the configuration the rate is cached for
+     * @param resolver looks up the rate of the method by name in that configuration
+     */
+    public int getSampleRate( Object config, ToIntFunction<String> resolver )
+    {
+        SampleRateRef ref = sampleRateRef;
+        if ( ref == null || ref.config != config )
+        {
+            ref = new SampleRateRef( config, resolver.applyAsInt( name ) );
+            sampleRateRef = ref;
+        }
+        return ref.rate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "InterceptionPlan{" + name + ", measured=" + ( measure != null ) + "}";
+    }
+
+    private static final class HandleRef
+    {
+        private final MetricsManager manager;
+
+        private final MetricHandle handle;
+
+        private HandleRef( MetricsManager manager, MetricHandle handle )
+        {
+            this.manager = manager;
+            this.handle = handle;
+        }
+    }
+
+    private static final class SampleRateRef
+    {
+        private final Object config;
+
+        private final int rate;
+
+        private SampleRateRef( Object config, int rate )
+        {
+            this.config = config;
+            this.rate = rate;
+        }
+    }
+
+    private static final class Plans
+            extends ClassValue<Map<Method, InterceptionPlan>>
+    {
+        @Override
+        protected Map<Method, InterceptionPlan> computeValue( Class<?> type )
+        {
+            return new ConcurrentHashMap<>();
+        }
+    }
+}
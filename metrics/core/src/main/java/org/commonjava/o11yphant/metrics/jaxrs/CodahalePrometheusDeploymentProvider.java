@@ -22,11 +22,14 @@ import io.undertow.servlet.api.DeploymentInfo;
 import io.undertow.servlet.api.ServletInfo;
 import io.undertow.servlet.util.ImmediateInstanceFactory;
 import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
+import org.commonjava.o11yphant.metrics.conf.PrometheusConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
 
 import static org.commonjava.o11yphant.metrics.conf.MetricsConfig.REPORTER_PROMETHEUS;
 
@@ -41,6 +44,8 @@ public class CodahalePrometheusDeploymentProvider implements PrometheusDeploymen
     @Inject
     private MetricRegistry codahaleMetricRegistry;
 
+    private PrometheusScrapeCache scrapeCache;
+
     @Override
     public DeploymentInfo getDeploymentInfo( String contextRoot )
     {
@@ -50,11 +55,41 @@ public class CodahalePrometheusDeploymentProvider implements PrometheusDeploymen
         }
 
         logger.info( "Configuring Prometheus metrics reporter" );
-        CollectorRegistry.defaultRegistry.register(
-                        new PromEnhancedStatsAndTimingExports( codahaleMetricRegistry, config.getPrometheusConfig() ) );
+        PrometheusConfig prometheusConfig = config.getPrometheusConfig();
+        PrometheusStreamingWriter streamingWriter = null;
+        if ( prometheusConfig.isStreamingExposition() )
+        {
+            streamingWriter = new PrometheusStreamingWriter( codahaleMetricRegistry, prometheusConfig );
+        }
+        else
+        {
+            CollectorRegistry.defaultRegistry.register(
+                            new PromEnhancedStatsAndTimingExports( codahaleMetricRegistry, prometheusConfig ) );
+        }
+
+        LoggingPrometheusServlet prometheusServlet;
+        if ( prometheusConfig.getScrapeCacheSeconds() > 0 )
+        {
+            scrapeCache = new PrometheusScrapeCache( CollectorRegistry.defaultRegistry, streamingWriter,
+                                                     prometheusConfig.getScrapeCacheSeconds(), TimeUnit.SECONDS,
+                                                     prometheusConfig.isScrapeCacheGzip() );
+            if ( prometheusConfig.isScrapeCacheBackgroundRefresh() )
+            {
+                scrapeCache.start();
+            }
+            prometheusServlet = new LoggingPrometheusServlet( scrapeCache );
+        }
+        else if ( streamingWriter != null )
+        {
+            prometheusServlet = new LoggingPrometheusServlet( CollectorRegistry.defaultRegistry, streamingWriter );
+        }
+        else
+        {
+            prometheusServlet = new LoggingPrometheusServlet();
+        }
 
         final ServletInfo servlet = Servlets.servlet( "prometheus-metrics", LoggingPrometheusServlet.class,
-                                                      new ImmediateInstanceFactory<>( new LoggingPrometheusServlet() ) )
+                                                      new ImmediateInstanceFactory<>( prometheusServlet ) )
                                             .addMapping( "/metrics" );
 
         final DeploymentInfo di = new DeploymentInfo().addListener(
@@ -67,4 +102,13 @@ public class CodahalePrometheusDeploymentProvider implements PrometheusDeploymen
         logger.info( "Returning deployment info for Prometheus metrics servlet" );
         return di;
     }
+
+    @PreDestroy
+    public void stop()
+    {
+        if ( scrapeCache != null )
+        {
+            scrapeCache.stop();
+        }
+    }
 }
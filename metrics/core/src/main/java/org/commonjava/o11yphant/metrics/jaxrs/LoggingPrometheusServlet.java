@@ -17,35 +17,118 @@ package org.commonjava.o11yphant.metrics.jaxrs;
 
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.MetricsServlet;
+import io.prometheus.client.exporter.common.TextFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
 
 public class LoggingPrometheusServlet
                 extends MetricsServlet
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
+    private final CollectorRegistry registry;
+
+    private final PrometheusStreamingWriter streamingWriter;
+
+    private final PrometheusScrapeCache scrapeCache;
+
     public LoggingPrometheusServlet()
     {
         super();
+        this.registry = CollectorRegistry.defaultRegistry;
+        this.streamingWriter = null;
+        this.scrapeCache = null;
         logger.debug( "Loaded Prometheus metrics servlet with default constructor" );
     }
 
     public LoggingPrometheusServlet( CollectorRegistry registry )
     {
         super( registry );
+        this.registry = registry;
+        this.streamingWriter = null;
+        this.scrapeCache = null;
         logger.debug( "Loaded Prometheus metrics servlet with registry constructor" );
     }
 
+    /**
+     * Serve the Codahale metrics through the streaming writer, followed by any collectors registered in the given
+     * registry. The name[] request parameters only filter the latter.
+     */
+    public LoggingPrometheusServlet( CollectorRegistry registry, PrometheusStreamingWriter streamingWriter )
+    {
+        super( registry );
+        this.registry = registry;
+        this.streamingWriter = streamingWriter;
+        this.scrapeCache = null;
+        logger.debug( "Loaded Prometheus metrics servlet with streaming writer" );
+    }
+
+    /**
+     * Serve the cached snapshots of the scrape cache. Requests with name[] parameters bypass the cache.
+     */
+    public LoggingPrometheusServlet( PrometheusScrapeCache scrapeCache )
+    {
+        super( scrapeCache.getRegistry() );
+        this.registry = scrapeCache.getRegistry();
+        this.streamingWriter = scrapeCache.getStreamingWriter();
+        this.scrapeCache = scrapeCache;
+        logger.debug( "Loaded Prometheus metrics servlet with scrape cache" );
+    }
+
     @Override
     protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
     {
         logger.debug( "Prometheus metrics GET" );
-        super.doGet( req, resp );
+        if ( streamingWriter == null && scrapeCache == null )
+        {
+            super.doGet( req, resp );
+            return;
+        }
+
+        String contentType = TextFormat.chooseContentType( req.getHeader( "Accept" ) );
+        String[] names = req.getParameterValues( "name[]" );
+        resp.setStatus( HttpServletResponse.SC_OK );
+        resp.setContentType( contentType );
+
+        if ( scrapeCache != null && names == null )
+        {
+            PrometheusScrapeCache.Snapshot snapshot = scrapeCache.get( contentType );
+            byte[] body = snapshot.getBody();
+            if ( snapshot.getGzipBody() != null )
+            {
+                // the body depends on Accept-Encoding, so caches between us and the scraper must not mix them up
+                resp.setHeader( "Vary", "Accept-Encoding" );
+                if ( acceptsGzip( req ) )
+                {
+                    resp.setHeader( "Content-Encoding", "gzip" );
+                    body = snapshot.getGzipBody();
+                }
+            }
+            resp.setContentLength( body.length );
+            resp.getOutputStream().write( body );
+            return;
+        }
+
+        try (Writer writer = new BufferedWriter( resp.getWriter() ))
+        {
+            PrometheusScrapeCache.write( writer, contentType, streamingWriter, registry,
+                                         names == null ? null : new HashSet<>( Arrays.asList( names ) ) );
+            writer.flush();
+        }
+    }
+
+    private static boolean acceptsGzip( HttpServletRequest req )
+    {
+        String encoding = req.getHeader( "Accept-Encoding" );
+        return encoding != null && encoding.contains( "gzip" );
     }
 
     @Override
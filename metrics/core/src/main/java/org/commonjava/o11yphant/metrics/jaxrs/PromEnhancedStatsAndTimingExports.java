@@ -23,7 +23,9 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import io.prometheus.client.dropwizard.DropwizardExports;
+import org.commonjava.o11yphant.metrics.api.MetricId;
 import org.commonjava.o11yphant.metrics.conf.PrometheusConfig;
+import org.commonjava.o11yphant.metrics.impl.HdrSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +48,25 @@ public class PromEnhancedStatsAndTimingExports
                 implements io.prometheus.client.Collector.Describable
 
 {
+    // label lists are shared by all samples, see PrometheusSampleBuilder
+    private static final List<String> QUANTILE = singletonList( "quantile" );
+
+    private static final List<String> P75 = singletonList( "0.75" );
+
+    private static final List<String> P95 = singletonList( "0.95" );
+
+    private static final List<String> P99 = singletonList( "0.99" );
+
+    private static final List<String> P999 = singletonList( "0.999" );
+
+    private static final List<String> MINS = singletonList( "mins" );
+
+    private static final List<String> MINS_1 = singletonList( "1" );
+
+    private static final List<String> MINS_5 = singletonList( "5" );
+
+    private static final List<String> MINS_15 = singletonList( "15" );
+
     private final Logger logger = LoggerFactory.getLogger( getClass().getName() );
 
     private final PrometheusFilteringRegistry registry;
@@ -60,7 +81,7 @@ public class PromEnhancedStatsAndTimingExports
 
     private static String getHelpMessage( String metricName )
     {
-        return String.format( metricName );
+        return String.format( MetricId.nameOf( metricName ) );
     }
 
     /**
@@ -115,15 +136,22 @@ public class PromEnhancedStatsAndTimingExports
                                               String helpMessage, List<MetricFamilySamples.Sample> extraSamples )
     {
         List<MetricFamilySamples.Sample> samples = new ArrayList<>();
-        samples.add( sampleBuilder.createSample( dropwizardName, "", singletonList( "quantile" ), singletonList( "0.75" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "", QUANTILE, P75,
                                                  snapshot.get75thPercentile() * factor ) );
 
-        samples.add( sampleBuilder.createSample( dropwizardName, "", singletonList( "quantile" ), singletonList( "0.95" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "", QUANTILE, P95,
                                                  snapshot.get95thPercentile() * factor ) );
 
-        samples.add( sampleBuilder.createSample( dropwizardName, "", singletonList( "quantile" ), singletonList( "0.99" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "", QUANTILE, P99,
                                                  snapshot.get99thPercentile() * factor ) );
 
+        if ( snapshot instanceof HdrSnapshot )
+        {
+            // HdrHistogram percentiles are exact enough for the far tail to be meaningful
+            samples.add( sampleBuilder.createSample( dropwizardName, "", QUANTILE, P999,
+                                                     snapshot.get999thPercentile() * factor ) );
+        }
+
         samples.add( sampleBuilder.createSample( dropwizardName, "_raw_mean", emptyList(), emptyList(),
                                                  snapshot.getMean() ) );
         
@@ -160,13 +188,13 @@ public class PromEnhancedStatsAndTimingExports
     {
         List<MetricFamilySamples.Sample> samples = new ArrayList<>();
 
-        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", singletonList( "mins" ), singletonList( "1" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", MINS, MINS_1,
                                                  timer.getOneMinuteRate() ) );
 
-        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", singletonList( "mins" ), singletonList( "5" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", MINS, MINS_5,
                                                  timer.getFiveMinuteRate() ) );
 
-        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", singletonList( "mins" ), singletonList( "15" ),
+        samples.add( sampleBuilder.createSample( dropwizardName, "_rate", MINS, MINS_15,
                                                  timer.getFifteenMinuteRate() ) );
 
         samples.add( sampleBuilder.createSample( dropwizardName, "_mean_rate", emptyList(), emptyList(),
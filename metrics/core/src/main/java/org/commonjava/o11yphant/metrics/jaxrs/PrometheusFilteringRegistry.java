@@ -49,75 +49,86 @@ public class PrometheusFilteringRegistry
     @Override
     public SortedMap<String, Gauge> getGauges()
     {
-        return filter( delegate.getGauges() );
+        return delegate.getGauges( expressed( MetricFilter.ALL ) );
+    }
+
+    @Override
+    public SortedMap<String, Gauge> getGauges( MetricFilter filter )
+    {
+        return delegate.getGauges( expressed( filter ) );
     }
 
     @Override
     public SortedMap<String, Counter> getCounters( MetricFilter filter )
     {
-        return filter( delegate.getCounters( filter ) );
+        return delegate.getCounters( expressed( filter ) );
     }
 
     @Override
     public SortedMap<String, Histogram> getHistograms()
     {
-        return filter( delegate.getHistograms() );
+        return delegate.getHistograms( expressed( MetricFilter.ALL ) );
     }
 
     @Override
     public SortedMap<String, Histogram> getHistograms( MetricFilter filter )
     {
-        return filter( delegate.getHistograms( filter ) );
+        return delegate.getHistograms( expressed( filter ) );
     }
 
     @Override
     public SortedMap<String, Meter> getMeters()
     {
-        return filter( delegate.getMeters() );
+        return delegate.getMeters( expressed( MetricFilter.ALL ) );
     }
 
     @Override
     public SortedMap<String, Meter> getMeters( MetricFilter filter )
     {
-        return filter( delegate.getMeters( filter ) );
+        return delegate.getMeters( expressed( filter ) );
     }
 
     @Override
     public SortedMap<String, Timer> getTimers()
     {
-        return filter( delegate.getTimers() );
+        return delegate.getTimers( expressed( MetricFilter.ALL ) );
     }
 
     @Override
     public SortedMap<String, Timer> getTimers( MetricFilter filter )
     {
-        return filter( delegate.getTimers( filter ) );
+        return delegate.getTimers( expressed( filter ) );
     }
 
     @Override
     public Map<String, Metric> getMetrics()
     {
-        return filter( delegate.getMetrics() );
-    }
-
-    private <T extends Metric> SortedMap<String, T> filter( Map<String, T> input )
-    {
-        TreeMap<String, T> result = new TreeMap<>();
-
-        StringBuilder sb = new StringBuilder( "Included in Prometheus metrics:\n" );
-        input.forEach( ( k, v ) -> {
-            if ( logger.isTraceEnabled() )
-            {
-                sb.append( config.isMetricExpressed( k ) ? "\n+  " : "\n-  " ).append( k );
-            }
-
-            if ( config.isMetricExpressed( k ) )
+        Map<String, Metric> result = new TreeMap<>();
+        delegate.getMetrics().forEach( ( k, v ) -> {
+            if ( isExpressed( k ) )
             {
                 result.put( k, v );
             }
         } );
-
-        logger.trace( sb.toString() );
         return result;
     }
+
+    /**
+     * Let the delegate apply the expressed-metrics decision while it collects the metrics, so the result map is only
+     * built once.
+     */
+    private MetricFilter expressed( MetricFilter filter )
+    {
+        return ( name, metric ) -> isExpressed( name ) && filter.matches( name, metric );
+    }
+
+    private boolean isExpressed( String name )
+    {
+        boolean expressed = config.isMetricExpressed( name );
+        if ( logger.isTraceEnabled() )
+        {
+            logger.trace( "{} Prometheus metrics: {}", expressed ? "Included in" : "Excluded from", name );
+        }
+        return expressed;
+    }
 }
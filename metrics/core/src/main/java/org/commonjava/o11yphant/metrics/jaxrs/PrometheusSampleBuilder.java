@@ -17,35 +17,115 @@ package org.commonjava.o11yphant.metrics.jaxrs;
 
 import io.prometheus.client.Collector;
 import io.prometheus.client.dropwizard.samplebuilder.DefaultSampleBuilder;
+import org.commonjava.o11yphant.metrics.api.MetricId;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
+/**
+ * Adds the node and hostname labels to every sample, and turns the labels of tagged metrics ({@link MetricId}) into
+ * sample labels.
+ *
+ * The sanitized sample name and the label lists only depend on the metric name, the suffix and the additional
+ * labels, so they are computed once per such shape and shared by the samples of every scrape. Samples only read
+ * their label lists, so the lists are immutable.
+ */
 public class PrometheusSampleBuilder
         extends DefaultSampleBuilder
 {
+    static final int MAX_CACHED_METRICS = 50000;
+
     private static final String LABEL_NODE = "node";
 
     private static final String LABEL_HOSTNAME = "hostname";
 
     private final String nodeLabel;
 
+    private final String hostname;
+
+    private final Map<String, Shape[]> shapes = new ConcurrentHashMap<>();
+
     public PrometheusSampleBuilder( String nodeLabel )
+    {
+        this( nodeLabel, System.getenv( "HOSTNAME" ) );
+    }
+
+    // for test
+    PrometheusSampleBuilder( String nodeLabel, String hostname )
     {
         super();
         this.nodeLabel = nodeLabel;
+        this.hostname = hostname;
     }
 
+    /**
+     * Registry keys of tagged metrics ({@link MetricId}) are split into the sample name and labels, which come after
+     * the additional labels (e.g. quantile) and before the node / hostname labels.
+     */
     @Override
     public Collector.MetricFamilySamples.Sample createSample( final String dropwizardName, final String nameSuffix,
                                                               final List<String> additionalLabelNames,
                                                               final List<String> additionalLabelValues,
                                                               final double value )
     {
-        List<String> labelNames = additionalLabelNames == null ? new ArrayList<>() : new ArrayList<>( additionalLabelNames );
-        List<String> labelValues = additionalLabelValues == null ? new ArrayList<>() : new ArrayList<>( additionalLabelValues );
+        Shape shape = shape( dropwizardName, nameSuffix == null ? "" : nameSuffix,
+                             additionalLabelNames == null ? Collections.emptyList() : additionalLabelNames,
+                             additionalLabelValues == null ? Collections.emptyList() : additionalLabelValues );
+        return new Collector.MetricFamilySamples.Sample( shape.name, shape.labelNames, shape.labelValues, value );
+    }
+
+    private Shape shape( String dropwizardName, String suffix, List<String> additionalNames,
+                         List<String> additionalValues )
+    {
+        Shape[] known = shapes.get( dropwizardName );
+        if ( known != null )
+        {
+            for ( Shape shape : known )
+            {
+                if ( shape.matches( suffix, additionalNames, additionalValues ) )
+                {
+                    return shape;
+                }
+            }
+        }
+
+        Shape shape = newShape( dropwizardName, suffix, additionalNames, additionalValues );
+        if ( shapes.size() >= MAX_CACHED_METRICS )
+        {
+            // metrics come and go, start over rather than tracking which ones are gone
+            shapes.clear();
+        }
+        shapes.merge( dropwizardName, new Shape[] { shape }, ( current, added ) -> {
+            Shape[] merged = new Shape[current.length + 1];
+            System.arraycopy( current, 0, merged, 0, current.length );
+            merged[current.length] = added[0];
+            return merged;
+        } );
+        return shape;
+    }
+
+    private Shape newShape( String dropwizardName, String suffix, List<String> additionalNames,
+                            List<String> additionalValues )
+    {
+        List<String> labelNames = new ArrayList<>( additionalNames );
+        List<String> labelValues = new ArrayList<>( additionalValues );
+
+        String name = dropwizardName;
+        if ( dropwizardName.indexOf( MetricId.SEPARATOR ) >= 0 )
+        {
+            MetricId id = MetricId.parse( dropwizardName );
+            name = id.getName();
+            for ( int i = 0; i < id.getLabelCount(); i++ )
+            {
+                labelNames.add( id.getLabelName( i ) );
+                labelValues.add( id.getLabelValue( i ) );
+            }
+        }
 
         if ( isNotEmpty( nodeLabel ) )
         {
@@ -53,13 +133,51 @@ public class PrometheusSampleBuilder
             labelValues.add( nodeLabel );
         }
 
-        String hostname = System.getenv( "HOSTNAME" );
         if ( isNotEmpty( hostname ) )
         {
             labelNames.add( LABEL_HOSTNAME );
             labelValues.add( hostname );
         }
 
-        return super.createSample( dropwizardName, nameSuffix, labelNames, labelValues, value );
+        return new Shape( suffix, new ArrayList<>( additionalNames ), new ArrayList<>( additionalValues ),
+                          Collector.sanitizeMetricName( name + suffix ), Collections.unmodifiableList( labelNames ),
+                          Collections.unmodifiableList( labelValues ) );
+    }
+
+    int getCachedMetricCount()
+    {
+        return shapes.size();
+    }
+
+    private static final class Shape
+    {
+        private final String suffix;
+
+        private final List<String> additionalNames;
+
+        private final List<String> additionalValues;
+
+        private final String name;
+
+        private final List<String> labelNames;
+
+        private final List<String> labelValues;
+
+        private Shape( String suffix, List<String> additionalNames, List<String> additionalValues, String name,
+                       List<String> labelNames, List<String> labelValues )
+        {
+            this.suffix = suffix;
+            this.additionalNames = additionalNames;
+            this.additionalValues = additionalValues;
+            this.name = name;
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+        }
+
+        private boolean matches( String suffix, List<String> additionalNames, List<String> additionalValues )
+        {
+            return this.suffix.equals( suffix ) && this.additionalNames.equals( additionalNames )
+                            && this.additionalValues.equals( additionalValues );
+        }
     }
 }
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps the serialized /metrics response so concurrent scrapers share one collection pass. A snapshot is reused until
+ * it is older than the max age; the first scraper to find it stale renders a new one and everyone arriving meanwhile
+ * waits for that result instead of collecting again.
+ *
+ * With {@link #start()} a single background thread re-renders the snapshots every max-age period, and scrapes never
+ * wait (except for the very first one of each format). If the background refresh keeps failing, a snapshot is only
+ * served until it is {@value #MAX_MISSED_REFRESHES} refresh periods old; after that scrapes render (and fail) on
+ * their own again, instead of silently reporting frozen values. Snapshots can also carry a gzip-compressed copy of the body,
+ * so compressing it is paid once per snapshot rather than once per scraper.
+ */
+public class PrometheusScrapeCache
+{
+    static final int MAX_MISSED_REFRESHES = 3;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CollectorRegistry registry;
+
+    private final PrometheusStreamingWriter streamingWriter;
+
+    private final long maxAgeNanos;
+
+    private final boolean gzip;
+
+    private final Slot text = new Slot( false );
+
+    private final Slot openMetrics = new Slot( true );
+
+    private volatile ScheduledExecutorService refresher;
+
+    private volatile long refreshPeriodNanos;
+
+    /**
+     * @param registry collectors to render
+     * @param streamingWriter written ahead of the registry collectors if not null
+     * @param maxAge how long a snapshot is served before it is rendered again
+     * @param gzip whether to keep a gzip-compressed copy of each snapshot
+     */
+    public PrometheusScrapeCache( CollectorRegistry registry, PrometheusStreamingWriter streamingWriter, long maxAge,
+                                  TimeUnit unit, boolean gzip )
+    {
+        this.registry = registry;
+        this.streamingWriter = streamingWriter;
+        this.maxAgeNanos = unit.toNanos( maxAge );
+        this.gzip = gzip;
+    }
+
+    public CollectorRegistry getRegistry()
+    {
+        return registry;
+    }
+
+    public PrometheusStreamingWriter getStreamingWriter()
+    {
+        return streamingWriter;
+    }
+
+    /**
+     * Get the current snapshot for the given content type (see {@link TextFormat#chooseContentType(String)}),
+     * rendering it first if there is none or it is stale.
+     */
+    public Snapshot get( String contentType )
+    {
+        return slot( contentType ).get();
+    }
+
+    /**
+     * Render the snapshots from a background thread every max-age period. Only formats that have been scraped are
+     * refreshed, starting with the text format.
+     */
+    public synchronized void start()
+    {
+        if ( refresher != null )
+        {
+            return;
+        }
+
+        text.requested = true;
+        long period = Math.max( maxAgeNanos, TimeUnit.MILLISECONDS.toNanos( 100 ) );
+        refreshPeriodNanos = period;
+        refresher = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "prometheus-scrape-cache" );
+            t.setDaemon( true );
+            return t;
+        } );
+        refresher.scheduleAtFixedRate( this::refreshRequested, 0, period, TimeUnit.NANOSECONDS );
+        logger.info( "Started Prometheus scrape cache refresh every {} ms", TimeUnit.NANOSECONDS.toMillis( period ) );
+    }
+
+    public synchronized void stop()
+    {
+        if ( refresher != null )
+        {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    private void refreshRequested()
+    {
+        for ( Slot slot : new Slot[] { text, openMetrics } )
+        {
+            if ( slot.requested )
+            {
+                try
+                {
+                    slot.refresh();
+                }
+                catch ( RuntimeException e )
+                {
+                    logger.warn( "Failed to refresh Prometheus scrape snapshot", e );
+                }
+            }
+        }
+    }
+
+    private Slot slot( String contentType )
+    {
+        return TextFormat.CONTENT_TYPE_OPENMETRICS_100.equals( contentType ) ? openMetrics : text;
+    }
+
+    /**
+     * Write the exposition for the given content type: the streaming writer output, if any, followed by the registry
+     * collectors, optionally limited to the given names.
+     */
+    static void write( Writer writer, String contentType, PrometheusStreamingWriter streamingWriter,
+                       CollectorRegistry registry, Set<String> names )
+                    throws IOException
+    {
+        if ( streamingWriter != null )
+        {
+            streamingWriter.write( writer, TextFormat.CONTENT_TYPE_OPENMETRICS_100.equals( contentType ) );
+        }
+
+        TextFormat.writeFormat( contentType, writer, names == null ?
+                        registry.metricFamilySamples() :
+                        registry.filteredMetricFamilySamples( names ) );
+    }
+
+    /**
+     * Immutable serialized scrape response.
+     */
+    public static final class Snapshot
+    {
+        private final String contentType;
+
+        private final byte[] body;
+
+        private final byte[] gzipBody;
+
+        private final long createdNanos;
+
+        Snapshot( String contentType, byte[] body, byte[] gzipBody, long createdNanos )
+        {
+            this.contentType = contentType;
+            this.body = body;
+            this.gzipBody = gzipBody;
+            this.createdNanos = createdNanos;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * The UTF-8 response body. Callers must not modify it.
+         */
+        public byte[] getBody()
+        {
+            return body;
+        }
+
+        /**
+         * The gzip-compressed response body, or null if the cache doesn't compress. Callers must not modify it.
+         */
+        public byte[] getGzipBody()
+        {
+            return gzipBody;
+        }
+
+        public long getCreatedNanos()
+        {
+            return createdNanos;
+        }
+    }
+
+    private final class Slot
+    {
+        private final String contentType;
+
+        private volatile Snapshot snapshot;
+
+        private volatile boolean requested;
+
+        private CompletableFuture<Snapshot> inFlight;
+
+        Slot( boolean openMetrics )
+        {
+            this.contentType = openMetrics ? TextFormat.CONTENT_TYPE_OPENMETRICS_100 : TextFormat.CONTENT_TYPE_004;
+        }
+
+        Snapshot get()
+        {
+            requested = true;
+            Snapshot current = snapshot;
+            if ( current != null && ( refresher != null ? !isExpired( current ) : !isStale( current ) ) )
+            {
+                return current;
+            }
+
+            return render( false );
+        }
+
+        void refresh()
+        {
+            render( true );
+        }
+
+        private boolean isStale( Snapshot s )
+        {
+            return System.nanoTime() - s.createdNanos >= maxAgeNanos;
+        }
+
+        /**
+         * Whether the background refresh missed too many periods for this snapshot to be served any longer.
+         */
+        private boolean isExpired( Snapshot s )
+        {
+            return System.nanoTime() - s.createdNanos >= refreshPeriodNanos * MAX_MISSED_REFRESHES;
+        }
+
+        /**
+         * Single-flight render: only one thread renders at a time, the others wait for its result.
+         */
+        private Snapshot render( boolean force )
+        {
+            CompletableFuture<Snapshot> future;
+            boolean owner = false;
+            synchronized ( this )
+            {
+                Snapshot current = snapshot;
+                if ( !force && current != null && !isStale( current ) )
+                {
+                    return current;
+                }
+
+                future = inFlight;
+                if ( future == null )
+                {
+                    future = new CompletableFuture<>();
+                    inFlight = future;
+                    owner = true;
+                }
+            }
+
+            if ( !owner )
+            {
+                return join( future );
+            }
+
+            try
+            {
+                Snapshot rendered = doRender();
+                snapshot = rendered;
+                future.complete( rendered );
+                return rendered;
+            }
+            catch ( RuntimeException e )
+            {
+                future.completeExceptionally( e );
+                throw e;
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    inFlight = null;
+                }
+            }
+        }
+
+        private Snapshot join( CompletableFuture<Snapshot> future )
+        {
+            try
+            {
+                return future.join();
+            }
+            catch ( CompletionException e )
+            {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            }
+        }
+
+        private Snapshot doRender()
+        {
+            Snapshot previous = snapshot;
+            ByteArrayOutputStream out =
+                            new ByteArrayOutputStream( previous == null ? 8192 : previous.body.length + 1024 );
+            try
+            {
+                Writer writer = new OutputStreamWriter( out, UTF_8 );
+                write( writer, contentType, streamingWriter, registry, null );
+                writer.flush();
+
+                byte[] body = out.toByteArray();
+                byte[] gzipBody = null;
+                if ( gzip )
+                {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream( body.length / 4 + 64 );
+                    try (GZIPOutputStream gz = new GZIPOutputStream( compressed ))
+                    {
+                        gz.write( body );
+                    }
+                    gzipBody = compressed.toByteArray();
+                }
+
+                return new Snapshot( contentType, body, gzipBody, System.nanoTime() );
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( "Failed to render Prometheus metrics", e );
+            }
+        }
+    }
+}
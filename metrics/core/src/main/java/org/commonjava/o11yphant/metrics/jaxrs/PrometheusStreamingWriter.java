@@ -0,0 +1,682 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.Collector;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.commonjava.o11yphant.metrics.conf.PrometheusConfig;
+import org.commonjava.o11yphant.metrics.impl.HdrSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+
+/**
+ * Writes the Codahale metrics straight into the Prometheus text (0.0.4) or OpenMetrics exposition, producing the same
+ * samples as {@link PromEnhancedStatsAndTimingExports} without materializing {@link Collector.MetricFamilySamples}.
+ *
+ * The layout (families, sanitized names, label strings) is computed once and rebuilt only when metrics are added to
+ * or removed from the registry, or when the expressed metrics change. A scrape then only reads the metric values and
+ * formats the numbers through a reused buffer.
+ *
+ * The output does not contain the OpenMetrics "# EOF" marker, so other collectors can be appended after it.
+ */
+public class PrometheusStreamingWriter
+{
+    private static final String LABEL_QUANTILE = "quantile";
+
+    private static final String LABEL_MINS = "mins";
+
+    private static final String LABEL_NODE = "node";
+
+    private static final String LABEL_HOSTNAME = "hostname";
+
+    private static final double NANOS_FACTOR = 1.0D / TimeUnit.SECONDS.toNanos( 1L );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final MetricRegistry registry;
+
+    private final PrometheusConfig config;
+
+    private volatile boolean dirty = true;
+
+    private volatile Layout textLayout;
+
+    private volatile Layout openMetricsLayout;
+
+    public PrometheusStreamingWriter( MetricRegistry registry, PrometheusConfig config )
+    {
+        this.registry = registry;
+        this.config = config;
+        registry.addListener( new InvalidatingListener() );
+    }
+
+    /**
+     * Write all expressed metrics in the text format 0.0.4, or in OpenMetrics 1.0.0 if openMetrics is set.
+     */
+    public void write( Writer writer, boolean openMetrics )
+                    throws IOException
+    {
+        Layout layout = getLayout( openMetrics );
+        Output out = new Output( writer );
+        for ( Family family : layout.families )
+        {
+            out.pendingHeader = family.header;
+            for ( Series series : family.series )
+            {
+                series.write( out );
+            }
+        }
+    }
+
+    private Layout getLayout( boolean openMetrics )
+    {
+        Layout layout = openMetrics ? openMetricsLayout : textLayout;
+        if ( layout != null && !dirty && layout.expressions == config.getExpressedMetrics() )
+        {
+            return layout;
+        }
+
+        synchronized ( this )
+        {
+            if ( dirty )
+            {
+                textLayout = null;
+                openMetricsLayout = null;
+                dirty = false;
+            }
+
+            layout = openMetrics ? openMetricsLayout : textLayout;
+            if ( layout == null || layout.expressions != config.getExpressedMetrics() )
+            {
+                layout = new LayoutBuilder( openMetrics ).build();
+                if ( openMetrics )
+                {
+                    openMetricsLayout = layout;
+                }
+                else
+                {
+                    textLayout = layout;
+                }
+            }
+
+            return layout;
+        }
+    }
+
+    private final class InvalidatingListener
+                    extends MetricRegistryListener.Base
+    {
+        @Override
+        public void onGaugeAdded( String name, Gauge<?> gauge )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onGaugeRemoved( String name )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onCounterAdded( String name, Counter counter )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onCounterRemoved( String name )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onHistogramAdded( String name, Histogram histogram )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onHistogramRemoved( String name )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onMeterAdded( String name, Meter meter )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onMeterRemoved( String name )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onTimerAdded( String name, Timer timer )
+        {
+            dirty = true;
+        }
+
+        @Override
+        public void onTimerRemoved( String name )
+        {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Groups the expressed metrics into families the same way {@link PromEnhancedStatsAndTimingExports} merges them:
+     * the first metric seen for a family name decides its type and help text.
+     */
+    private final class LayoutBuilder
+    {
+        private final boolean openMetrics;
+
+        private final List<String> expressions = config.getExpressedMetrics();
+
+        private final Map<String, FamilyBuilder> families = new LinkedHashMap<>();
+
+        private final List<String> extraLabelNames = new ArrayList<>();
+
+        private final List<String> extraLabelValues = new ArrayList<>();
+
+        LayoutBuilder( boolean openMetrics )
+        {
+            this.openMetrics = openMetrics;
+
+            String nodeLabel = config.getNodeLabel();
+            if ( isNotEmpty( nodeLabel ) )
+            {
+                extraLabelNames.add( LABEL_NODE );
+                extraLabelValues.add( nodeLabel );
+            }
+
+            String hostname = System.getenv( "HOSTNAME" );
+            if ( isNotEmpty( hostname ) )
+            {
+                extraLabelNames.add( LABEL_HOSTNAME );
+                extraLabelValues.add( hostname );
+            }
+        }
+
+        Layout build()
+        {
+            registry.getGauges().forEach( ( name, gauge ) -> {
+                if ( config.isMetricExpressed( name ) )
+                {
+                    MetricId id = MetricId.parse( name );
+                    FamilyBuilder family = family( sanitize( id.getName() ), Collector.Type.GAUGE, id.getName() );
+                    family.series.add( new GaugeSeries( name, prefix( family, family.name, id, null, null ), gauge ) );
+                }
+            } );
+
+            registry.getCounters().forEach( ( name, counter ) -> {
+                if ( config.isMetricExpressed( name ) )
+                {
+                    MetricId id = MetricId.parse( name );
+                    FamilyBuilder family = family( sanitize( id.getName() ), Collector.Type.GAUGE, id.getName() );
+                    family.series.add( new CounterSeries( prefix( family, family.name, id, null, null ), counter ) );
+                }
+            } );
+
+            registry.getHistograms().forEach( ( name, histogram ) -> {
+                if ( config.isMetricExpressed( name ) )
+                {
+                    MetricId id = MetricId.parse( name );
+                    FamilyBuilder family = family( sanitize( id.getName() ), Collector.Type.SUMMARY, id.getName() );
+                    family.series.add( summary( family, id, histogram, histogram, 1.0, null ) );
+                }
+            } );
+
+            registry.getTimers().forEach( ( name, timer ) -> {
+                if ( config.isMetricExpressed( name ) )
+                {
+                    MetricId id = MetricId.parse( name );
+                    FamilyBuilder family = family( sanitize( id.getName() ), Collector.Type.SUMMARY, id.getName() );
+                    family.series.add( summary( family, id, timer, timer, NANOS_FACTOR, timer ) );
+                }
+            } );
+
+            registry.getMeters().forEach( ( name, meter ) -> {
+                if ( config.isMetricExpressed( name ) )
+                {
+                    MetricId id = MetricId.parse( name );
+                    String sampleName = sanitize( id.getName() + "_total" );
+                    String familyName = sampleName.substring( 0, sampleName.length() - "_total".length() );
+                    FamilyBuilder family = family( familyName, Collector.Type.COUNTER, id.getName() );
+                    family.series.add( new MeterSeries( prefix( family, sampleName, id, null, null ), meter ) );
+                }
+            } );
+
+            List<Family> result = new ArrayList<>( families.size() );
+            families.values().forEach( f -> result.add( new Family( header( f ), f.series ) ) );
+            return new Layout( expressions, result );
+        }
+
+        private SummarySeries summary( FamilyBuilder family, MetricId id, Sampling sampling, Counting counting,
+                                       double factor, Timer timer )
+        {
+            String name = id.getName();
+            String base = sanitize( name );
+            String[] prefixes = new String[timer == null ? 7 : 11];
+            prefixes[0] = prefix( family, base, id, LABEL_QUANTILE, "0.75" );
+            prefixes[1] = prefix( family, base, id, LABEL_QUANTILE, "0.95" );
+            prefixes[2] = prefix( family, base, id, LABEL_QUANTILE, "0.99" );
+            prefixes[3] = prefix( family, base, id, LABEL_QUANTILE, "0.999" );
+            prefixes[4] = prefix( family, sanitize( name + "_raw_mean" ), id, null, null );
+            prefixes[5] = prefix( family, sanitize( name + "_raw_stdev" ), id, null, null );
+            prefixes[6] = prefix( family, sanitize( name + "_count" ), id, null, null );
+            if ( timer != null )
+            {
+                String rate = sanitize( name + "_rate" );
+                prefixes[7] = prefix( family, rate, id, LABEL_MINS, "1" );
+                prefixes[8] = prefix( family, rate, id, LABEL_MINS, "5" );
+                prefixes[9] = prefix( family, rate, id, LABEL_MINS, "15" );
+                prefixes[10] = prefix( family, sanitize( name + "_mean_rate" ), id, null, null );
+            }
+
+            return new SummarySeries( prefixes, sampling, counting, factor, timer );
+        }
+
+        private FamilyBuilder family( String familyName, Collector.Type type, String help )
+        {
+            return families.computeIfAbsent( familyName, n -> new FamilyBuilder( n, type, help ) );
+        }
+
+        /**
+         * Everything on a sample line before the value, including the separating space. Labels are written in the
+         * order of the collector path: the sample's own label, the labels of the metric id, then node / hostname.
+         */
+        private String prefix( FamilyBuilder family, String sampleName, MetricId id, String labelName,
+                               String labelValue )
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append( sampleName );
+            if ( family.type == Collector.Type.COUNTER && sampleName.equals( family.name ) )
+            {
+                sb.append( "_total" );
+            }
+
+            if ( labelName != null || id.hasLabels() || !extraLabelNames.isEmpty() )
+            {
+                sb.append( '{' );
+                boolean first = true;
+                if ( labelName != null )
+                {
+                    appendLabel( sb, labelName, labelValue, first );
+                    first = false;
+                }
+                for ( int i = 0; i < id.getLabelCount(); i++ )
+                {
+                    appendLabel( sb, id.getLabelName( i ), id.getLabelValue( i ), first );
+                    first = false;
+                }
+                for ( int i = 0; i < extraLabelNames.size(); i++ )
+                {
+                    appendLabel( sb, extraLabelNames.get( i ), extraLabelValues.get( i ), first );
+                    first = false;
+                }
+                sb.append( '}' );
+            }
+
+            return sb.append( ' ' ).toString();
+        }
+
+        private void appendLabel( StringBuilder sb, String name, String value, boolean first )
+        {
+            if ( openMetrics )
+            {
+                if ( !first )
+                {
+                    sb.append( ',' );
+                }
+                sb.append( name ).append( "=\"" );
+                appendEscaped( sb, value, true );
+                sb.append( '"' );
+            }
+            else
+            {
+                sb.append( name ).append( "=\"" );
+                appendEscaped( sb, value, true );
+                sb.append( "\"," );
+            }
+        }
+
+        private String header( FamilyBuilder family )
+        {
+            StringBuilder sb = new StringBuilder();
+            if ( openMetrics )
+            {
+                sb.append( "# TYPE " ).append( family.name ).append( ' ' ).append( typeString( family.type ) );
+                sb.append( "\n# HELP " ).append( family.name ).append( ' ' );
+                appendEscaped( sb, family.help, true );
+                sb.append( '\n' );
+            }
+            else
+            {
+                String name = family.type == Collector.Type.COUNTER ? family.name + "_total" : family.name;
+                sb.append( "# HELP " ).append( name ).append( ' ' );
+                appendEscaped( sb, family.help, false );
+                sb.append( "\n# TYPE " ).append( name ).append( ' ' ).append( typeString( family.type ) );
+                sb.append( '\n' );
+            }
+
+            return sb.toString();
+        }
+    }
+
+    private static String sanitize( String name )
+    {
+        return Collector.sanitizeMetricName( name );
+    }
+
+    private static String typeString( Collector.Type type )
+    {
+        switch ( type )
+        {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            default:
+                return "untyped";
+        }
+    }
+
+    private static void appendEscaped( StringBuilder sb, String s, boolean escapeQuotes )
+    {
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            char c = s.charAt( i );
+            if ( c == '\\' )
+            {
+                sb.append( "\\\\" );
+            }
+            else if ( c == '\n' )
+            {
+                sb.append( "\\n" );
+            }
+            else if ( c == '"' && escapeQuotes )
+            {
+                sb.append( "\\\"" );
+            }
+            else
+            {
+                sb.append( c );
+            }
+        }
+    }
+
+    private static final class Layout
+    {
+        private final List<String> expressions;
+
+        private final List<Family> families;
+
+        Layout( List<String> expressions, List<Family> families )
+        {
+            this.expressions = expressions;
+            this.families = families;
+        }
+    }
+
+    private static final class FamilyBuilder
+    {
+        private final String name;
+
+        private final Collector.Type type;
+
+        private final String help;
+
+        private final List<Series> series = new ArrayList<>();
+
+        FamilyBuilder( String name, Collector.Type type, String help )
+        {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static final class Family
+    {
+        private final String header;
+
+        private final Series[] series;
+
+        Family( String header, List<Series> series )
+        {
+            this.header = header;
+            this.series = series.toArray( new Series[0] );
+        }
+    }
+
+    /**
+     * Per-scrape state. The family header is only written once the family produces its first sample, so a family made
+     * of gauges with non-numeric values disappears just like it does with the collector.
+     */
+    private static final class Output
+    {
+        private final Writer writer;
+
+        private final StringBuilder number = new StringBuilder( 32 );
+
+        private char[] chars = new char[32];
+
+        private String pendingHeader;
+
+        Output( Writer writer )
+        {
+            this.writer = writer;
+        }
+
+        void sample( String prefix, double value )
+                        throws IOException
+        {
+            if ( pendingHeader != null )
+            {
+                writer.write( pendingHeader );
+                pendingHeader = null;
+            }
+
+            writer.write( prefix );
+            if ( value == Double.POSITIVE_INFINITY )
+            {
+                writer.write( "+Inf" );
+            }
+            else if ( value == Double.NEGATIVE_INFINITY )
+            {
+                writer.write( "-Inf" );
+            }
+            else
+            {
+                // same digits as Double.toString(), which is what the collector path uses
+                number.setLength( 0 );
+                number.append( value );
+                int len = number.length();
+                if ( len > chars.length )
+                {
+                    chars = new char[len];
+                }
+                number.getChars( 0, len, chars, 0 );
+                writer.write( chars, 0, len );
+            }
+            writer.write( '\n' );
+        }
+    }
+
+    private interface Series
+    {
+        void write( Output out )
+                        throws IOException;
+    }
+
+    private final class GaugeSeries
+                    implements Series
+    {
+        private final String name;
+
+        private final String prefix;
+
+        private final Gauge<?> gauge;
+
+        GaugeSeries( String name, String prefix, Gauge<?> gauge )
+        {
+            this.name = name;
+            this.prefix = prefix;
+            this.gauge = gauge;
+        }
+
+        @Override
+        public void write( Output out )
+                        throws IOException
+        {
+            Object obj = gauge.getValue();
+            if ( obj instanceof Number )
+            {
+                out.sample( prefix, ( (Number) obj ).doubleValue() );
+            }
+            else if ( obj instanceof Boolean )
+            {
+                out.sample( prefix, ( (Boolean) obj ) ? 1 : 0 );
+            }
+            else if ( logger.isTraceEnabled() )
+            {
+                logger.trace( "Invalid type for Gauge {}: {}", sanitize( name ),
+                              obj == null ? "null" : obj.getClass().getName() );
+            }
+        }
+    }
+
+    private static final class CounterSeries
+                    implements Series
+    {
+        private final String prefix;
+
+        private final Counter counter;
+
+        CounterSeries( String prefix, Counter counter )
+        {
+            this.prefix = prefix;
+            this.counter = counter;
+        }
+
+        @Override
+        public void write( Output out )
+                        throws IOException
+        {
+            out.sample( prefix, counter.getCount() );
+        }
+    }
+
+    private static final class MeterSeries
+                    implements Series
+    {
+        private final String prefix;
+
+        private final Meter meter;
+
+        MeterSeries( String prefix, Meter meter )
+        {
+            this.prefix = prefix;
+            this.meter = meter;
+        }
+
+        @Override
+        public void write( Output out )
+                        throws IOException
+        {
+            out.sample( prefix, meter.getCount() );
+        }
+    }
+
+    /**
+     * Histograms and timers, exported as a summary. The 0.999 quantile is only written for HdrHistogram snapshots and
+     * the rate samples only for timers, as in {@link PromEnhancedStatsAndTimingExports#fromSnapshotAndCount}.
+     */
+    private static final class SummarySeries
+                    implements Series
+    {
+        private final String[] prefixes;
+
+        private final Sampling sampling;
+
+        private final Counting counting;
+
+        private final double factor;
+
+        private final Timer timer;
+
+        SummarySeries( String[] prefixes, Sampling sampling, Counting counting, double factor, Timer timer )
+        {
+            this.prefixes = prefixes;
+            this.sampling = sampling;
+            this.counting = counting;
+            this.factor = factor;
+            this.timer = timer;
+        }
+
+        @Override
+        public void write( Output out )
+                        throws IOException
+        {
+            Snapshot snapshot = sampling.getSnapshot();
+            out.sample( prefixes[0], snapshot.get75thPercentile() * factor );
+            out.sample( prefixes[1], snapshot.get95thPercentile() * factor );
+            out.sample( prefixes[2], snapshot.get99thPercentile() * factor );
+            if ( snapshot instanceof HdrSnapshot )
+            {
+                out.sample( prefixes[3], snapshot.get999thPercentile() * factor );
+            }
+            out.sample( prefixes[4], snapshot.getMean() );
+            out.sample( prefixes[5], snapshot.getStdDev() );
+            out.sample( prefixes[6], counting.getCount() );
+
+            if ( timer != null )
+            {
+                out.sample( prefixes[7], timer.getOneMinuteRate() );
+                out.sample( prefixes[8], timer.getFiveMinuteRate() );
+                out.sample( prefixes[9], timer.getFifteenMinuteRate() );
+                out.sample( prefixes[10], timer.getMeanRate() );
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.graphite.GraphiteSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one Graphite connection open across reports and reconnects with exponential backoff after failures.
+ *
+ * GraphiteReporter connects and closes its sender around every report; here {@link #close()} only drops the
+ * connection if it failed, and {@link #shutdown()} closes it for good. While backing off, connect() doesn't touch the
+ * network and the values of that report are discarded, so a Graphite outage costs neither connect timeouts nor a
+ * warning per tick.
+ */
+public class BackoffGraphiteSender
+                implements GraphiteSender
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final GraphiteSender delegate;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final Clock clock;
+
+    private int failures;
+
+    private long nextAttempt;
+
+    private boolean discarding;
+
+    private boolean broken;
+
+    private long discarded;
+
+    public BackoffGraphiteSender( GraphiteSender delegate, long initialBackoff, long maxBackoff, TimeUnit unit )
+    {
+        this( delegate, initialBackoff, maxBackoff, unit, Clock.defaultClock() );
+    }
+
+    BackoffGraphiteSender( GraphiteSender delegate, long initialBackoff, long maxBackoff, TimeUnit unit, Clock clock )
+    {
+        this.delegate = delegate;
+        this.initialBackoffNanos = unit.toNanos( initialBackoff );
+        this.maxBackoffNanos = unit.toNanos( maxBackoff );
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void connect()
+                    throws IllegalStateException
+    {
+        if ( delegate.isConnected() )
+        {
+            return;
+        }
+
+        if ( failures > 0 && clock.getTick() - nextAttempt < 0 )
+        {
+            discarding = true;
+            return;
+        }
+
+        try
+        {
+            delegate.connect();
+            if ( failures > 0 )
+            {
+                logger.info( "Reconnected to Graphite after {} failed attempts", failures );
+            }
+            failures = 0;
+            discarding = false;
+        }
+        catch ( IOException | IllegalStateException e )
+        {
+            fail( "connect", e );
+            discarding = true;
+        }
+    }
+
+    @Override
+    public synchronized boolean isConnected()
+    {
+        return discarding || delegate.isConnected();
+    }
+
+    @Override
+    public synchronized void send( String name, String value, long timestamp )
+                    throws IOException
+    {
+        if ( discarding )
+        {
+            discarded++;
+            return;
+        }
+
+        try
+        {
+            delegate.send( name, value, timestamp );
+        }
+        catch ( IOException e )
+        {
+            fail( "send", e );
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void flush()
+                    throws IOException
+    {
+        if ( discarding )
+        {
+            return;
+        }
+
+        try
+        {
+            delegate.flush();
+        }
+        catch ( IOException e )
+        {
+            fail( "flush", e );
+            throw e;
+        }
+    }
+
+    /**
+     * Called by GraphiteReporter after every report: keeps a healthy connection open.
+     */
+    @Override
+    public synchronized void close()
+    {
+        discarding = false;
+        if ( broken )
+        {
+            closeDelegate();
+            broken = false;
+        }
+    }
+
+    public synchronized void shutdown()
+    {
+        closeDelegate();
+    }
+
+    @Override
+    public synchronized int getFailures()
+    {
+        return failures;
+    }
+
+    public synchronized long getDiscarded()
+    {
+        return discarded;
+    }
+
+    private void fail( String operation, Exception e )
+    {
+        failures++;
+        broken = true;
+        long backoff = initialBackoffNanos << Math.min( failures - 1, 20 );
+        if ( backoff <= 0 || backoff > maxBackoffNanos )
+        {
+            backoff = maxBackoffNanos;
+        }
+        nextAttempt = clock.getTick() + backoff;
+        logger.warn( "Graphite {} failed ({} in a row), next attempt in {} ms: {}", operation, failures,
+                     TimeUnit.NANOSECONDS.toMillis( backoff ), e.getMessage() );
+    }
+
+    private void closeDelegate()
+    {
+        try
+        {
+            delegate.close();
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Failed to close Graphite connection", e );
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filter for reporters that only accepts the metrics which changed since this filter last accepted them.
+ *
+ * Counters, meters, timers and histograms count as changed when their count differs from the count last reported,
+ * so the recording path pays nothing for the tracking. Gauges are always accepted. Every accepted metric is
+ * reported again after the full-refresh period even if it didn't change, so backends never see a series go stale
+ * for longer than that, and decaying rates of idle meters catch up.
+ *
+ * Each reporter needs its own instance, since accepting a metric marks it as reported. An optional delegate filter
+ * is applied first, and metrics it rejects are not tracked.
+ */
+public final class ChangedMetricFilter
+                implements MetricFilter
+{
+    private final Map<String, Reported> reported = new ConcurrentHashMap<>();
+
+    private final MetricFilter delegate;
+
+    private final long fullRefreshNanos;
+
+    private final Clock clock;
+
+    private ChangedMetricFilter( MetricFilter delegate, long fullRefreshNanos, Clock clock )
+    {
+        this.delegate = delegate == null ? MetricFilter.ALL : delegate;
+        this.fullRefreshNanos = fullRefreshNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * Create a filter and listen to the registry, so the state of removed metrics is dropped.
+     */
+    public static ChangedMetricFilter attach( MetricRegistry registry, MetricFilter delegate, long fullRefreshPeriod,
+                                              TimeUnit unit )
+    {
+        return attach( registry, delegate, fullRefreshPeriod, unit, Clock.defaultClock() );
+    }
+
+    static ChangedMetricFilter attach( MetricRegistry registry, MetricFilter delegate, long fullRefreshPeriod,
+                                       TimeUnit unit, Clock clock )
+    {
+        ChangedMetricFilter filter = new ChangedMetricFilter( delegate, unit.toNanos( fullRefreshPeriod ), clock );
+        registry.addListener( new MetricRegistryListener.Base()
+        {
+            @Override
+            public void onGaugeRemoved( String name )
+            {
+                filter.reported.remove( name );
+            }
+
+            @Override
+            public void onCounterRemoved( String name )
+            {
+                filter.reported.remove( name );
+            }
+
+            @Override
+            public void onHistogramRemoved( String name )
+            {
+                filter.reported.remove( name );
+            }
+
+            @Override
+            public void onMeterRemoved( String name )
+            {
+                filter.reported.remove( name );
+            }
+
+            @Override
+            public void onTimerRemoved( String name )
+            {
+                filter.reported.remove( name );
+            }
+        } );
+        return filter;
+    }
+
+    @Override
+    public boolean matches( String name, Metric metric )
+    {
+        if ( !delegate.matches( name, metric ) )
+        {
+            return false;
+        }
+
+        if ( !( metric instanceof Counting ) )
+        {
+            return true;
+        }
+
+        long count = ( (Counting) metric ).getCount();
+        long now = clock.getTick();
+        Reported last = reported.get( name );
+        if ( last == null )
+        {
+            reported.put( name, new Reported( count, now ) );
+            return true;
+        }
+
+        synchronized ( last )
+        {
+            if ( last.count != count || now - last.reportedAt >= fullRefreshNanos )
+            {
+                last.count = count;
+                last.reportedAt = now;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getTrackedCount()
+    {
+        return reported.size();
+    }
+
+    private static final class Reported
+    {
+        private long count;
+
+        private long reportedAt;
+
+        private Reported( long count, long reportedAt )
+        {
+            this.count = count;
+            this.reportedAt = reportedAt;
+        }
+    }
+}
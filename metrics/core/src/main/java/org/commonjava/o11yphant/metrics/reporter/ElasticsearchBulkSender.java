@@ -0,0 +1,428 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Posts _bulk requests to Elasticsearch from a single background thread. Requests wait in a bounded queue and their
+ * buffers come from a fixed pool, so a slow or unavailable cluster can't make the reporters pile up memory: when the
+ * queue is full, the oldest waiting request is dropped in favour of the newer one, and when no buffer is free the new
+ * report is dropped. Dropped requests are counted (see {@link #getDropped()}).
+ *
+ * Hosts are tried in order, moving on to the next one when a host fails.
+ */
+public class ElasticsearchBulkSender
+                implements Closeable
+{
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final List<URL> bulkUrls = new ArrayList<>();
+
+    private final BlockingQueue<BulkBuffer> pool;
+
+    private final BlockingQueue<BulkBuffer> queue;
+
+    private final int timeoutMillis;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private int hostIndex;
+
+    /**
+     * @param hosts comma separated Elasticsearch base URLs, e.g. http://es1:9200,http://es2:9200
+     */
+    public ElasticsearchBulkSender( String hosts )
+    {
+        this( hosts, DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT_MILLIS );
+    }
+
+    public ElasticsearchBulkSender( String hosts, int queueCapacity, int timeoutMillis )
+    {
+        for ( String host : hosts.split( "," ) )
+        {
+            String h = host.trim();
+            if ( h.isEmpty() )
+            {
+                continue;
+            }
+            if ( !h.contains( "://" ) )
+            {
+                h = "http://" + h;
+            }
+            try
+            {
+                bulkUrls.add( new URL( h.endsWith( "/" ) ? h + "_bulk" : h + "/_bulk" ) );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalArgumentException( "Invalid Elasticsearch host: " + h, e );
+            }
+        }
+
+        if ( bulkUrls.isEmpty() )
+        {
+            throw new IllegalArgumentException( "No Elasticsearch hosts configured" );
+        }
+
+        this.timeoutMillis = timeoutMillis;
+        this.queue = new ArrayBlockingQueue<>( queueCapacity );
+
+        // one buffer per queue slot, plus the one being sent and the one being filled
+        this.pool = new ArrayBlockingQueue<>( queueCapacity + 2 );
+        for ( int i = 0; i < queueCapacity + 2; i++ )
+        {
+            pool.add( new BulkBuffer( INITIAL_BUFFER_SIZE ) );
+        }
+
+        this.thread = new Thread( this::run, "elasticsearch-metrics-sender" );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    /**
+     * Take a cleared buffer from the pool, or null if all of them are in use. Pass it back through
+     * {@link #send(BulkBuffer)} or {@link #release(BulkBuffer)}.
+     */
+    public BulkBuffer acquire()
+    {
+        BulkBuffer buffer = pool.poll();
+        if ( buffer == null )
+        {
+            dropped.incrementAndGet();
+            logger.debug( "No free bulk buffer, dropping metrics report" );
+            return null;
+        }
+
+        buffer.reset();
+        return buffer;
+    }
+
+    public void release( BulkBuffer buffer )
+    {
+        pool.offer( buffer );
+    }
+
+    /**
+     * Queue a filled buffer for sending. Never blocks.
+     */
+    public void send( BulkBuffer buffer )
+    {
+        while ( !queue.offer( buffer ) )
+        {
+            BulkBuffer oldest = queue.poll();
+            if ( oldest != null )
+            {
+                dropped.incrementAndGet();
+                logger.debug( "Elasticsearch is falling behind, dropping the oldest queued metrics report" );
+                release( oldest );
+            }
+        }
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run()
+    {
+        while ( running )
+        {
+            BulkBuffer buffer;
+            try
+            {
+                buffer = queue.poll( 1, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if ( buffer == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                post( buffer );
+            }
+            finally
+            {
+                release( buffer );
+            }
+        }
+    }
+
+    private void post( BulkBuffer buffer )
+    {
+        for ( int i = 0; i < bulkUrls.size(); i++ )
+        {
+            URL url = bulkUrls.get( hostIndex );
+            try
+            {
+                int status = post( url, buffer );
+                if ( status >= 200 && status < 300 )
+                {
+                    sent.incrementAndGet();
+                    return;
+                }
+                logger.warn( "Elasticsearch bulk request to {} failed with status {}", url, status );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Elasticsearch bulk request to {} failed: {}", url, e.getMessage() );
+            }
+            hostIndex = ( hostIndex + 1 ) % bulkUrls.size();
+        }
+
+        dropped.incrementAndGet();
+    }
+
+    private int post( URL url, BulkBuffer buffer )
+                    throws IOException
+    {
+        // no disconnect(): reading the response fully lets the JDK keep the connection alive for the next report
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod( "POST" );
+        connection.setConnectTimeout( timeoutMillis );
+        connection.setReadTimeout( timeoutMillis );
+        connection.setDoOutput( true );
+        connection.setRequestProperty( "Content-Type", "application/x-ndjson" );
+        connection.setFixedLengthStreamingMode( buffer.size() );
+        try (OutputStream out = connection.getOutputStream())
+        {
+            buffer.writeTo( out );
+        }
+
+        int status = connection.getResponseCode();
+        if ( status >= 200 && status < 300 )
+        {
+            String response = drain( connection.getInputStream() );
+            if ( response.contains( "\"errors\":true" ) )
+            {
+                logger.debug( "Elasticsearch rejected some metrics documents: {}", response );
+            }
+        }
+        else if ( connection.getErrorStream() != null )
+        {
+            drain( connection.getErrorStream() );
+        }
+        return status;
+    }
+
+    /**
+     * Read the whole response so the connection can be kept alive and reused.
+     */
+    private static String drain( InputStream in )
+                    throws IOException
+    {
+        try (InputStream stream = in)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while ( ( read = stream.read( buf ) ) > 0 )
+            {
+                out.write( buf, 0, read );
+            }
+            return new String( out.toByteArray(), UTF_8 );
+        }
+    }
+
+    /**
+     * Growable byte buffer for one NDJSON bulk body, kept across reports to avoid reallocating it every period.
+     */
+    public static final class BulkBuffer
+    {
+        private byte[] bytes;
+
+        private int size;
+
+        private final StringBuilder number = new StringBuilder( 32 );
+
+        BulkBuffer( int capacity )
+        {
+            this.bytes = new byte[capacity];
+        }
+
+        void reset()
+        {
+            size = 0;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        void writeTo( OutputStream out )
+                        throws IOException
+        {
+            out.write( bytes, 0, size );
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String( bytes, 0, size, UTF_8 );
+        }
+
+        /**
+         * Append text known to be plain ASCII without escaping, e.g. field names and punctuation.
+         */
+        public BulkBuffer raw( String s )
+        {
+            ensure( s.length() );
+            for ( int i = 0; i < s.length(); i++ )
+            {
+                bytes[size++] = (byte) s.charAt( i );
+            }
+            return this;
+        }
+
+        public BulkBuffer raw( char c )
+        {
+            ensure( 1 );
+            bytes[size++] = (byte) c;
+            return this;
+        }
+
+        /**
+         * Append a quoted, escaped JSON string.
+         */
+        public BulkBuffer string( String s )
+        {
+            raw( '"' );
+            for ( int i = 0; i < s.length(); i++ )
+            {
+                char c = s.charAt( i );
+                if ( c == '"' || c == '\\' )
+                {
+                    raw( '\\' ).raw( c );
+                }
+                else if ( c < 0x20 )
+                {
+                    raw( String.format( "\\u%04x", (int) c ) );
+                }
+                else if ( c < 0x80 )
+                {
+                    raw( c );
+                }
+                else
+                {
+                    int end = i + 1;
+                    if ( Character.isHighSurrogate( c ) && end < s.length() )
+                    {
+                        end++;
+                    }
+                    byte[] encoded = s.substring( i, end ).getBytes( UTF_8 );
+                    ensure( encoded.length );
+                    System.arraycopy( encoded, 0, bytes, size, encoded.length );
+                    size += encoded.length;
+                    i = end - 1;
+                }
+            }
+            return raw( '"' );
+        }
+
+        public BulkBuffer number( long value )
+        {
+            number.setLength( 0 );
+            number.append( value );
+            return digits();
+        }
+
+        /**
+         * Append a JSON number, or null for NaN and infinities which JSON can't represent.
+         */
+        public BulkBuffer number( double value )
+        {
+            if ( Double.isNaN( value ) || Double.isInfinite( value ) )
+            {
+                return raw( "null" );
+            }
+
+            number.setLength( 0 );
+            number.append( value );
+            return digits();
+        }
+
+        private BulkBuffer digits()
+        {
+            int len = number.length();
+            ensure( len );
+            for ( int i = 0; i < len; i++ )
+            {
+                bytes[size++] = (byte) number.charAt( i );
+            }
+            return this;
+        }
+
+        private void ensure( int extra )
+        {
+            if ( size + extra > bytes.length )
+            {
+                byte[] grown = new byte[Math.max( bytes.length * 2, size + extra )];
+                System.arraycopy( bytes, 0, grown, 0, size );
+                bytes = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.commonjava.o11yphant.metrics.reporter.ElasticsearchBulkSender.BulkBuffer;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Reports all metrics as one Elasticsearch _bulk request per period: an index action line followed by one document
+ * per metric, carrying @timestamp, name, type and the metric values. Tagged metrics ({@link MetricId}) are reported
+ * under their base name, with their labels in a labels object. Rates are per second and durations in
+ * milliseconds, as for the Graphite reporter. The request is handed to an {@link ElasticsearchBulkSender}, which may
+ * be shared between reporters with different filters and periods.
+ */
+public class ElasticsearchReporter
+                extends ScheduledReporter
+{
+    private final ElasticsearchBulkSender sender;
+
+    private final String index;
+
+    private final String prefix;
+
+    private final Clock clock;
+
+    private ElasticsearchReporter( MetricRegistry registry, ElasticsearchBulkSender sender, String index,
+                                   String prefix, MetricFilter filter, Clock clock )
+    {
+        super( registry, "elasticsearch-reporter", filter, TimeUnit.SECONDS, TimeUnit.MILLISECONDS );
+        this.sender = sender;
+        this.index = index;
+        this.prefix = isBlank( prefix ) ? null : prefix;
+        this.clock = clock;
+    }
+
+    public static Builder forRegistry( MetricRegistry registry )
+    {
+        return new Builder( registry );
+    }
+
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public void report( SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                        SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                        SortedMap<String, Timer> timers )
+    {
+        if ( gauges.isEmpty() && counters.isEmpty() && histograms.isEmpty() && meters.isEmpty() && timers.isEmpty() )
+        {
+            return;
+        }
+
+        BulkBuffer buffer = sender.acquire();
+        if ( buffer == null )
+        {
+            return;
+        }
+
+        // the pool only has a few buffers, one lost to a failing metric would eventually stop all reporting
+        boolean queued = false;
+        try
+        {
+            String timestamp = Instant.ofEpochMilli( clock.getTime() ).toString();
+            for ( Map.Entry<String, Gauge> entry : gauges.entrySet() )
+            {
+                Object value = entry.getValue().getValue();
+                if ( value instanceof Number )
+                {
+                    start( buffer, timestamp, entry.getKey(), "gauge" ).raw( ",\"value\":" )
+                                                                        .number( ( (Number) value ).doubleValue() );
+                    end( buffer );
+                }
+                else if ( value instanceof Boolean )
+                {
+                    start( buffer, timestamp, entry.getKey(), "gauge" ).raw( ",\"value\":" )
+                                                                        .number( ( (Boolean) value ) ? 1 : 0 );
+                    end( buffer );
+                }
+            }
+
+            for ( Map.Entry<String, Counter> entry : counters.entrySet() )
+            {
+                start( buffer, timestamp, entry.getKey(), "counter" ).raw( ",\"count\":" )
+                                                                      .number( entry.getValue().getCount() );
+                end( buffer );
+            }
+
+            for ( Map.Entry<String, Histogram> entry : histograms.entrySet() )
+            {
+                Histogram histogram = entry.getValue();
+                start( buffer, timestamp, entry.getKey(), "histogram" ).raw( ",\"count\":" )
+                                                                        .number( histogram.getCount() );
+                snapshot( buffer, histogram.getSnapshot(), 1.0 );
+                end( buffer );
+            }
+
+            for ( Map.Entry<String, Meter> entry : meters.entrySet() )
+            {
+                Meter meter = entry.getValue();
+                start( buffer, timestamp, entry.getKey(), "meter" ).raw( ",\"count\":" ).number( meter.getCount() );
+                rates( buffer, meter );
+                end( buffer );
+            }
+
+            for ( Map.Entry<String, Timer> entry : timers.entrySet() )
+            {
+                Timer timer = entry.getValue();
+                start( buffer, timestamp, entry.getKey(), "timer" ).raw( ",\"count\":" ).number( timer.getCount() );
+                snapshot( buffer, timer.getSnapshot(), convertDuration( 1 ) );
+                rates( buffer, timer );
+                end( buffer );
+            }
+
+            sender.send( buffer );
+            queued = true;
+        }
+        finally
+        {
+            if ( !queued )
+            {
+                sender.release( buffer );
+            }
+        }
+    }
+
+    private BulkBuffer start( BulkBuffer buffer, String timestamp, String name, String type )
+    {
+        MetricId id = name.indexOf( MetricId.SEPARATOR ) < 0 ? null : MetricId.parse( name );
+        String baseName = id == null ? name : id.getName();
+
+        buffer.raw( "{\"index\":{\"_index\":" ).string( index ).raw( "}}\n" );
+        buffer.raw( "{\"@timestamp\":" ).string( timestamp ).raw( ",\"name\":" );
+        if ( prefix == null )
+        {
+            buffer.string( baseName );
+        }
+        else
+        {
+            buffer.string( MetricRegistry.name( prefix, baseName ) );
+        }
+
+        if ( id != null && id.hasLabels() )
+        {
+            buffer.raw( ",\"labels\":{" );
+            for ( int i = 0; i < id.getLabelCount(); i++ )
+            {
+                if ( i > 0 )
+                {
+                    buffer.raw( "," );
+                }
+                buffer.string( id.getLabelName( i ) ).raw( ":" ).string( id.getLabelValue( i ) );
+            }
+            buffer.raw( "}" );
+        }
+        return buffer.raw( ",\"type\":" ).string( type );
+    }
+
+    private void end( BulkBuffer buffer )
+    {
+        buffer.raw( "}\n" );
+    }
+
+    private void snapshot( BulkBuffer buffer, Snapshot snapshot, double factor )
+    {
+        buffer.raw( ",\"min\":" ).number( snapshot.getMin() * factor );
+        buffer.raw( ",\"max\":" ).number( snapshot.getMax() * factor );
+        buffer.raw( ",\"mean\":" ).number( snapshot.getMean() * factor );
+        buffer.raw( ",\"stddev\":" ).number( snapshot.getStdDev() * factor );
+        buffer.raw( ",\"p50\":" ).number( snapshot.getMedian() * factor );
+        buffer.raw( ",\"p75\":" ).number( snapshot.get75thPercentile() * factor );
+        buffer.raw( ",\"p95\":" ).number( snapshot.get95thPercentile() * factor );
+        buffer.raw( ",\"p98\":" ).number( snapshot.get98thPercentile() * factor );
+        buffer.raw( ",\"p99\":" ).number( snapshot.get99thPercentile() * factor );
+        buffer.raw( ",\"p999\":" ).number( snapshot.get999thPercentile() * factor );
+    }
+
+    private void rates( BulkBuffer buffer, Metered metered )
+    {
+        buffer.raw( ",\"m1_rate\":" ).number( convertRate( metered.getOneMinuteRate() ) );
+        buffer.raw( ",\"m5_rate\":" ).number( convertRate( metered.getFiveMinuteRate() ) );
+        buffer.raw( ",\"m15_rate\":" ).number( convertRate( metered.getFifteenMinuteRate() ) );
+        buffer.raw( ",\"mean_rate\":" ).number( convertRate( metered.getMeanRate() ) );
+    }
+
+    public static final class Builder
+    {
+        private final MetricRegistry registry;
+
+        private String index = "metrics";
+
+        private String prefix;
+
+        private MetricFilter filter = MetricFilter.ALL;
+
+        private Clock clock = Clock.defaultClock();
+
+        private Builder( MetricRegistry registry )
+        {
+            this.registry = registry;
+        }
+
+        public Builder index( String index )
+        {
+            this.index = index;
+            return this;
+        }
+
+        public Builder prefixedWith( String prefix )
+        {
+            this.prefix = prefix;
+            return this;
+        }
+
+        public Builder filter( MetricFilter filter )
+        {
+            this.filter = filter;
+            return this;
+        }
+
+        public Builder withClock( Clock clock )
+        {
+            this.clock = clock;
+            return this;
+        }
+
+        public ElasticsearchReporter build( ElasticsearchBulkSender sender )
+        {
+            return new ElasticsearchReporter( registry, sender, index, prefix, filter, clock );
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.graphite.GraphiteReporter;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports groups of metrics to Graphite on their own intervals, from one scheduler thread and over one connection.
+ *
+ * Each metric is assigned to the first group whose filter accepts it when it is registered, so a tick only walks
+ * the metrics of the group that is due instead of filtering the whole registry. Formatting is done by an unstarted
+ * {@link GraphiteReporter}, so the output is the same as that of the per-group reporters this replaces.
+ */
+public class GraphiteGroupReporter
+                implements Closeable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final MetricRegistry registry;
+
+    private final GraphiteReporter formatter;
+
+    private final BackoffGraphiteSender sender;
+
+    private final List<Group> groups;
+
+    private final MetricFilter reportFilter;
+
+    private final Partitioner partitioner = new Partitioner();
+
+    /**
+     * Registry names of tagged metrics by Graphite name, so the report filter sees the same names as other reporters.
+     */
+    private final Map<String, String> registryNames = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private GraphiteGroupReporter( MetricRegistry registry, GraphiteReporter formatter, BackoffGraphiteSender sender,
+                                   List<Group> groups, MetricFilter reportFilter )
+    {
+        this.registry = registry;
+        this.formatter = formatter;
+        this.sender = sender;
+        this.groups = groups;
+        this.reportFilter = reportFilter;
+        registry.addListener( partitioner );
+    }
+
+    public static Builder forRegistry( MetricRegistry registry )
+    {
+        return new Builder( registry );
+    }
+
+    public synchronized void start()
+    {
+        if ( scheduler != null )
+        {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "graphite-reporter" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+        for ( Group group : groups )
+        {
+            scheduler.scheduleAtFixedRate( () -> report( group ), group.period, group.period, group.unit );
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( scheduler != null )
+        {
+            scheduler.shutdown();
+            try
+            {
+                scheduler.awaitTermination( 1, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+        registry.removeListener( partitioner );
+        formatter.stop();
+        sender.shutdown();
+    }
+
+    public List<String> getGroupNames()
+    {
+        List<String> names = new ArrayList<>( groups.size() );
+        groups.forEach( g -> names.add( g.name ) );
+        return names;
+    }
+
+    /**
+     * Report one group now. Used by the scheduler, and by tests.
+     */
+    void report( String groupName )
+    {
+        groups.stream().filter( g -> g.name.equals( groupName ) ).forEach( this::report );
+    }
+
+    private void report( Group group )
+    {
+        try
+        {
+            if ( reportFilter == null )
+            {
+                formatter.report( group.gauges, group.counters, group.histograms, group.meters, group.timers );
+            }
+            else
+            {
+                formatter.report( filter( group.gauges ), filter( group.counters ), filter( group.histograms ),
+                                  filter( group.meters ), filter( group.timers ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            logger.warn( "Failed to report metric group {} to Graphite", group.name, e );
+        }
+    }
+
+    private <T extends com.codahale.metrics.Metric> SortedMap<String, T> filter( SortedMap<String, T> metrics )
+    {
+        SortedMap<String, T> filtered = new TreeMap<>();
+        metrics.forEach( ( name, metric ) -> {
+            if ( reportFilter.matches( registryNames.getOrDefault( name, name ), metric ) )
+            {
+                filtered.put( name, metric );
+            }
+        } );
+        return filtered;
+    }
+
+    /**
+     * Graphite tags would have to follow the suffixes GraphiteReporter appends (.count, .p99...), so the labels of
+     * tagged metrics ({@link MetricId}) are flattened into the path instead: name.value1.value2, in label name order.
+     */
+    static String graphiteName( String name )
+    {
+        if ( name.indexOf( MetricId.SEPARATOR ) < 0 )
+        {
+            return name;
+        }
+
+        MetricId id = MetricId.parse( name );
+        StringBuilder sb = new StringBuilder( id.getName() );
+        for ( int i = 0; i < id.getLabelCount(); i++ )
+        {
+            sb.append( '.' ).append( id.getLabelValue( i ).replace( '.', '_' ).replace( ' ', '_' ) );
+        }
+        return sb.toString();
+    }
+
+    private String graphiteKey( String name, boolean added )
+    {
+        String key = graphiteName( name );
+        if ( !key.equals( name ) )
+        {
+            if ( added )
+            {
+                registryNames.put( key, name );
+            }
+            else
+            {
+                registryNames.remove( key );
+            }
+        }
+        return key;
+    }
+
+    private Group groupOf( String name, com.codahale.metrics.Metric metric )
+    {
+        for ( Group group : groups )
+        {
+            if ( group.filter.matches( name, metric ) )
+            {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static final class Group
+    {
+        private final String name;
+
+        private final MetricFilter filter;
+
+        private final long period;
+
+        private final TimeUnit unit;
+
+        @SuppressWarnings( "rawtypes" )
+        private final ConcurrentSkipListMap<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+        private final ConcurrentSkipListMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+        private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+        private final ConcurrentSkipListMap<String, Meter> meters = new ConcurrentSkipListMap<>();
+
+        private final ConcurrentSkipListMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+        private Group( String name, MetricFilter filter, long period, TimeUnit unit )
+        {
+            this.name = name;
+            this.filter = filter;
+            this.period = period;
+            this.unit = unit;
+        }
+    }
+
+    private final class Partitioner
+                    implements MetricRegistryListener
+    {
+        @Override
+        public void onGaugeAdded( String name, Gauge<?> gauge )
+        {
+            Group group = groupOf( name, gauge );
+            if ( group != null )
+            {
+                group.gauges.put( graphiteKey( name, true ), gauge );
+            }
+        }
+
+        @Override
+        public void onGaugeRemoved( String name )
+        {
+            groups.forEach( g -> g.gauges.remove( graphiteKey( name, false ) ) );
+        }
+
+        @Override
+        public void onCounterAdded( String name, Counter counter )
+        {
+            Group group = groupOf( name, counter );
+            if ( group != null )
+            {
+                group.counters.put( graphiteKey( name, true ), counter );
+            }
+        }
+
+        @Override
+        public void onCounterRemoved( String name )
+        {
+            groups.forEach( g -> g.counters.remove( graphiteKey( name, false ) ) );
+        }
+
+        @Override
+        public void onHistogramAdded( String name, Histogram histogram )
+        {
+            Group group = groupOf( name, histogram );
+            if ( group != null )
+            {
+                group.histograms.put( graphiteKey( name, true ), histogram );
+            }
+        }
+
+        @Override
+        public void onHistogramRemoved( String name )
+        {
+            groups.forEach( g -> g.histograms.remove( graphiteKey( name, false ) ) );
+        }
+
+        @Override
+        public void onMeterAdded( String name, Meter meter )
+        {
+            Group group = groupOf( name, meter );
+            if ( group != null )
+            {
+                group.meters.put( graphiteKey( name, true ), meter );
+            }
+        }
+
+        @Override
+        public void onMeterRemoved( String name )
+        {
+            groups.forEach( g -> g.meters.remove( graphiteKey( name, false ) ) );
+        }
+
+        @Override
+        public void onTimerAdded( String name, Timer timer )
+        {
+            Group group = groupOf( name, timer );
+            if ( group != null )
+            {
+                group.timers.put( graphiteKey( name, true ), timer );
+            }
+        }
+
+        @Override
+        public void onTimerRemoved( String name )
+        {
+            groups.forEach( g -> g.timers.remove( graphiteKey( name, false ) ) );
+        }
+    }
+
+    public static final class Builder
+    {
+        private final MetricRegistry registry;
+
+        private final List<Group> groups = new ArrayList<>();
+
+        private String prefix;
+
+        private TimeUnit rateUnit = TimeUnit.SECONDS;
+
+        private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+
+        private MetricFilter reportFilter;
+
+        private Builder( MetricRegistry registry )
+        {
+            this.registry = registry;
+        }
+
+        public Builder prefixedWith( String prefix )
+        {
+            this.prefix = prefix;
+            return this;
+        }
+
+        public Builder convertRatesTo( TimeUnit rateUnit )
+        {
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        public Builder convertDurationsTo( TimeUnit durationUnit )
+        {
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * Filter applied on every report, after the metrics have been assigned to groups. Unlike the group filters
+         * it is consulted on each tick, e.g. to skip unchanged metrics (see {@link ChangedMetricFilter}).
+         */
+        public Builder reportFilter( MetricFilter reportFilter )
+        {
+            this.reportFilter = reportFilter;
+            return this;
+        }
+
+        /**
+         * Add a group. A metric goes to the first group added whose filter accepts it.
+         */
+        public Builder group( String name, MetricFilter filter, long period, TimeUnit unit )
+        {
+            groups.add( new Group( name, filter, period, unit ) );
+            return this;
+        }
+
+        public GraphiteGroupReporter build( BackoffGraphiteSender sender )
+        {
+            GraphiteReporter formatter = GraphiteReporter.forRegistry( registry )
+                                                         .prefixedWith( prefix )
+                                                         .convertRatesTo( rateUnit )
+                                                         .convertDurationsTo( durationUnit )
+                                                         .build( sender );
+            return new GraphiteGroupReporter( registry, formatter, sender,
+                                              Collections.unmodifiableList( new ArrayList<>( groups ) ), reportFilter );
+        }
+    }
+}
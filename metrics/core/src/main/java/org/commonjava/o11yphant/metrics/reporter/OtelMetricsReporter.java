@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.exporter.otlp.http.metrics.OtlpHttpMetricExporter;
+import io.opentelemetry.exporter.otlp.http.metrics.OtlpHttpMetricExporterBuilder;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporterBuilder;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.AggregationTemporalitySelector;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import io.opentelemetry.sdk.resources.Resource;
+import org.commonjava.o11yphant.metrics.conf.OtelMetricsConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.commonjava.o11yphant.metrics.conf.OtelMetricsConfig.PROTOCOL_HTTP;
+import static org.commonjava.o11yphant.metrics.conf.OtelMetricsConfig.TEMPORALITY_DELTA;
+
+/**
+ * Exports the Codahale registry over OTLP. Every metric is bridged to asynchronous OTel instruments that read it
+ * when the periodic reader collects, so nothing is recorded twice:
+ * <ul>
+ *     <li>meters become counters, counters become up-down counters, numeric gauges become gauges</li>
+ *     <li>histograms and timers become a &lt;name&gt;.count counter, a &lt;name&gt;.mean gauge and a &lt;name&gt;
+ *     gauge with a quantile attribute, all read from one snapshot. Timer values are in seconds.</li>
+ * </ul>
+ * Counter temporality (cumulative or delta) is set on the exporter, and each collection goes out as one batch.
+ * Metrics added to or removed from the registry later are picked up through a registry listener.
+ */
+public class OtelMetricsReporter
+                implements Closeable
+{
+    static final String INSTRUMENTATION_NAME = "org.commonjava.o11yphant.metrics";
+
+    private static final AttributeKey<String> QUANTILE = AttributeKey.stringKey( "quantile" );
+
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.99, 0.999 };
+
+    private static final Attributes[] QUANTILE_ATTRIBUTES = new Attributes[QUANTILES.length];
+
+    static
+    {
+        for ( int i = 0; i < QUANTILES.length; i++ )
+        {
+            QUANTILE_ATTRIBUTES[i] = Attributes.of( QUANTILE, Double.toString( QUANTILES[i] ) );
+        }
+    }
+
+    private static final double SECONDS_FACTOR = 1.0D / TimeUnit.SECONDS.toNanos( 1L );
+
+    private static final int MAX_INSTRUMENT_NAME_LENGTH = 255;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final MetricRegistry registry;
+
+    private final SdkMeterProvider meterProvider;
+
+    private final io.opentelemetry.api.metrics.Meter meter;
+
+    private final Map<String, AutoCloseable> registrations = new ConcurrentHashMap<>();
+
+    private final Listener listener = new Listener();
+
+    public OtelMetricsReporter( MetricRegistry registry, OtelMetricsConfig config )
+    {
+        this( registry, exporter( config ), config.getOtelPeriodInSeconds(), TimeUnit.SECONDS,
+              resource( config.getOtelResources() ) );
+    }
+
+    public OtelMetricsReporter( MetricRegistry registry, MetricExporter exporter, long period, TimeUnit unit,
+                                Resource resource )
+    {
+        this.registry = registry;
+        PeriodicMetricReader reader = PeriodicMetricReader.builder( exporter )
+                                                          .setInterval( period, unit )
+                                                          .build();
+        this.meterProvider = SdkMeterProvider.builder().setResource( resource ).registerMetricReader( reader ).build();
+        this.meter = meterProvider.get( INSTRUMENTATION_NAME );
+    }
+
+    /**
+     * Bridge the metrics already in the registry and start following additions and removals.
+     */
+    public void start()
+    {
+        registry.addListener( listener );
+        logger.info( "Started OTLP metrics reporter" );
+    }
+
+    /**
+     * Collect and export immediately, waiting up to the given timeout.
+     */
+    public boolean flush( long timeout, TimeUnit unit )
+    {
+        return meterProvider.forceFlush().join( timeout, unit ).isSuccess();
+    }
+
+    @Override
+    public void close()
+    {
+        registry.removeListener( listener );
+        registrations.keySet().forEach( this::unregister );
+        meterProvider.close();
+    }
+
+    private static MetricExporter exporter( OtelMetricsConfig config )
+    {
+        AggregationTemporalitySelector temporality = TEMPORALITY_DELTA.equalsIgnoreCase( config.getOtelTemporality() ) ?
+                        AggregationTemporalitySelector.deltaPreferred() :
+                        AggregationTemporalitySelector.alwaysCumulative();
+
+        if ( PROTOCOL_HTTP.equalsIgnoreCase( config.getOtelProtocol() ) )
+        {
+            OtlpHttpMetricExporterBuilder builder = OtlpHttpMetricExporter.builder()
+                                                                          .setEndpoint( config.getOtelEndpoint() )
+                                                                          .setCompression( config.getOtelCompression() )
+                                                                          .setAggregationTemporalitySelector(
+                                                                                          temporality );
+            if ( config.getOtelHeaders() != null )
+            {
+                config.getOtelHeaders().forEach( builder::addHeader );
+            }
+            return builder.build();
+        }
+
+        OtlpGrpcMetricExporterBuilder builder = OtlpGrpcMetricExporter.builder()
+                                                                      .setEndpoint( config.getOtelEndpoint() )
+                                                                      .setCompression( config.getOtelCompression() )
+                                                                      .setAggregationTemporalitySelector( temporality );
+        if ( config.getOtelHeaders() != null )
+        {
+            config.getOtelHeaders().forEach( builder::addHeader );
+        }
+        return builder.build();
+    }
+
+    private static Resource resource( Map<String, String> resources )
+    {
+        if ( resources == null || resources.isEmpty() )
+        {
+            return Resource.getDefault();
+        }
+
+        AttributesBuilder builder = Attributes.builder();
+        resources.forEach( builder::put );
+        return Resource.getDefault().merge( Resource.create( builder.build() ) );
+    }
+
+    /**
+     * OTel instrument names allow letters, digits and _ . - / and must start with a letter.
+     */
+    static String instrumentName( String name )
+    {
+        StringBuilder sb = new StringBuilder( name.length() + 2 );
+        if ( name.isEmpty() || !isLetter( name.charAt( 0 ) ) )
+        {
+            sb.append( "m_" );
+        }
+
+        for ( int i = 0; i < name.length() && sb.length() < MAX_INSTRUMENT_NAME_LENGTH; i++ )
+        {
+            char c = name.charAt( i );
+            boolean valid = isLetter( c ) || ( c >= '0' && c <= '9' ) || c == '_' || c == '.' || c == '-' || c == '/';
+            sb.append( valid ? c : '_' );
+        }
+        return sb.toString();
+    }
+
+    private static boolean isLetter( char c )
+    {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+    }
+
+    private void register( String name, AutoCloseable registration )
+    {
+        AutoCloseable previous = registrations.put( name, registration );
+        if ( previous != null )
+        {
+            close( name, previous );
+        }
+    }
+
+    private void unregister( String name )
+    {
+        AutoCloseable registration = registrations.remove( name );
+        if ( registration != null )
+        {
+            close( name, registration );
+        }
+    }
+
+    private void close( String name, AutoCloseable registration )
+    {
+        try
+        {
+            registration.close();
+        }
+        catch ( Exception e )
+        {
+            logger.debug( "Failed to remove OTel instrument for: {}", name, e );
+        }
+    }
+
+    private void registerSampling( String name, Sampling sampling, Counting counting, double factor, String unit )
+    {
+        String instrument = instrumentName( name );
+        ObservableDoubleMeasurement quantiles = meter.gaugeBuilder( instrument ).setUnit( unit ).buildObserver();
+        ObservableDoubleMeasurement mean = meter.gaugeBuilder( instrument + ".mean" ).setUnit( unit ).buildObserver();
+        ObservableLongMeasurement count = meter.counterBuilder( instrument + ".count" ).buildObserver();
+
+        register( name, meter.batchCallback( () -> {
+            Snapshot snapshot = sampling.getSnapshot();
+            for ( int i = 0; i < QUANTILES.length; i++ )
+            {
+                quantiles.record( snapshot.getValue( QUANTILES[i] ) * factor, QUANTILE_ATTRIBUTES[i] );
+            }
+            mean.record( snapshot.getMean() * factor );
+            count.record( counting.getCount() );
+        }, quantiles, mean, count ) );
+    }
+
+    private final class Listener
+                    extends MetricRegistryListener.Base
+    {
+        @Override
+        public void onGaugeAdded( String name, Gauge<?> gauge )
+        {
+            register( name, meter.gaugeBuilder( instrumentName( name ) ).buildWithCallback( m -> {
+                Object value = gauge.getValue();
+                if ( value instanceof Number )
+                {
+                    m.record( ( (Number) value ).doubleValue() );
+                }
+                else if ( value instanceof Boolean )
+                {
+                    m.record( ( (Boolean) value ) ? 1 : 0 );
+                }
+            } ) );
+        }
+
+        @Override
+        public void onGaugeRemoved( String name )
+        {
+            unregister( name );
+        }
+
+        @Override
+        public void onCounterAdded( String name, Counter counter )
+        {
+            register( name, meter.upDownCounterBuilder( instrumentName( name ) )
+                                 .buildWithCallback( m -> m.record( counter.getCount() ) ) );
+        }
+
+        @Override
+        public void onCounterRemoved( String name )
+        {
+            unregister( name );
+        }
+
+        @Override
+        public void onHistogramAdded( String name, Histogram histogram )
+        {
+            registerSampling( name, histogram, histogram, 1.0, "1" );
+        }
+
+        @Override
+        public void onHistogramRemoved( String name )
+        {
+            unregister( name );
+        }
+
+        @Override
+        public void onMeterAdded( String name, Meter meter )
+        {
+            register( name, OtelMetricsReporter.this.meter.counterBuilder( instrumentName( name ) )
+                                                          .buildWithCallback( m -> m.record( meter.getCount() ) ) );
+        }
+
+        @Override
+        public void onMeterRemoved( String name )
+        {
+            unregister( name );
+        }
+
+        @Override
+        public void onTimerAdded( String name, Timer timer )
+        {
+            registerSampling( name, timer, timer, SECONDS_FACTOR, "s" );
+        }
+
+        @Override
+        public void onTimerRemoved( String name )
+        {
+            unregister( name );
+        }
+    }
+}
@@ -16,24 +16,33 @@
 package org.commonjava.o11yphant.metrics.reporter;
 
 import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.graphite.Graphite;
-import com.codahale.metrics.graphite.GraphiteReporter;
 import org.commonjava.o11yphant.metrics.conf.ConsoleConfig;
+import org.commonjava.o11yphant.metrics.conf.ELKConfig;
 import org.commonjava.o11yphant.metrics.conf.GraphiteConfig;
 import org.commonjava.o11yphant.metrics.conf.MetricsConfig;
+import org.commonjava.o11yphant.metrics.conf.OtelMetricsConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.commonjava.o11yphant.metrics.conf.MetricsConfig.REPORTER_CONSOLE;
+import static org.commonjava.o11yphant.metrics.conf.MetricsConfig.REPORTER_ELK;
 import static org.commonjava.o11yphant.metrics.conf.MetricsConfig.REPORTER_GRAPHITE;
+import static org.commonjava.o11yphant.metrics.conf.MetricsConfig.REPORTER_OTEL;
 
 @ApplicationScoped
 public class ReporterInitializer
@@ -42,6 +51,10 @@ public class ReporterInitializer
 
     private final static String FILTER_JVM = "jvm";
 
+    private final static long GRAPHITE_INITIAL_BACKOFF_SECONDS = 5;
+
+    private final static long GRAPHITE_MAX_BACKOFF_SECONDS = 300;
+
     @Inject
     private MetricsConfig config;
 
@@ -54,8 +67,11 @@ public class ReporterInitializer
 
     private volatile boolean initiated;
 
+    // reporters (and senders) that have to be shut down with the application, in start order
+    private final List<Closeable> closeables = new ArrayList<>();
+
     @PostConstruct
-    public void init()
+    public synchronized void init()
             throws Exception
     {
         if ( initiated )
@@ -74,8 +90,7 @@ public class ReporterInitializer
 
         if ( reporter.contains( REPORTER_GRAPHITE ) )
         {
-            initGraphiteReporterForSimpleMetric( metrics, config.getGraphiteConfig() );
-            initGraphiteReporterForJVMMetric( metrics, config.getGraphiteConfig() );
+            initGraphiteReporter( metrics, config.getGraphiteConfig() );
         }
 
         if ( reporter.contains( REPORTER_CONSOLE ) )
@@ -83,9 +98,37 @@ public class ReporterInitializer
             initConsoleReporter( metrics, config.getConsoleConfig() );
         }
 
+        if ( reporter.contains( REPORTER_ELK ) )
+        {
+            initElasticsearchReporters( metrics, config.getELKConfig() );
+        }
+
+        if ( reporter.contains( REPORTER_OTEL ) )
+        {
+            initOtelReporter( metrics, config.getOtelMetricsConfig() );
+        }
+
         initiated = true;
     }
 
+    @PreDestroy
+    public synchronized void stop()
+    {
+        for ( int i = closeables.size() - 1; i >= 0; i-- )
+        {
+            Closeable closeable = closeables.get( i );
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                logger.warn( "Failed to close metrics reporter: " + closeable, e );
+            }
+        }
+        closeables.clear();
+    }
+
     private boolean isJvmMetric( String name )
     {
         return name.contains( FILTER_JVM );
@@ -97,38 +140,93 @@ public class ReporterInitializer
     }
 
 
+    /**
+     * In changed-only mode, wrap the filter of a reporter so that it skips metrics which didn't change since its
+     * last report. Each reporter gets its own tracking state.
+     */
+    private MetricFilter reportFilter( MetricRegistry metrics, MetricFilter filter )
+    {
+        if ( !config.isReportChangedOnly() )
+        {
+            return filter;
+        }
+        return ChangedMetricFilter.attach( metrics, filter, config.getFullReportPeriodInSeconds(), TimeUnit.SECONDS );
+    }
+
     private void initConsoleReporter( MetricRegistry metrics, ConsoleConfig config )
     {
-        try (ConsoleReporter reporter = ConsoleReporter.forRegistry( metrics ).build())
+        try (ConsoleReporter reporter = ConsoleReporter.forRegistry( metrics )
+                                                       .filter( reportFilter( metrics, MetricFilter.ALL ) )
+                                                       .build())
         {
             reporter.start( config.getConsolePeriodInSeconds(), TimeUnit.SECONDS );
         }
     }
 
-    private void initGraphiteReporterForSimpleMetric( MetricRegistry metrics, GraphiteConfig config )
+    /**
+     * Application and JVM metrics are reported on their own schedules, from one thread and over one connection.
+     */
+    private void initGraphiteReporter( MetricRegistry metrics, GraphiteConfig config )
     {
         final Graphite graphite =
                 new Graphite( new InetSocketAddress( config.getGraphiteHostName(), config.getGraphitePort() ) );
-        final GraphiteReporter reporter = GraphiteReporter.forRegistry( metrics )
-                                                          .prefixedWith( config.getGraphitePrefix() )
-                                                          .convertRatesTo( TimeUnit.SECONDS )
-                                                          .convertDurationsTo( TimeUnit.MILLISECONDS )
-                                                          .filter( ( name, metric ) -> isApplicationMetric( name ) )
-                                                          .build( graphite );
-        reporter.start( config.getGraphitePeriodInSeconds(), TimeUnit.SECONDS );
+        final BackoffGraphiteSender sender =
+                new BackoffGraphiteSender( graphite, GRAPHITE_INITIAL_BACKOFF_SECONDS, GRAPHITE_MAX_BACKOFF_SECONDS,
+                                           TimeUnit.SECONDS );
+        GraphiteGroupReporter.forRegistry( metrics )
+                             .prefixedWith( config.getGraphitePrefix() )
+                             .convertRatesTo( TimeUnit.SECONDS )
+                             .convertDurationsTo( TimeUnit.MILLISECONDS )
+                             .group( FILTER_JVM, ( name, metric ) -> isJvmMetric( name ),
+                                     config.getGraphiteJVMPeriodInSeconds(), TimeUnit.SECONDS )
+                             .group( "application", ( name, metric ) -> isApplicationMetric( name ),
+                                     config.getGraphitePeriodInSeconds(), TimeUnit.SECONDS )
+                             .reportFilter( reportFilter( metrics, null ) )
+                             .build( sender )
+                             .start();
     }
 
-    private void initGraphiteReporterForJVMMetric( MetricRegistry metrics, GraphiteConfig config )
+    /**
+     * Application and JVM metrics are reported on their own schedules, sharing one bulk sender.
+     */
+    private void initElasticsearchReporters( MetricRegistry metrics, ELKConfig config )
     {
-        final Graphite graphite =
-                new Graphite( new InetSocketAddress( config.getGraphiteHostName(), config.getGraphitePort() ) );
-        final GraphiteReporter reporter = GraphiteReporter.forRegistry( metrics )
-                                                          .prefixedWith( config.getGraphitePrefix() )
-                                                          .convertRatesTo( TimeUnit.SECONDS )
-                                                          .convertDurationsTo( TimeUnit.MILLISECONDS )
-                                                          .filter( ( name, metric ) -> isJvmMetric( name ) )
-                                                          .build( graphite );
-        reporter.start( config.getGraphiteJVMPeriodInSeconds(), TimeUnit.SECONDS );
+        final ElasticsearchBulkSender sender = new ElasticsearchBulkSender( config.getElkHosts() );
+        closeables.add( sender );
+
+        startElasticsearchReporter( metrics, config, sender, ( name, metric ) -> isApplicationMetric( name ),
+                                    config.getElkPeriodInSeconds() );
+        startElasticsearchReporter( metrics, config, sender, ( name, metric ) -> isJvmMetric( name ),
+                                    config.getElkJVMPeriodInSeconds() );
+    }
+
+    private void startElasticsearchReporter( MetricRegistry metrics, ELKConfig config, ElasticsearchBulkSender sender,
+                                             MetricFilter filter, long periodInSeconds )
+    {
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry( metrics )
+                                                              .index( config.getElkIndex() )
+                                                              .prefixedWith( config.getElkPrefix() )
+                                                              .filter( reportFilter( metrics, filter ) )
+                                                              .build( sender );
+        reporter.start( periodInSeconds, TimeUnit.SECONDS );
+        closeables.add( reporter );
+    }
+
+    /**
+     * Needs opentelemetry-sdk and opentelemetry-exporter-otlp on the classpath, which are optional dependencies.
+     */
+    private void initOtelReporter( MetricRegistry metrics, OtelMetricsConfig config )
+    {
+        if ( config == null )
+        {
+            logger.warn( "The {} metrics reporter is enabled, but there is no OTel metrics config. Skipping it.",
+                         REPORTER_OTEL );
+            return;
+        }
+
+        OtelMetricsReporter reporter = new OtelMetricsReporter( metrics, config );
+        reporter.start();
+        closeables.add( reporter );
     }
 
 }
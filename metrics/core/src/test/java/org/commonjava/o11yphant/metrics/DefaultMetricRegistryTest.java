@@ -15,18 +15,33 @@
  */
 package org.commonjava.o11yphant.metrics;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import org.commonjava.o11yphant.metrics.api.Gauge;
 import org.commonjava.o11yphant.metrics.api.Metric;
+import org.commonjava.o11yphant.metrics.api.Timer;
+import org.commonjava.o11yphant.metrics.conf.DefaultMetricsConfig;
+import org.commonjava.o11yphant.metrics.impl.HdrSnapshot;
 import org.commonjava.o11yphant.metrics.impl.O11Meter;
 import org.commonjava.o11yphant.metrics.impl.O11Timer;
+import org.commonjava.o11yphant.metrics.impl.StripedMeter;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsFunctionMetrics;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsMetricSet;
 import org.commonjava.o11yphant.metrics.system.SystemGaugesSet;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
 public class DefaultMetricRegistryTest
@@ -87,4 +102,118 @@ public class DefaultMetricRegistryTest
         } );
     }
 
+    @Test
+    public void testHdrHistogramSelection()
+    {
+        DefaultMetricRegistry hdrRegistry =
+                        new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry(),
+                                                   new DefaultMetricsConfig()
+                                                   {
+                                                       @Override
+                                                       public List<String> getHdrHistogramMetrics()
+                                                       {
+                                                           return Arrays.asList( "busy.*", "exact.timer" );
+                                                       }
+                                                   } );
+
+        Timer timer = hdrRegistry.timer( "busy.endpoint.timer" );
+        for ( int i = 1; i <= 1000; i++ )
+        {
+            timer.update( i, TimeUnit.MILLISECONDS );
+        }
+
+        com.codahale.metrics.Snapshot snapshot = hdrRegistry.getRegistry().timer( "busy.endpoint.timer" ).getSnapshot();
+        assertTrue( snapshot instanceof HdrSnapshot );
+        assertEquals( 1000, snapshot.size() );
+        assertEquals( TimeUnit.MILLISECONDS.toNanos( 999 ), snapshot.get999thPercentile(),
+                      TimeUnit.MILLISECONDS.toNanos( 1 ) );
+        assertEquals( TimeUnit.MILLISECONDS.toNanos( 990 ), snapshot.get99thPercentile(),
+                      TimeUnit.MILLISECONDS.toNanos( 1 ) );
+
+        hdrRegistry.timer( "exact.timer" );
+        hdrRegistry.timer( "exact.timer.other" );
+        assertTrue( hdrRegistry.getRegistry().timer( "exact.timer" ).getSnapshot() instanceof HdrSnapshot );
+        assertFalse( hdrRegistry.getRegistry().timer( "exact.timer.other" ).getSnapshot() instanceof HdrSnapshot );
+
+        hdrRegistry.histogram( "busy.histogram" ).update( 5 );
+        assertTrue( hdrRegistry.getRegistry().histogram( "busy.histogram" ).getSnapshot() instanceof HdrSnapshot );
+        hdrRegistry.histogram( "plain.histogram" ).update( 5 );
+        assertFalse( hdrRegistry.getRegistry().histogram( "plain.histogram" ).getSnapshot() instanceof HdrSnapshot );
+    }
+
+    @Test
+    public void testStripedMeter()
+    {
+        DefaultMetricRegistry stripedRegistry =
+                        new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry(),
+                                                   new DefaultMetricsConfig()
+                                                   {
+                                                       @Override
+                                                       public List<String> getStripedMeterMetrics()
+                                                       {
+                                                           return Collections.singletonList( "*" );
+                                                       }
+                                                   } );
+
+        assertTrue( stripedRegistry.meter( "any.meter" ) instanceof StripedMeter );
+        assertTrue( stripedRegistry.getRegistry().meter( "any.meter" ) instanceof StripedMeter.LazyTickingMeter );
+
+        // same traffic into a codahale meter and a striped meter should give the same rates
+        AtomicLong tick = new AtomicLong();
+        Clock clock = new Clock()
+        {
+            @Override
+            public long getTick()
+            {
+                return tick.get();
+            }
+        };
+
+        com.codahale.metrics.Meter codahale = new com.codahale.metrics.Meter( clock );
+        StripedMeter.LazyTickingMeter striped = new StripedMeter.LazyTickingMeter( clock );
+        for ( int i = 0; i < 24; i++ )
+        {
+            // marks in the middle of each 5s interval
+            tick.addAndGet( TimeUnit.MILLISECONDS.toNanos( 2500 ) );
+            codahale.mark( 50 );
+            striped.mark( 50 );
+            tick.addAndGet( TimeUnit.MILLISECONDS.toNanos( 2500 ) );
+            if ( i % 6 == 0 )
+            {
+                // reads in between must not change the outcome
+                striped.getOneMinuteRate();
+            }
+        }
+
+        assertEquals( codahale.getCount(), striped.getCount() );
+        assertEquals( codahale.getOneMinuteRate(), striped.getOneMinuteRate(), 0.01 );
+        assertEquals( codahale.getFiveMinuteRate(), striped.getFiveMinuteRate(), 0.01 );
+        assertEquals( codahale.getFifteenMinuteRate(), striped.getFifteenMinuteRate(), 0.01 );
+        assertEquals( codahale.getMeanRate(), striped.getMeanRate(), 0.01 );
+    }
+
+    @Test
+    public void testDynamicMetricSet()
+    {
+        GoldenSignalsMetricSet golden = new GoldenSignalsMetricSet()
+        {
+            @Override
+            protected Collection<String> getFunctions()
+            {
+                return Collections.singletonList( "content" );
+            }
+
+            @Override
+            protected int getMaxDynamicFunctions()
+            {
+                return 1;
+            }
+        };
+        defaultMetricRegistry.register( "golden", golden );
+        assertEquals( 4, defaultMetricRegistry.getRegistry().getNames().size() );
+
+        golden.function( "promotion" ).ifPresent( GoldenSignalsFunctionMetrics::call );
+        assertTrue( defaultMetricRegistry.getRegistry().getNames().contains( "golden.promotion.throughput" ) );
+        assertEquals( 1, defaultMetricRegistry.getRegistry().meter( "golden.promotion.throughput" ).getCount() );
+    }
 }
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.metrics.api.Timer;
+import org.commonjava.o11yphant.metrics.conf.DefaultMetricsConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.commonjava.o11yphant.metrics.MetricsConstants.DEFAULT;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.EXCEPTION;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.METER;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.TIMER;
+import static org.commonjava.o11yphant.metrics.util.NameUtils.getDefaultName;
+import static org.commonjava.o11yphant.metrics.util.NameUtils.getName;
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
+/**
+ * Compares the string based metric path (build names, look up the registry on every call) with the pre-resolved
+ * {@link MetricHandle} path. Not run as part of the build, start it with {@link #main(String[])}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class DefaultMetricsManagerBenchmark
+{
+    private static final String METHOD = "retrieve";
+
+    private static final String CLASSIFIER = "content.retrieve";
+
+    private DefaultMetricRegistry registry;
+
+    private DefaultMetricsManager manager;
+
+    private String nodePrefix;
+
+    @Setup
+    public void setup()
+    {
+        DefaultMetricsConfig config = new DefaultMetricsConfig()
+        {
+            @Override
+            public String getNodePrefix()
+            {
+                return "node1";
+            }
+        };
+
+        nodePrefix = config.getNodePrefix();
+        registry = new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry() );
+        manager = new DefaultMetricsManager( registry, config );
+    }
+
+    /**
+     * What the interceptor used to do per call: build every name and resolve every metric from the registry.
+     */
+    @Benchmark
+    public long stringPath()
+    {
+        String defaultName = getDefaultName( DefaultMetricsManagerBenchmark.class, METHOD );
+        String timerName = getName( nodePrefix, DEFAULT, defaultName, TIMER );
+        String meterName = getName( nodePrefix, DEFAULT, defaultName, METER );
+        String exceptionName = getName( nodePrefix, DEFAULT, defaultName, EXCEPTION );
+
+        Timer.Context timer = registry.timer( timerName ).time();
+        registry.meter( name( meterName, "starts" ) ).mark();
+        registry.meter( exceptionName );
+        long elapsed = timer.stop();
+        registry.meter( meterName ).mark();
+        return elapsed;
+    }
+
+    @Benchmark
+    public long handlePath()
+    {
+        MetricHandle handle = manager.handle( DefaultMetricsManagerBenchmark.class, METHOD );
+
+        Timer.Context timer = handle.getTimer().time();
+        handle.getStartMeter().mark();
+        handle.getExceptionMeter();
+        long elapsed = timer.stop();
+        handle.getMeter().mark();
+        return elapsed;
+    }
+
+    @Benchmark
+    public long nestedTimers()
+    {
+        manager.startTimer( CLASSIFIER );
+        manager.startTimer( METHOD );
+        return manager.stopTimer( METHOD ) + manager.stopTimer( CLASSIFIER );
+    }
+
+    @Benchmark
+    public void accumulate()
+    {
+        manager.accumulate( CLASSIFIER, 1.5 );
+    }
+
+    @Benchmark
+    public Object wrapWithStandardMetrics()
+    {
+        return manager.wrapWithStandardMetrics( () -> METHOD, () -> CLASSIFIER );
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( DefaultMetricsManagerBenchmark.class.getSimpleName() )
+                                        .build() ).run();
+    }
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.commonjava.o11yphant.metrics.conf.DefaultMetricsConfig;
+import org.commonjava.o11yphant.metrics.api.Timer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_COUNT;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_TIMINGS;
+import static org.commonjava.o11yphant.metrics.RequestContextConstants.TRACE_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DefaultMetricsManagerTest
+{
+    private DefaultMetricRegistry registry;
+
+    private DefaultMetricsManager manager;
+
+    @Before
+    public void setUp()
+    {
+        registry = new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry() );
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public String getNodePrefix()
+            {
+                return "node";
+            }
+        } );
+    }
+
+    @Test
+    public void testHandleNames()
+    {
+        MetricHandle handle = manager.handle( DefaultMetricsManagerTest.class, "run" );
+        assertSame( handle, manager.handle( DefaultMetricsManagerTest.class, "run" ) );
+
+        assertEquals( "DefaultMetricsManagerTest.run", handle.getName() );
+        assertEquals( "node.DefaultMetricsManagerTest.run.timer", handle.getTimerName() );
+        assertEquals( "node.DefaultMetricsManagerTest.run.meter", handle.getMeterName() );
+        assertEquals( "node.DefaultMetricsManagerTest.run.meter.starts", handle.getStartMeterName() );
+        assertEquals( "node.DefaultMetricsManagerTest.run.exception", handle.getExceptionMeterName() );
+
+        handle.getExceptionMeter( IllegalStateException.class ).mark();
+        assertTrue( registry.getRegistry()
+                            .getNames()
+                            .contains( "node.DefaultMetricsManagerTest.run.exception.IllegalStateException" ) );
+    }
+
+    @Test
+    public void testWrapWithStandardMetrics()
+    {
+        try
+        {
+            manager.wrapWithStandardMetrics( () -> {
+                throw new IllegalStateException();
+            }, () -> "test.call" );
+            fail( "exception expected" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+
+        Set<String> names = registry.getRegistry().getNames();
+        assertTrue( names.contains( "node.test.call" ) );
+        assertTrue( names.contains( "node.test.call.starts" ) );
+        assertTrue( names.contains( "node.test.call.timer" ) );
+        assertTrue( names.contains( "test.call.exception" ) );
+        assertTrue( names.contains( "test.call.exception.IllegalStateException" ) );
+        assertEquals( 1, registry.getRegistry().meter( "node.test.call" ).getCount() );
+    }
+
+    @Test
+    public void testNestedTimers()
+    {
+        ThreadContext.getContext( true );
+        manager.startTimer( "outer" );
+        manager.startTimer( "inner" );
+        manager.startTimer( "inner" );
+
+        assertTrue( manager.stopTimer( "inner" ) > 0 );
+        assertTrue( manager.stopTimer( "outer" ) > 0 );
+        assertTrue( manager.stopTimer( "inner" ) > 0 );
+        assertEquals( 0, manager.stopTimer( "inner" ) );
+
+        assertEquals( 2, registry.getRegistry().timer( "inner" ).getCount() );
+        assertEquals( 1, registry.getRegistry().timer( "outer" ).getCount() );
+        ThreadContext.clearContext();
+    }
+
+    @Test
+    public void testStopSingleTimer()
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            Timer.Context timer = manager.startTimer( "single" );
+            assertTrue( manager.stopTimer( "single", timer ) > 0 );
+            assertEquals( 0, manager.stopTimer( "single", timer ) );
+            assertEquals( 1, registry.getRegistry().timer( "single" ).getCount() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testNestedWrapsAroundANamedTimer() throws Exception
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            manager.wrapWithStandardMetrics( () -> {
+                Timer.Context named = manager.startTimer( "named" );
+                manager.wrapWithStandardMetrics( () -> "inner", () -> "test.inner" );
+                assertTrue( named.stop() > 0 );
+                return "outer";
+            }, () -> "test.outer" );
+
+            assertEquals( 1, registry.getRegistry().timer( "node.test.outer.timer" ).getCount() );
+            assertEquals( 1, registry.getRegistry().timer( "node.test.inner.timer" ).getCount() );
+            assertEquals( 1, registry.getRegistry().timer( "named" ).getCount() );
+            assertEquals( 0, manager.stopTimer( "named" ) );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testStaleTimerContextDoesNotStopOtherTimers() throws Exception
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            Timer.Context first = manager.startTimer( "repeat" );
+            assertTrue( first.stop() > 0 );
+
+            Timer.Context second = manager.startTimer( "repeat" );
+            assertEquals( "second stop of a context", 0, first.stop() );
+            first.close();
+
+            assertTrue( second.stop() > 0 );
+            assertEquals( 2, registry.getRegistry().timer( "repeat" ).getCount() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testTimersAreDroppedWithTheContext()
+    {
+        ThreadContext.getContext( true );
+        manager.startTimer( "abandoned" );
+        ThreadContext.clearContext();
+
+        ThreadContext.getContext( true );
+        try
+        {
+            assertEquals( 0, manager.stopTimer( "abandoned" ) );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testCrossThreadTimers() throws Exception
+    {
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public boolean isCrossThreadTimers()
+            {
+                return true;
+            }
+        } );
+
+        ThreadContext ctx = ThreadContext.getContext( true );
+        try
+        {
+            manager.startTimer( "handoff" );
+
+            long[] elapsed = new long[1];
+            Thread t = new Thread( () -> {
+                ThreadContext.setContext( ctx );
+                elapsed[0] = manager.stopTimer( "handoff" );
+                ThreadContext.clearContext();
+            } );
+            t.start();
+            t.join();
+
+            assertTrue( elapsed[0] > 0 );
+            assertEquals( 1, registry.getRegistry().timer( "handoff" ).getCount() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void testAccumulate()
+    {
+        ThreadContext ctx = ThreadContext.getContext( true );
+        try
+        {
+            manager.accumulate( "a", 2.0 );
+            manager.accumulate( "a", 5.0 );
+            manager.accumulate( "b", 1.5 );
+
+            CumulativeTimings timings = CumulativeTimings.get( ctx, false );
+            assertEquals( 2, timings.getCount( "a" ) );
+            assertEquals( 7.0, timings.getTotalMs( "a" ), 0.0 );
+            assertEquals( 5.0, timings.getMaxMs( "a" ), 0.0 );
+
+            Map<String, Double> timingMap = (Map<String, Double>) ctx.get( CUMULATIVE_TIMINGS );
+            Map<String, Integer> countMap = (Map<String, Integer>) ctx.get( CUMULATIVE_COUNT );
+            assertEquals( 2, timingMap.size() );
+            assertEquals( 1.5, timingMap.get( "b" ), 0.0 );
+            assertEquals( Integer.valueOf( 2 ), countMap.get( "a" ) );
+            assertEquals( timingMap, timings.exportTimings() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testResetInvalidatesHandles()
+    {
+        MetricHandle handle = manager.handle( DefaultMetricsManagerTest.class, "run" );
+        handle.getMeter().mark();
+        com.codahale.metrics.Meter before = registry.getRegistry().meter( handle.getMeterName() );
+
+        manager.reset();
+        assertTrue( registry.getRegistry().getNames().isEmpty() );
+
+        handle.getMeter().mark();
+        com.codahale.metrics.Meter after = registry.getRegistry().meter( handle.getMeterName() );
+        assertNotSame( before, after );
+        assertEquals( 1, after.getCount() );
+    }
+
+    @Test
+    public void testEvictedMetricsAreResolvedAgain()
+    {
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public String getNodePrefix()
+            {
+                return "node";
+            }
+
+            @Override
+            public List<String> getEvictableMetrics()
+            {
+                return Collections.singletonList( "node.*" );
+            }
+
+            @Override
+            public int getMaxMetricsPerEvictablePrefix()
+            {
+                return 1;
+            }
+        } );
+        manager.initEviction();
+        try
+        {
+            MetricHandle handle = manager.handle( DefaultMetricsManagerTest.class, "run" );
+            handle.getMeter().mark();
+            handle.getExceptionMeter( IllegalStateException.class ).mark();
+            manager.getEvictor().sweep();
+            assertEquals( 1, registry.getRegistry().getNames().size() );
+
+            handle.getMeter().mark();
+            handle.getExceptionMeter( IllegalStateException.class ).mark();
+            assertEquals( "evicted metrics are registered again", 2, registry.getRegistry().getNames().size() );
+        }
+        finally
+        {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testRunningTimerSurvivesEviction()
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            manager.startTimer( "slow.call" );
+
+            // what the evictor does with an idle metric
+            registry.remove( "slow.call" );
+            manager.evicted( Collections.singleton( "slow.call" ) );
+
+            assertTrue( manager.stopTimer( "slow.call" ) > 0 );
+            assertEquals( 1, registry.getRegistry().timer( "slow.call" ).getCount() );
+            assertEquals( 0, manager.stopTimer( "slow.call" ) );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testMeteringIsDecidedOncePerRequest()
+    {
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public int getMeterRatio()
+            {
+                return 4;
+            }
+        } );
+
+        ThreadContext ctx = ThreadContext.getContext( true );
+        try
+        {
+            // the low 64 bits of these trace ids are far below and above Long.MAX_VALUE / 4
+            ctx.put( TRACE_ID, "4bf92f3577b34da60000000000000001" );
+            assertTrue( manager.isMetered( null ) );
+            assertEquals( 4, SamplingDecision.current().getWeight() );
+
+            ctx.put( TRACE_ID, "4bf92f3577b34da67fffffffffffffff" );
+            assertTrue( "decision is kept for the request", manager.isMetered( null ) );
+
+            ThreadContext.clearContext();
+            ctx = ThreadContext.getContext( true );
+            ctx.put( TRACE_ID, "4bf92f3577b34da67fffffffffffffff" );
+            assertFalse( manager.isMetered( null ) );
+            assertFalse( manager.checkMetered() );
+            assertEquals( "result must not be computed when unmetered", "skipped",
+                          manager.wrapWithStandardMetrics( () -> "skipped", () -> {
+                              throw new IllegalStateException();
+                          } ) );
+
+            assertTrue( manager.isMetered( () -> true ) );
+            assertTrue( manager.checkMetered() );
+            assertEquals( 1, SamplingDecision.current().getWeight() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testSampledCallsAreWeighted()
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            SamplingDecision.set( SamplingDecision.forRatio( 4, "4bf92f3577b34da60000000000000001" ) );
+            manager.wrapWithStandardMetrics( () -> "done", () -> "test.weighted" );
+
+            assertEquals( 4, registry.meter( "node.test.weighted" ).getCount() );
+            assertEquals( 4, registry.meter( "node.test.weighted.starts" ).getCount() );
+            assertEquals( 4, registry.timer( "node.test.weighted.timer" ).getCount() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testOverrideIsAppliedBeforeTheRatio()
+    {
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public int getMeterRatio()
+            {
+                return 4;
+            }
+        } );
+
+        ThreadContext ctx = ThreadContext.getContext( true );
+        try
+        {
+            ctx.put( TRACE_ID, "4bf92f3577b34da60000000000000001" );
+            assertTrue( manager.isMetered( () -> true ) );
+            assertEquals( "forced requests are not scaled by the ratio", 1, SamplingDecision.current().getWeight() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testTimerContextsAreWeighted()
+    {
+        ThreadContext.getContext( true );
+        try
+        {
+            SamplingDecision.set( SamplingDecision.forRatio( 4, "4bf92f3577b34da60000000000000001" ) );
+            manager.startTimer( "weighted.context" ).stop();
+
+            assertEquals( 4, registry.timer( "weighted.context" ).getCount() );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+
+    @Test
+    public void testLabelledExceptionMeters()
+    {
+        manager = new DefaultMetricsManager( registry, new DefaultMetricsConfig()
+        {
+            @Override
+            public String getNodePrefix()
+            {
+                return "node";
+            }
+
+            @Override
+            public boolean isLabelledExceptionMeters()
+            {
+                return true;
+            }
+        } );
+
+        MetricHandle handle = manager.handle( DefaultMetricsManagerTest.class, "labelled" );
+        handle.getExceptionMeter( IllegalStateException.class ).mark();
+        assertTrue( registry.getRegistry()
+                            .getNames()
+                            .contains( "node.DefaultMetricsManagerTest.labelled.exception.by_class;"
+                                                       + "exception=IllegalStateException" ) );
+    }
+}
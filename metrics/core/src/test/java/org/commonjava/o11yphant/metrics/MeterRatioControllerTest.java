@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.Clock;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsFunctionMetrics;
+import org.commonjava.o11yphant.metrics.sli.GoldenSignalsMetricSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeterRatioControllerTest
+{
+    private final ManualClock clock = new ManualClock();
+
+    private final GoldenSignalsMetricSet metricSet = new GoldenSignalsMetricSet()
+    {
+        @Override
+        protected Collection<String> getFunctions()
+        {
+            return Arrays.asList( "hot", "rare" );
+        }
+    };
+
+    @Test
+    public void hotFunctionsAreMeteredLessOften()
+    {
+        MeterRatioController controller = new MeterRatioController( metricSet, 10, 1, 50, clock );
+        controller.update();
+
+        start( "hot", 1000 );
+        start( "rare", 5 );
+        clock.advance( 10 );
+        controller.update();
+
+        assertEquals( 10, controller.getRatio( Collections.singletonList( "hot" ) ) );
+        assertEquals( 1, controller.getRatio( Collections.singletonList( "rare" ) ) );
+        assertEquals( "highest ratio of the request functions", 10,
+                      controller.getRatio( Arrays.asList( "rare", "hot" ) ) );
+        assertEquals( 1, controller.getRatio( null ) );
+
+        start( "hot", 100000 );
+        clock.advance( 10 );
+        controller.update();
+        assertEquals( "capped", 50, controller.getRatio( Collections.singletonList( "hot" ) ) );
+
+        clock.advance( 10 );
+        controller.update();
+        assertEquals( "relaxed when the load is gone", 1, controller.getRatio( Collections.singletonList( "hot" ) ) );
+    }
+
+    @Test
+    public void configuredRatioIsTheMinimum()
+    {
+        MeterRatioController controller = new MeterRatioController( metricSet, 10, 4, 50, clock );
+        controller.update();
+        clock.advance( 10 );
+        controller.update();
+
+        assertEquals( 4, controller.getRatio( Collections.singletonList( "rare" ) ) );
+        assertEquals( 4, controller.getRatio( Collections.singletonList( "unknown" ) ) );
+    }
+
+    private void start( String function, int calls )
+    {
+        GoldenSignalsFunctionMetrics metrics = metricSet.function( function ).orElseThrow( IllegalStateException::new );
+        for ( int i = 0; i < calls; i++ )
+        {
+            metrics.started();
+        }
+    }
+
+    private static final class ManualClock
+                    extends Clock
+    {
+        private long tick;
+
+        void advance( long seconds )
+        {
+            tick += TimeUnit.SECONDS.toNanos( seconds );
+        }
+
+        @Override
+        public long getTick()
+        {
+            return tick;
+        }
+    }
+}
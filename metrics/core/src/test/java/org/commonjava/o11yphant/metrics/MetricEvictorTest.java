@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.metrics.api.Metric;
+import org.commonjava.o11yphant.metrics.api.MetricSet;
+import org.commonjava.o11yphant.metrics.impl.O11Meter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricEvictorTest
+{
+    private final Set<String> notified = new TreeSet<>();
+
+    private long tick;
+
+    private final Clock clock = new Clock()
+    {
+        @Override
+        public long getTick()
+        {
+            return tick;
+        }
+    };
+
+    private DefaultMetricRegistry registry;
+
+    @Before
+    public void setUp()
+    {
+        registry = new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry() );
+    }
+
+    @Test
+    public void evictsIdleSelectedMetrics()
+    {
+        MetricEvictor evictor = new MetricEvictor( registry, Arrays.asList( "app.*", "other.exact" ), 60,
+                                                   TimeUnit.SECONDS, 0, notified::addAll, clock );
+        registry.meter( "app.busy" ).mark();
+        registry.timer( "app.idle" );
+        registry.meter( "other.exact" );
+        registry.meter( "jvm.kept" );
+        registry.gauge( "app.gauge", () -> 1 );
+        assertTrue( evictor.sweep().isEmpty() );
+
+        tick += TimeUnit.SECONDS.toNanos( 59 );
+        registry.meter( "app.busy" ).mark();
+        assertTrue( evictor.sweep().isEmpty() );
+
+        tick += TimeUnit.SECONDS.toNanos( 1 );
+        assertEquals( new TreeSet<>( Arrays.asList( "app.idle", "other.exact" ) ), new TreeSet<>( evictor.sweep() ) );
+        assertEquals( new TreeSet<>( Arrays.asList( "app.busy", "app.gauge", "jvm.kept" ) ),
+                      new TreeSet<>( registry.getRegistry().getNames() ) );
+        assertEquals( new TreeSet<>( Arrays.asList( "app.idle", "other.exact" ) ), notified );
+    }
+
+    @Test
+    public void keepsMetricSetMetrics()
+    {
+        MetricEvictor evictor = new MetricEvictor( registry, Collections.singletonList( "app.*" ), 60,
+                                                   TimeUnit.SECONDS, 0, notified::addAll, clock );
+        registry.register( "app", new MetricSet()
+        {
+            @Override
+            public Map<String, Metric> getMetrics()
+            {
+                return Collections.singletonMap( "signal", new O11Meter() );
+            }
+
+            @Override
+            public void reset()
+            {
+            }
+        } );
+        registry.meter( "app.dynamic" );
+
+        tick += TimeUnit.SECONDS.toNanos( 120 );
+        evictor.sweep();
+        tick += TimeUnit.SECONDS.toNanos( 120 );
+
+        assertEquals( Collections.singleton( "app.dynamic" ), evictor.sweep() );
+        assertEquals( Collections.singleton( "app.signal" ), registry.getRegistry().getNames() );
+    }
+
+    @Test
+    public void capsEachPrefixByRecency()
+    {
+        MetricEvictor evictor =
+                        new MetricEvictor( registry, Arrays.asList( "a.*", "b.*" ), 0, TimeUnit.SECONDS, 2,
+                                           notified::addAll, clock );
+        registry.meter( "a.1" ).mark();
+        registry.meter( "a.2" ).mark();
+        registry.meter( "b.1" ).mark();
+        evictor.sweep();
+
+        tick += 1000;
+        registry.meter( "a.1" ).mark();
+        registry.meter( "a.3" ).mark();
+        registry.meter( "b.2" ).mark();
+
+        assertEquals( Collections.singleton( "a.2" ), evictor.sweep() );
+        assertEquals( new TreeSet<>( Arrays.asList( "a.1", "a.3", "b.1", "b.2" ) ),
+                      new TreeSet<>( registry.getRegistry().getNames() ) );
+    }
+
+    @Test
+    public void forgetsRecreatedMetrics()
+    {
+        MetricEvictor evictor = new MetricEvictor( registry, Collections.singletonList( "*" ), 10, TimeUnit.SECONDS, 0,
+                                                   null, clock );
+        registry.meter( "m" ).mark();
+        evictor.sweep();
+        tick += TimeUnit.SECONDS.toNanos( 10 );
+        assertEquals( Collections.singleton( "m" ), evictor.sweep() );
+
+        registry.meter( "m" ).mark();
+        assertTrue( "recreated metric starts a new idle period", evictor.sweep().isEmpty() );
+    }
+}
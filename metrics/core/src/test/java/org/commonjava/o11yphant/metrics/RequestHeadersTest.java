@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestHeadersTest
+{
+    private final List<String> calls = new ArrayList<>();
+
+    private final HttpServletRequest request = request( "Accept", "application/json", "X-Forwarded-For", "10.0.0.1",
+                                                        "User-Agent", "curl" );
+
+    @Test
+    public void lookupsDoNotEnumerateHeaders()
+    {
+        Map<String, String> headers = new RequestHeaders( request, null );
+        assertEquals( "curl", headers.get( "user-agent" ) );
+        assertTrue( headers.containsKey( "Accept" ) );
+        assertNull( headers.get( "missing" ) );
+        assertFalse( calls.contains( "getHeaderNames" ) );
+
+        Map<String, String> all = new LinkedHashMap<>( headers );
+        assertEquals( Arrays.asList( "Accept", "X-Forwarded-For", "User-Agent" ), new ArrayList<>( all.keySet() ) );
+        assertTrue( calls.contains( "getHeaderNames" ) );
+    }
+
+    @Test
+    public void onlyRequiredHeadersAreVisible()
+    {
+        Map<String, String> headers = new RequestHeaders( request, Collections.singleton( "user-agent" ) );
+        assertEquals( "curl", headers.get( "User-Agent" ) );
+        assertNull( headers.get( "Accept" ) );
+        assertEquals( Collections.singletonMap( "user-agent", "curl" ), new TreeMap<>( headers ) );
+        assertFalse( calls.contains( "getHeaderNames" ) );
+    }
+
+    private HttpServletRequest request( String... headers )
+    {
+        Map<String, String> map = new TreeMap<>( String.CASE_INSENSITIVE_ORDER );
+        List<String> names = new ArrayList<>();
+        for ( int i = 0; i < headers.length; i += 2 )
+        {
+            map.put( headers[i], headers[i + 1] );
+            names.add( headers[i] );
+        }
+
+        return (HttpServletRequest) Proxy.newProxyInstance( getClass().getClassLoader(),
+                                                            new Class<?>[] { HttpServletRequest.class },
+                                                            ( proxy, method, args ) -> {
+                                                                calls.add( method.getName() );
+                                                                switch ( method.getName() )
+                                                                {
+                                                                    case "getHeader":
+                                                                        return map.get( (String) args[0] );
+                                                                    case "getHeaderNames":
+                                                                        return Collections.enumeration( names );
+                                                                    default:
+                                                                        throw new UnsupportedOperationException(
+                                                                                        method.getName() );
+                                                                }
+                                                            } );
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.interceptor;
+
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.commonjava.o11yphant.metrics.DefaultMetricRegistry;
+import org.commonjava.o11yphant.metrics.DefaultMetricsManager;
+import org.commonjava.o11yphant.metrics.MetricHandle;
+import org.commonjava.o11yphant.metrics.annotation.Measure;
+import org.commonjava.o11yphant.metrics.conf.DefaultMetricsConfig;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class InterceptionPlanTest
+{
+    @Test
+    public void planIsResolvedOncePerMethod()
+            throws Exception
+    {
+        InterceptionPlan plan = InterceptionPlan.of( Measured.class.getMethod( "run" ) );
+        assertSame( plan, InterceptionPlan.of( Measured.class.getMethod( "run" ) ) );
+        assertEquals( "Measured.run", plan.getName() );
+        assertNotNull( "annotation of the class", plan.getMeasure() );
+
+        assertNull( InterceptionPlan.of( InterceptionPlanTest.class.getMethod( "planIsResolvedOncePerMethod" ) )
+                                    .getMeasure() );
+
+        Object config = new Object();
+        AtomicInteger lookups = new AtomicInteger();
+        assertEquals( 5, plan.getSampleRate( config, name -> 5 + lookups.getAndIncrement() ) );
+        assertEquals( 5, plan.getSampleRate( config, name -> 5 + lookups.getAndIncrement() ) );
+        assertEquals( 1, lookups.get() );
+    }
+
+    @Test
+    public void sampleRateIsCachedPerConfig()
+            throws Exception
+    {
+        InterceptionPlan plan = InterceptionPlan.of( Measured.class.getMethod( "call" ) );
+        assertEquals( 1, plan.getSampleRate( new Object(), name -> 1 ) );
+        assertEquals( 0, plan.getSampleRate( new Object(), name -> 0 ) );
+    }
+
+    @Test
+    public void handleIsCachedPerManager()
+            throws Exception
+    {
+        InterceptionPlan plan = InterceptionPlan.of( Measured.class.getMethod( "call" ) );
+        DefaultMetricsManager manager = newManager();
+
+        MetricHandle handle = plan.getHandle( manager );
+        assertSame( handle, plan.getHandle( manager ) );
+        assertEquals( "Measured.call", handle.getName() );
+        assertNotSame( handle, plan.getHandle( newManager() ) );
+    }
+
+    private static DefaultMetricsManager newManager()
+    {
+        return new DefaultMetricsManager(
+                        new DefaultMetricRegistry( new com.codahale.metrics.MetricRegistry(), new HealthCheckRegistry() ),
+                        new DefaultMetricsConfig() );
+    }
+
+    @Measure
+    public static class Measured
+    {
+        public void run()
+        {
+        }
+
+        public void call()
+        {
+        }
+    }
+}
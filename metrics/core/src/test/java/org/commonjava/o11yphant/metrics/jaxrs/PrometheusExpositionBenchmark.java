@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.commonjava.o11yphant.metrics.conf.PrometheusConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a scrape through {@link PromEnhancedStatsAndTimingExports} and {@link TextFormat} with the
+ * {@link PrometheusStreamingWriter}. Each metric group is a timer, a meter, a counter and a gauge, so 1000 groups
+ * come to roughly 15k series. Run with the gc profiler (-prof gc) to see the allocation per scrape. Not run as part
+ * of the build, start it with {@link #main(String[])}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class PrometheusExpositionBenchmark
+{
+    @Param( { "1000" } )
+    private int groups;
+
+    private PromEnhancedStatsAndTimingExports exports;
+
+    private PrometheusStreamingWriter streamingWriter;
+
+    private final CountingWriter writer = new CountingWriter();
+
+    @Setup
+    public void setup()
+    {
+        PrometheusConfig config = new PrometheusConfig();
+        config.setExpressedMetrics( Collections.singletonList( "app" ) );
+        config.setNodeLabel( "node1" );
+
+        MetricRegistry registry = new MetricRegistry();
+        for ( int i = 0; i < groups; i++ )
+        {
+            Timer timer = registry.timer( "app.function" + i + ".timer" );
+            for ( int j = 0; j < 100; j++ )
+            {
+                timer.update( j, TimeUnit.MILLISECONDS );
+            }
+            registry.meter( "app.function" + i + ".meter" ).mark( i );
+            registry.counter( "app.function" + i + ".count" ).inc( i );
+            final int value = i;
+            registry.gauge( "app.function" + i + ".gauge", () -> () -> value );
+        }
+
+        exports = new PromEnhancedStatsAndTimingExports( registry, config );
+        streamingWriter = new PrometheusStreamingWriter( registry, config );
+    }
+
+    @Benchmark
+    public long collectAndFormat()
+            throws IOException
+    {
+        writer.count = 0;
+        TextFormat.write004( writer, Collections.enumeration( exports.collect() ) );
+        return writer.count;
+    }
+
+    @Benchmark
+    public long streaming()
+            throws IOException
+    {
+        writer.count = 0;
+        streamingWriter.write( writer, false );
+        return writer.count;
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( PrometheusExpositionBenchmark.class.getSimpleName() )
+                                        .build() ).run();
+    }
+
+    /**
+     * Stands in for the servlet output without keeping the text around.
+     */
+    private static final class CountingWriter
+            extends Writer
+    {
+        private long count;
+
+        @Override
+        public void write( char[] cbuf, int off, int len )
+        {
+            count += len;
+        }
+
+        @Override
+        public void write( String str, int off, int len )
+        {
+            count += len;
+        }
+
+        @Override
+        public void write( int c )
+        {
+            count++;
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
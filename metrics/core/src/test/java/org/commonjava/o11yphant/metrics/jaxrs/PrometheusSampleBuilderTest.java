@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PrometheusSampleBuilderTest
+{
+    private final PrometheusSampleBuilder builder = new PrometheusSampleBuilder( "node1", "host1" );
+
+    @Test
+    public void addsNodeAndHostnameLabels()
+    {
+        Sample sample = builder.createSample( "app.retrieve-timer", "_rate", singletonList( "mins" ),
+                                              singletonList( "1" ), 2.5 );
+        assertEquals( "app_retrieve_timer_rate", sample.name );
+        assertEquals( Arrays.asList( "mins", "node", "hostname" ), sample.labelNames );
+        assertEquals( Arrays.asList( "1", "node1", "host1" ), sample.labelValues );
+        assertEquals( 2.5, sample.value, 0 );
+
+        sample = new PrometheusSampleBuilder( "", null ).createSample( "app.count", null, null, null, 1 );
+        assertEquals( "app_count", sample.name );
+        assertEquals( Collections.emptyList(), sample.labelNames );
+    }
+
+    @Test
+    public void reusesLabelsOfTheSameShape()
+    {
+        Sample p75 = builder.createSample( "app.timer", "", singletonList( "quantile" ), singletonList( "0.75" ), 1 );
+        Sample p99 = builder.createSample( "app.timer", "", singletonList( "quantile" ), singletonList( "0.99" ), 2 );
+        Sample again = builder.createSample( "app.timer", "", singletonList( "quantile" ), singletonList( "0.75" ), 3 );
+
+        assertSame( p75.labelValues, again.labelValues );
+        assertSame( p75.labelNames, again.labelNames );
+        assertNotSame( p75.labelValues, p99.labelValues );
+        assertEquals( "0.99", p99.labelValues.get( 0 ) );
+        assertEquals( 1, builder.getCachedMetricCount() );
+    }
+
+    @Test
+    public void taggedMetricLabels()
+    {
+        Sample sample = builder.createSample( MetricId.of( "app.errors", "exception", "IOException" ).getEncoded(),
+                                              "_total", null, null, 3 );
+        assertEquals( "app_errors_total", sample.name );
+        assertEquals( Arrays.asList( "exception", "node", "hostname" ), sample.labelNames );
+        assertEquals( Arrays.asList( "IOException", "node1", "host1" ), sample.labelValues );
+    }
+}
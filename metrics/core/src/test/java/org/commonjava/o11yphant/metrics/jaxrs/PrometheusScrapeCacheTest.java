@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrometheusScrapeCacheTest
+{
+    @Test
+    public void concurrentScrapesShareOneCollection()
+            throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        CountingCollector collector = new CountingCollector( release );
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register( collector );
+
+        PrometheusScrapeCache cache = new PrometheusScrapeCache( registry, null, 1, TimeUnit.MINUTES, false );
+
+        int scrapers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool( scrapers );
+        try
+        {
+            List<Future<PrometheusScrapeCache.Snapshot>> futures = new ArrayList<>();
+            for ( int i = 0; i < scrapers; i++ )
+            {
+                futures.add( executor.submit( () -> cache.get( TextFormat.CONTENT_TYPE_004 ) ) );
+            }
+
+            // let the scrapers pile up behind the first collection
+            Thread.sleep( 200 );
+            release.countDown();
+
+            PrometheusScrapeCache.Snapshot first = futures.get( 0 ).get( 10, TimeUnit.SECONDS );
+            for ( Future<PrometheusScrapeCache.Snapshot> future : futures )
+            {
+                assertSame( first, future.get( 10, TimeUnit.SECONDS ) );
+            }
+
+            assertEquals( 1, collector.collections.get() );
+            assertTrue( new String( first.getBody(), UTF_8 ).contains( "scrape_test_value 1.0\n" ) );
+            assertNull( first.getGzipBody() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void staleSnapshotIsRenderedAgain()
+            throws Exception
+    {
+        CountingCollector collector = new CountingCollector( null );
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register( collector );
+
+        PrometheusScrapeCache cache = new PrometheusScrapeCache( registry, null, 50, TimeUnit.MILLISECONDS, true );
+        PrometheusScrapeCache.Snapshot first = cache.get( TextFormat.CONTENT_TYPE_004 );
+        assertSame( first, cache.get( TextFormat.CONTENT_TYPE_004 ) );
+
+        Thread.sleep( 100 );
+        PrometheusScrapeCache.Snapshot second = cache.get( TextFormat.CONTENT_TYPE_004 );
+        assertEquals( 2, collector.collections.get() );
+        assertTrue( new String( second.getBody(), UTF_8 ).contains( "scrape_test_value 2.0\n" ) );
+        assertArrayEquals( second.getBody(), gunzip( second.getGzipBody() ) );
+
+        PrometheusScrapeCache.Snapshot openMetrics = cache.get( TextFormat.CONTENT_TYPE_OPENMETRICS_100 );
+        assertEquals( TextFormat.CONTENT_TYPE_OPENMETRICS_100, openMetrics.getContentType() );
+        assertTrue( new String( openMetrics.getBody(), UTF_8 ).endsWith( "# EOF\n" ) );
+    }
+
+    @Test
+    public void snapshotExpiresWhileBackgroundRefreshFails()
+            throws Exception
+    {
+        CountingCollector collector = new CountingCollector( null );
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register( collector );
+
+        PrometheusScrapeCache cache = new PrometheusScrapeCache( registry, null, 100, TimeUnit.MILLISECONDS, false );
+        PrometheusScrapeCache.Snapshot first = cache.get( TextFormat.CONTENT_TYPE_004 );
+
+        collector.failing = true;
+        cache.start();
+        try
+        {
+            assertSame( "failed refreshes keep the last snapshot for a while", first,
+                        cache.get( TextFormat.CONTENT_TYPE_004 ) );
+
+            Thread.sleep( 100 * ( PrometheusScrapeCache.MAX_MISSED_REFRESHES + 2 ) );
+            try
+            {
+                cache.get( TextFormat.CONTENT_TYPE_004 );
+                fail( "Expired snapshot was served" );
+            }
+            catch ( IllegalStateException e )
+            {
+                // expected: the scrape renders on its own and reports the failure
+            }
+
+            collector.failing = false;
+            assertTrue( new String( cache.get( TextFormat.CONTENT_TYPE_004 ).getBody(), UTF_8 ).contains(
+                            "scrape_test_value" ) );
+        }
+        finally
+        {
+            cache.stop();
+        }
+    }
+
+    private static byte[] gunzip( byte[] compressed )
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) ))
+        {
+            byte[] buf = new byte[4096];
+            int read;
+            while ( ( read = in.read( buf ) ) > 0 )
+            {
+                out.write( buf, 0, read );
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static final class CountingCollector
+            extends Collector
+    {
+        private final AtomicInteger collections = new AtomicInteger();
+
+        private final CountDownLatch release;
+
+        private volatile boolean failing;
+
+        CountingCollector( CountDownLatch release )
+        {
+            this.release = release;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect()
+        {
+            if ( release != null )
+            {
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if ( failing )
+            {
+                throw new IllegalStateException( "Collection failed" );
+            }
+
+            double value = collections.incrementAndGet();
+            MetricFamilySamples.Sample sample =
+                    new MetricFamilySamples.Sample( "scrape_test_value", Collections.emptyList(),
+                                                    Collections.emptyList(), value );
+            return Collections.singletonList( new MetricFamilySamples( "scrape_test_value", Type.GAUGE, "test",
+                                                                       Collections.singletonList( sample ) ) );
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.jaxrs;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.commonjava.o11yphant.metrics.conf.PrometheusConfig;
+import org.commonjava.o11yphant.metrics.impl.HdrHistogramReservoir;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusStreamingWriterTest
+{
+    private final FixedClock clock = new FixedClock();
+
+    private MetricRegistry registry;
+
+    private PrometheusConfig config;
+
+    @Before
+    public void setUp()
+    {
+        config = new PrometheusConfig();
+        config.setExpressedMetrics( Arrays.asList( "app", "jvm" ) );
+        config.setNodeLabel( "node-\"1\"" );
+
+        registry = new MetricRegistry();
+        registry.counter( "app.requests.count" ).inc( 42 );
+        registry.register( "app.queue.size", (Gauge<Integer>) () -> 7 );
+        registry.register( "app.healthy", (Gauge<Boolean>) () -> true );
+        registry.register( "app.label", (Gauge<String>) () -> "not a number" );
+        registry.register( "app.infinite", (Gauge<Double>) () -> Double.POSITIVE_INFINITY );
+        registry.register( "other.ignored", (Gauge<Integer>) () -> 1 );
+
+        Histogram sizes = registry.register( "app.response.size",
+                                             new Histogram( new ExponentiallyDecayingReservoir( 1028, 0.015, clock ) ) );
+        Histogram hdrSizes = registry.register( "app.response.hdr-size", new Histogram( new HdrHistogramReservoir() ) );
+        Timer timer = registry.register( "app.retrieve.timer",
+                                         new Timer( new ExponentiallyDecayingReservoir( 1028, 0.015, clock ), clock ) );
+        Meter meter = registry.register( "app.retrieve.meter", new Meter( clock ) );
+        Meter emptyMeter = registry.register( "jvm.gc.meter", new Meter( clock ) );
+        Timer getTimer = registry.register( MetricId.of( "app.call.timer", "function", "get" ).getEncoded(),
+                                            new Timer( new ExponentiallyDecayingReservoir( 1028, 0.015, clock ),
+                                                       clock ) );
+        registry.register( MetricId.of( "app.errors", "exception", "IOException" ).getEncoded(), new Meter( clock ) )
+                .mark( 2 );
+        registry.register( MetricId.of( "app.errors", "exception", "Timeout", "cause", "a\"b" ).getEncoded(),
+                           new Meter( clock ) ).mark();
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            sizes.update( i * 10 );
+            hdrSizes.update( i * 10 );
+            timer.update( i, TimeUnit.MILLISECONDS );
+            getTimer.update( i * 2, TimeUnit.MILLISECONDS );
+            meter.mark();
+        }
+        clock.tick = TimeUnit.SECONDS.toNanos( 3 );
+    }
+
+    @Test
+    public void sameOutputAsCollector()
+            throws IOException
+    {
+        PromEnhancedStatsAndTimingExports exports = new PromEnhancedStatsAndTimingExports( registry, config );
+        StringWriter expected = new StringWriter();
+        TextFormat.write004( expected, Collections.enumeration( exports.collect() ) );
+
+        assertEquals( families( expected.toString(), "# HELP " ), families( stream( false ), "# HELP " ) );
+        assertTrue( stream( false ).contains( "app_response_hdr_size{quantile=\"0.999\"" ) );
+        assertFalse( stream( false ).contains( "other_ignored" ) );
+        assertFalse( stream( false ).contains( "app_label" ) );
+    }
+
+    @Test
+    public void taggedMetricsHaveLabels()
+            throws IOException
+    {
+        String output = stream( false );
+        assertTrue( output.contains( "# TYPE app_errors_total counter\n" ) );
+        assertTrue( output.contains( "app_errors_total{exception=\"IOException\",node=" ) );
+        assertTrue( output.contains( "app_errors_total{cause=\"a\\\"b\",exception=\"Timeout\",node=" ) );
+        assertTrue( output.contains( "app_call_timer{quantile=\"0.99\",function=\"get\",node=" ) );
+        assertTrue( output.contains( "app_call_timer_count{function=\"get\",node=" ) );
+    }
+
+    @Test
+    public void sameOpenMetricsOutputAsCollector()
+            throws IOException
+    {
+        PromEnhancedStatsAndTimingExports exports = new PromEnhancedStatsAndTimingExports( registry, config );
+        StringWriter expected = new StringWriter();
+        TextFormat.writeOpenMetrics100( expected, Collections.enumeration( exports.collect() ) );
+        assertTrue( expected.toString().endsWith( "# EOF\n" ) );
+
+        String streamed = stream( true );
+        String collected = expected.toString().replace( "# EOF\n", "" );
+        assertEquals( families( collected, "# TYPE " ), families( streamed, "# TYPE " ) );
+        assertTrue( streamed.contains( "# TYPE app_retrieve_meter counter\n" ) );
+        assertTrue( streamed.contains( "app_retrieve_meter_total{node=\"node-\\\"1\\\"\"" ) );
+    }
+
+    @Test
+    public void layoutFollowsRegistryAndExpressions()
+            throws IOException
+    {
+        PrometheusStreamingWriter writer = new PrometheusStreamingWriter( registry, config );
+        assertFalse( write( writer ).contains( "app_late" ) );
+
+        registry.counter( "app.late" ).inc();
+        assertTrue( write( writer ).contains( "app_late{node=\"node-\\\"1\\\"\",} 1.0\n" ) );
+
+        registry.remove( "app.late" );
+        assertFalse( write( writer ).contains( "app_late" ) );
+
+        config.setExpressedMetrics( Collections.singletonList( "other" ) );
+        String output = write( writer );
+        assertTrue( output.contains( "other_ignored" ) );
+        assertFalse( output.contains( "app_" ) );
+    }
+
+    private String stream( boolean openMetrics )
+            throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        new PrometheusStreamingWriter( registry, config ).write( writer, openMetrics );
+        return writer.toString();
+    }
+
+    private static String write( PrometheusStreamingWriter writer )
+            throws IOException
+    {
+        StringWriter out = new StringWriter();
+        writer.write( out, false );
+        return out.toString();
+    }
+
+    /**
+     * The collector returns families in hash order, so compare family blocks regardless of their order.
+     */
+    private static Set<String> families( String output, String headerStart )
+    {
+        Set<String> families = new HashSet<>();
+        StringBuilder current = new StringBuilder();
+        for ( String line : output.split( "\n" ) )
+        {
+            if ( line.startsWith( headerStart ) && current.length() > 0 )
+            {
+                families.add( current.toString() );
+                current.setLength( 0 );
+            }
+            current.append( line ).append( '\n' );
+        }
+        families.add( current.toString() );
+        return families;
+    }
+
+    private static final class FixedClock
+            extends Clock
+    {
+        private volatile long tick = 0;
+
+        @Override
+        public long getTick()
+        {
+            return tick;
+        }
+    }
+}
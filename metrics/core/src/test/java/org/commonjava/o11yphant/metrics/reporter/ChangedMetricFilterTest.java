@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangedMetricFilterTest
+{
+    private final MetricRegistry registry = new MetricRegistry();
+
+    private long tick;
+
+    private ChangedMetricFilter filter;
+
+    @Before
+    public void setUp()
+    {
+        Clock clock = new Clock()
+        {
+            @Override
+            public long getTick()
+            {
+                return tick;
+            }
+        };
+        filter = ChangedMetricFilter.attach( registry, ( name, metric ) -> !name.startsWith( "skip" ), 10,
+                                             TimeUnit.SECONDS, clock );
+    }
+
+    @Test
+    public void onlyAcceptsChangedMetrics()
+    {
+        registry.meter( "calls" ).mark();
+        registry.timer( "idle" ).update( 1, TimeUnit.MILLISECONDS );
+
+        assertEquals( 2, report() );
+        assertEquals( 0, report() );
+
+        registry.meter( "calls" ).mark();
+        assertEquals( "calls", String.join( ",", registry.getMeters( filter ).keySet() ) );
+        assertTrue( registry.getTimers( filter ).isEmpty() );
+    }
+
+    @Test
+    public void resendsUnchangedMetricsAfterFullRefreshPeriod()
+    {
+        registry.counter( "idle" ).inc();
+        assertTrue( filter.matches( "idle", registry.counter( "idle" ) ) );
+
+        tick += TimeUnit.SECONDS.toNanos( 9 );
+        assertFalse( filter.matches( "idle", registry.counter( "idle" ) ) );
+
+        tick += TimeUnit.SECONDS.toNanos( 1 );
+        assertTrue( filter.matches( "idle", registry.counter( "idle" ) ) );
+        assertFalse( filter.matches( "idle", registry.counter( "idle" ) ) );
+    }
+
+    @Test
+    public void alwaysAcceptsGaugesAndAppliesDelegate()
+    {
+        registry.register( "threads", (Gauge<Integer>) () -> 1 );
+        registry.counter( "skip.me" );
+
+        assertEquals( 1, report() );
+        assertEquals( 1, report() );
+        assertEquals( "rejected metrics are not tracked", 0, filter.getTrackedCount() );
+    }
+
+    /**
+     * Query the registry like a ScheduledReporter does, returning the number of accepted metrics.
+     */
+    private int report()
+    {
+        return registry.getGauges( filter ).size() + registry.getCounters( filter ).size() + registry.getHistograms(
+                        filter ).size() + registry.getMeters( filter ).size() + registry.getTimers( filter ).size();
+    }
+
+    @Test
+    public void forgetsRemovedMetrics()
+    {
+        registry.counter( "gone" ).inc();
+        report();
+        assertEquals( 1, filter.getTrackedCount() );
+
+        registry.removeMatching( MetricFilter.ALL );
+        assertEquals( 0, filter.getTrackedCount() );
+
+        registry.counter( "gone" ).inc();
+        assertEquals( 1, report() );
+    }
+}
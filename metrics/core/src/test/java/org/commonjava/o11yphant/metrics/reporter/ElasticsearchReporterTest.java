@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpServer;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ElasticsearchReporterTest
+{
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+    private volatile CountDownLatch blocked = new CountDownLatch( 0 );
+
+    private HttpServer elasticsearch;
+
+    private ElasticsearchBulkSender sender;
+
+    private MetricRegistry registry;
+
+    @Before
+    public void setUp()
+            throws IOException
+    {
+        elasticsearch = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        elasticsearch.createContext( "/_bulk", exchange -> {
+            try
+            {
+                blocked.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            requests.add( exchange.getRequestURI().getPath() + " " + exchange.getRequestHeaders()
+                                                                             .getFirst( "Content-Type" ) + "\n"
+                                  + readAll( exchange.getRequestBody() ) );
+            byte[] response = "{\"took\":1,\"errors\":false,\"items\":[]}".getBytes( UTF_8 );
+            exchange.sendResponseHeaders( 200, response.length );
+            exchange.getResponseBody().write( response );
+            exchange.close();
+        } );
+        elasticsearch.start();
+
+        registry = new MetricRegistry();
+    }
+
+    @After
+    public void tearDown()
+    {
+        blocked.countDown();
+        if ( sender != null )
+        {
+            sender.close();
+        }
+        elasticsearch.stop( 0 );
+    }
+
+    @Test
+    public void failedReportReleasesItsBuffer()
+            throws Exception
+    {
+        sender = new ElasticsearchBulkSender( "localhost:" + elasticsearch.getAddress().getPort() );
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry( registry ).index( "o11y-metrics" ).build(
+                        sender );
+
+        registry.register( "app.broken", (Gauge<Double>) () -> {
+            throw new IllegalStateException( "broken gauge" );
+        } );
+
+        for ( int i = 0; i < ElasticsearchBulkSender.DEFAULT_QUEUE_CAPACITY + 3; i++ )
+        {
+            try
+            {
+                reporter.report();
+                fail( "Broken gauge was reported" );
+            }
+            catch ( IllegalStateException e )
+            {
+                // expected
+            }
+        }
+
+        assertEquals( "no buffer may be lost", 0, sender.getDropped() );
+        assertNotNull( sender.acquire() );
+    }
+
+    @Test
+    public void reportsAllMetricsInOneBulkRequest()
+            throws Exception
+    {
+        sender = new ElasticsearchBulkSender( "localhost:" + elasticsearch.getAddress().getPort() );
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry( registry )
+                                                              .index( "o11y-metrics" )
+                                                              .prefixedWith( "node1" )
+                                                              .withClock( new FixedClock() )
+                                                              .build( sender );
+
+        registry.counter( "app.count" ).inc( 3 );
+        registry.register( "app.\"quoted\"", (Gauge<Double>) () -> Double.NaN );
+        registry.meter( "app.meter" ).mark( 4 );
+        Timer timer = registry.timer( "app.timer" );
+        timer.update( 20, TimeUnit.MILLISECONDS );
+        registry.histogram( "app.histogram" ).update( 5 );
+
+        reporter.report();
+
+        String request = requests.poll( 10, TimeUnit.SECONDS );
+        assertNotNull( request );
+        String[] lines = request.split( "\n" );
+        assertEquals( "/_bulk application/x-ndjson", lines[0] );
+        assertEquals( 11, lines.length );
+
+        String timestamp = "{\"@timestamp\":\"2023-11-14T22:13:20Z\"";
+        for ( int i = 1; i < lines.length; i += 2 )
+        {
+            assertEquals( "{\"index\":{\"_index\":\"o11y-metrics\"}}", lines[i] );
+            assertTrue( lines[i + 1], lines[i + 1].startsWith( timestamp ) );
+        }
+
+        assertEquals( timestamp + ",\"name\":\"node1.app.\\\"quoted\\\"\",\"type\":\"gauge\",\"value\":null}",
+                      lines[2] );
+        assertEquals( timestamp + ",\"name\":\"node1.app.count\",\"type\":\"counter\",\"count\":3}", lines[4] );
+        assertTrue( lines[6].contains( "\"type\":\"histogram\",\"count\":1,\"min\":5.0,\"max\":5.0" ) );
+        assertTrue( lines[8].contains( "\"name\":\"node1.app.meter\",\"type\":\"meter\",\"count\":4,\"m1_rate\":" ) );
+        assertTrue( lines[10].contains( "\"type\":\"timer\",\"count\":1,\"min\":20.0,\"max\":20.0" ) );
+        assertEquals( 1, awaitSent( 1 ) );
+    }
+
+    @Test
+    public void taggedMetricsAreReportedWithLabels()
+            throws Exception
+    {
+        sender = new ElasticsearchBulkSender( "localhost:" + elasticsearch.getAddress().getPort() );
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry( registry )
+                                                              .withClock( new FixedClock() )
+                                                              .build( sender );
+        registry.counter( MetricId.of( "app.errors.by_class", "exception", "IOException" ).getEncoded() ).inc();
+
+        reporter.report();
+
+        String request = requests.poll( 10, TimeUnit.SECONDS );
+        assertNotNull( request );
+        assertTrue( request, request.contains( "\"name\":\"app.errors.by_class\","
+                                                       + "\"labels\":{\"exception\":\"IOException\"},"
+                                                       + "\"type\":\"counter\"" ) );
+    }
+
+    @Test
+    public void dropsReportsWhenElasticsearchIsSlow()
+            throws Exception
+    {
+        blocked = new CountDownLatch( 1 );
+        sender = new ElasticsearchBulkSender( "http://localhost:" + elasticsearch.getAddress().getPort(), 1, 10000 );
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry( registry ).build( sender );
+        registry.counter( "app.count" );
+
+        // the first report is stuck in the request, the second waits in the queue, and every following one
+        // replaces the waiting report
+        reporter.report();
+        Thread.sleep( 200 );
+        for ( int i = 0; i < 5; i++ )
+        {
+            reporter.report();
+        }
+        assertEquals( 4, sender.getDropped() );
+
+        blocked.countDown();
+        assertNotNull( requests.poll( 10, TimeUnit.SECONDS ) );
+        assertNotNull( requests.poll( 10, TimeUnit.SECONDS ) );
+        assertEquals( null, requests.poll( 500, TimeUnit.MILLISECONDS ) );
+        assertEquals( 2, awaitSent( 2 ) );
+    }
+
+    /**
+     * The stand-in records a request before answering it, so the sender may not have counted it yet.
+     */
+    private long awaitSent( long expected )
+            throws InterruptedException
+    {
+        for ( int i = 0; i < 100 && sender.getSent() < expected; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+        return sender.getSent();
+    }
+
+    private static String readAll( InputStream in )
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ( ( read = in.read( buf ) ) > 0 )
+        {
+            out.write( buf, 0, read );
+        }
+        return new String( out.toByteArray(), UTF_8 );
+    }
+
+    private static final class FixedClock
+            extends Clock
+    {
+        @Override
+        public long getTick()
+        {
+            return 0;
+        }
+
+        @Override
+        public long getTime()
+        {
+            return 1700000000000L;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.graphite.GraphiteSender;
+import org.commonjava.o11yphant.metrics.api.MetricId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphiteGroupReporterTest
+{
+    private final RecordingSender graphite = new RecordingSender();
+
+    private final ManualClock clock = new ManualClock();
+
+    private MetricRegistry registry;
+
+    private BackoffGraphiteSender sender;
+
+    private GraphiteGroupReporter reporter;
+
+    @Before
+    public void setUp()
+    {
+        registry = new MetricRegistry();
+        registry.counter( "jvm.threads" ).inc( 3 );
+        sender = new BackoffGraphiteSender( graphite, 1, 8, TimeUnit.SECONDS, clock );
+        reporter = GraphiteGroupReporter.forRegistry( registry )
+                                        .prefixedWith( "test" )
+                                        .group( "jvm", ( name, metric ) -> name.contains( "jvm" ), 1,
+                                                TimeUnit.MINUTES )
+                                        .group( "application", ( name, metric ) -> true, 1, TimeUnit.MINUTES )
+                                        .build( sender );
+    }
+
+    @After
+    public void tearDown()
+    {
+        reporter.close();
+    }
+
+    @Test
+    public void reportsOnlyTheMetricsOfTheDueGroup()
+    {
+        registry.counter( "app.requests" ).inc();
+
+        reporter.report( "jvm" );
+        assertEquals( 1, graphite.sent.size() );
+        assertTrue( graphite.sent.get( 0 ), graphite.sent.get( 0 ).startsWith( "test.jvm.threads.count 3 " ) );
+
+        graphite.sent.clear();
+        reporter.report( "application" );
+        assertEquals( 1, graphite.sent.size() );
+        assertTrue( graphite.sent.get( 0 ), graphite.sent.get( 0 ).startsWith( "test.app.requests.count 1 " ) );
+
+        registry.remove( "app.requests" );
+        graphite.sent.clear();
+        reporter.report( "application" );
+        assertTrue( graphite.sent.isEmpty() );
+    }
+
+    @Test
+    public void flattensLabelsOfTaggedMetrics()
+    {
+        registry.meter( MetricId.of( "app.errors", "exception", "java.io.IOException" ).getEncoded() ).mark();
+
+        reporter.report( "application" );
+        assertEquals( "count and 4 rates", 5, graphite.sent.size() );
+        assertTrue( graphite.sent.get( 0 ),
+                    graphite.sent.get( 0 ).startsWith( "test.app.errors.java_io_IOException.count 1 " ) );
+    }
+
+    @Test
+    public void keepsTheConnectionOpenBetweenReports()
+    {
+        reporter.report( "jvm" );
+        reporter.report( "application" );
+        reporter.report( "jvm" );
+
+        assertEquals( 1, graphite.connects );
+        assertEquals( 3, graphite.flushes );
+        assertTrue( graphite.connected );
+
+        reporter.close();
+        assertFalse( graphite.connected );
+    }
+
+    @Test
+    public void backsOffAfterConnectFailures()
+    {
+        graphite.refuse = true;
+
+        reporter.report( "jvm" );
+        assertEquals( 1, graphite.connects );
+        assertEquals( 1, sender.getFailures() );
+
+        clock.advance( 500 );
+        reporter.report( "jvm" );
+        assertEquals( "no connect while backing off", 1, graphite.connects );
+        assertEquals( 2, sender.getDiscarded() );
+
+        clock.advance( 600 );
+        reporter.report( "jvm" );
+        assertEquals( 2, graphite.connects );
+        assertEquals( 2, sender.getFailures() );
+
+        clock.advance( 1500 );
+        reporter.report( "jvm" );
+        assertEquals( "backoff doubles", 2, graphite.connects );
+
+        graphite.refuse = false;
+        clock.advance( 600 );
+        reporter.report( "jvm" );
+        assertEquals( 3, graphite.connects );
+        assertEquals( 0, sender.getFailures() );
+        assertEquals( 1, graphite.sent.size() );
+    }
+
+    @Test
+    public void reconnectsAfterSendFailure()
+    {
+        reporter.report( "jvm" );
+        graphite.failSend = true;
+        reporter.report( "jvm" );
+        assertFalse( "broken connection is closed", graphite.connected );
+
+        graphite.failSend = false;
+        clock.advance( 1000 );
+        reporter.report( "jvm" );
+        assertEquals( 2, graphite.connects );
+        assertEquals( 2, graphite.sent.size() );
+    }
+
+    private static final class ManualClock
+                    extends Clock
+    {
+        private long tick;
+
+        void advance( long millis )
+        {
+            tick += TimeUnit.MILLISECONDS.toNanos( millis );
+        }
+
+        @Override
+        public long getTick()
+        {
+            return tick;
+        }
+    }
+
+    private static final class RecordingSender
+                    implements GraphiteSender
+    {
+        private final List<String> sent = new ArrayList<>();
+
+        private boolean connected;
+
+        private boolean refuse;
+
+        private boolean failSend;
+
+        private int connects;
+
+        private int flushes;
+
+        @Override
+        public void connect()
+                throws IOException
+        {
+            connects++;
+            if ( refuse )
+            {
+                throw new IOException( "Connection refused" );
+            }
+            connected = true;
+        }
+
+        @Override
+        public void send( String name, String value, long timestamp )
+                throws IOException
+        {
+            if ( failSend )
+            {
+                throw new IOException( "Broken pipe" );
+            }
+            sent.add( name + " " + value + " " + timestamp );
+        }
+
+        @Override
+        public void flush()
+        {
+            flushes++;
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return connected;
+        }
+
+        @Override
+        public int getFailures()
+        {
+            return 0;
+        }
+
+        @Override
+        public void close()
+        {
+            connected = false;
+        }
+    }
+}
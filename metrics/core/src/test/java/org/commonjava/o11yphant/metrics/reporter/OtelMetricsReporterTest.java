@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.metrics.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpServer;
+import org.commonjava.o11yphant.metrics.conf.OtelMetricsConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports through OTLP/HTTP to an in-process stand-in collector and decodes the protobuf payloads.
+ */
+public class OtelMetricsReporterTest
+{
+    private static final long AGGREGATION_TEMPORALITY_DELTA = 1;
+
+    private final BlockingQueue<byte[]> payloads = new LinkedBlockingQueue<>();
+
+    private HttpServer collector;
+
+    private MetricRegistry registry;
+
+    private OtelMetricsReporter reporter;
+
+    @Before
+    public void setUp()
+            throws IOException
+    {
+        collector = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        collector.createContext( "/v1/metrics", exchange -> {
+            payloads.add( readAll( exchange.getRequestBody() ) );
+            exchange.getResponseHeaders().add( "Content-Type", "application/x-protobuf" );
+            exchange.sendResponseHeaders( 200, -1 );
+            exchange.close();
+        } );
+        collector.start();
+
+        OtelMetricsConfig config = new OtelMetricsConfig();
+        config.setOtelProtocol( OtelMetricsConfig.PROTOCOL_HTTP );
+        config.setOtelEndpoint( "http://localhost:" + collector.getAddress().getPort() + "/v1/metrics" );
+        config.setOtelTemporality( OtelMetricsConfig.TEMPORALITY_DELTA );
+        config.setOtelPeriodInSeconds( TimeUnit.HOURS.toSeconds( 1 ) );
+        config.setOtelResources( Collections.singletonMap( "service.name", "o11yphant-test" ) );
+
+        registry = new MetricRegistry();
+        reporter = new OtelMetricsReporter( registry, config );
+    }
+
+    @After
+    public void tearDown()
+    {
+        reporter.close();
+        collector.stop( 0 );
+    }
+
+    @Test
+    public void exportsRegistryMetrics()
+            throws Exception
+    {
+        Meter meter = registry.meter( "app.requests.meter" );
+        meter.mark( 5 );
+        registry.counter( "app.active" ).inc( 2 );
+        registry.register( "app.queue size", (Gauge<Integer>) () -> 7 );
+        Timer timer = registry.timer( "app.retrieve.timer" );
+        for ( int i = 1; i <= 100; i++ )
+        {
+            timer.update( i, TimeUnit.MILLISECONDS );
+        }
+        reporter.start();
+
+        Map<String, Map<Integer, List<Object>>> metrics = export();
+
+        Map<Integer, List<Object>> sum = message( metrics.get( "app.requests.meter" ), 7 );
+        assertEquals( AGGREGATION_TEMPORALITY_DELTA, sum.get( 2 ).get( 0 ) );
+        assertEquals( 1L, sum.get( 3 ).get( 0 ) );
+        assertEquals( 5L, message( sum, 1 ).get( 6 ).get( 0 ) );
+
+        assertEquals( 2L, message( message( metrics.get( "app.active" ), 7 ), 1 ).get( 6 ).get( 0 ) );
+        assertEquals( 7.0, asDouble( message( message( metrics.get( "app.queue_size" ), 5 ), 1 ) ), 0 );
+        assertEquals( 100L, message( message( metrics.get( "app.retrieve.timer.count" ), 7 ), 1 ).get( 6 ).get( 0 ) );
+        assertEquals( "s", string( metrics.get( "app.retrieve.timer" ), 3 ) );
+
+        Map<String, Double> quantiles = new HashMap<>();
+        for ( Object point : message( metrics.get( "app.retrieve.timer" ), 5 ).get( 1 ) )
+        {
+            Map<Integer, List<Object>> fields = fields( (byte[]) point );
+            Map<Integer, List<Object>> attribute = message( fields, 7 );
+            assertEquals( "quantile", string( attribute, 1 ) );
+            quantiles.put( string( message( attribute, 2 ), 1 ), asDouble( fields ) );
+        }
+        assertEquals( 5, quantiles.size() );
+        assertEquals( 0.099, quantiles.get( "0.99" ), 0.002 );
+
+        // delta temporality: the next export only carries what happened in between
+        meter.mark( 3 );
+        metrics = export();
+        assertEquals( 3L, message( message( metrics.get( "app.requests.meter" ), 7 ), 1 ).get( 6 ).get( 0 ) );
+    }
+
+    @Test
+    public void followsRegistryChanges()
+            throws Exception
+    {
+        reporter.start();
+        registry.counter( "app.late" ).inc();
+        assertTrue( export().containsKey( "app.late" ) );
+
+        registry.remove( "app.late" );
+        registry.counter( "app.other" ).inc();
+        Map<String, Map<Integer, List<Object>>> metrics = export();
+        assertTrue( metrics.containsKey( "app.other" ) );
+        assertFalse( metrics.containsKey( "app.late" ) );
+    }
+
+    @Test
+    public void instrumentNames()
+    {
+        assertEquals( "app.queue_size", OtelMetricsReporter.instrumentName( "app.queue size" ) );
+        assertEquals( "m_1.timer", OtelMetricsReporter.instrumentName( "1.timer" ) );
+        assertEquals( 255, OtelMetricsReporter.instrumentName( String.join( "", Collections.nCopies( 300, "a" ) ) )
+                                              .length() );
+    }
+
+    private Map<String, Map<Integer, List<Object>>> export()
+            throws InterruptedException
+    {
+        payloads.clear();
+        // the SDK completes a flush before it releases the exporter, so a flush right after another one can be
+        // refused as busy
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 10 );
+        boolean flushed = reporter.flush( 10, TimeUnit.SECONDS );
+        while ( !flushed && System.nanoTime() < deadline )
+        {
+            Thread.sleep( 10 );
+            flushed = reporter.flush( 10, TimeUnit.SECONDS );
+        }
+        assertTrue( flushed );
+        byte[] payload = payloads.poll( 10, TimeUnit.SECONDS );
+        assertNotNull( payload );
+
+        Map<String, Map<Integer, List<Object>>> metrics = new HashMap<>();
+        for ( Object resourceMetrics : fields( payload ).get( 1 ) )
+        {
+            for ( Object scopeMetrics : fields( (byte[]) resourceMetrics ).get( 2 ) )
+            {
+                for ( Object metric : fields( (byte[]) scopeMetrics ).getOrDefault( 2, Collections.emptyList() ) )
+                {
+                    Map<Integer, List<Object>> fields = fields( (byte[]) metric );
+                    metrics.put( string( fields, 1 ), fields );
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static Map<Integer, List<Object>> message( Map<Integer, List<Object>> fields, int field )
+    {
+        assertNotNull( fields );
+        return fields( (byte[]) fields.get( field ).get( 0 ) );
+    }
+
+    private static String string( Map<Integer, List<Object>> fields, int field )
+    {
+        return new String( (byte[]) fields.get( field ).get( 0 ), UTF_8 );
+    }
+
+    /**
+     * NumberDataPoint.as_double
+     */
+    private static double asDouble( Map<Integer, List<Object>> point )
+    {
+        return Double.longBitsToDouble( (Long) point.get( 4 ).get( 0 ) );
+    }
+
+    /**
+     * Minimal protobuf wire format reader: field number to values, with varint and fixed values as Long and
+     * length-delimited values as byte[].
+     */
+    private static Map<Integer, List<Object>> fields( byte[] buf )
+    {
+        Map<Integer, List<Object>> fields = new HashMap<>();
+        int[] pos = { 0 };
+        while ( pos[0] < buf.length )
+        {
+            long tag = varint( buf, pos );
+            int field = (int) ( tag >>> 3 );
+            Object value;
+            switch ( (int) ( tag & 7 ) )
+            {
+                case 0:
+                    value = varint( buf, pos );
+                    break;
+                case 1:
+                    value = fixed( buf, pos, 8 );
+                    break;
+                case 2:
+                    int len = (int) varint( buf, pos );
+                    byte[] bytes = new byte[len];
+                    System.arraycopy( buf, pos[0], bytes, 0, len );
+                    pos[0] += len;
+                    value = bytes;
+                    break;
+                case 5:
+                    value = fixed( buf, pos, 4 );
+                    break;
+                default:
+                    throw new IllegalStateException( "Unexpected wire type in tag " + tag );
+            }
+            fields.computeIfAbsent( field, f -> new ArrayList<>() ).add( value );
+        }
+        return fields;
+    }
+
+    private static long varint( byte[] buf, int[] pos )
+    {
+        long result = 0;
+        for ( int shift = 0; ; shift += 7 )
+        {
+            byte b = buf[pos[0]++];
+            result |= (long) ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return result;
+            }
+        }
+    }
+
+    private static long fixed( byte[] buf, int[] pos, int size )
+    {
+        long result = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            result |= (long) ( buf[pos[0]++] & 0xff ) << ( 8 * i );
+        }
+        return result;
+    }
+
+    private static byte[] readAll( InputStream in )
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ( ( read = in.read( buf ) ) > 0 )
+        {
+            out.write( buf, 0, read );
+        }
+        return out.toByteArray();
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.commonjava.o11yphant.trace;
 
+import org.commonjava.o11yphant.common.thread.ContextStorage;
+import org.commonjava.o11yphant.common.thread.ContextStorages;
 import org.commonjava.o11yphant.metrics.api.Metric;
 import org.commonjava.o11yphant.trace.impl.FieldInjectionSpan;
 import org.commonjava.o11yphant.trace.impl.SpanWrapper;
@@ -44,7 +46,21 @@ import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
 
 public final class TraceManager
 {
-    private static final ThreadLocal<Queue<SpanAdapter>> ACTIVE_SPAN = new ThreadLocal<>();
+    // a thread the context is attached to gets its own copy of the queue, so it can't add or remove parent spans
+    private static final ContextStorage<Queue<SpanAdapter>> ACTIVE_SPAN =
+                    ContextStorages.newStorage( "active-span", new ContextStorage.Propagation<Queue<SpanAdapter>>()
+                    {
+                        @Override
+                        public Queue<SpanAdapter> attach( Queue<SpanAdapter> spans )
+                        {
+                            return new ConcurrentLinkedQueue<>( spans );
+                        }
+
+                        @Override
+                        public void detach( Queue<SpanAdapter> spans )
+                        {
+                        }
+                    } );
 
     //    private static final String ACTIVE_SPAN_KEY = "active-trace-span";
 
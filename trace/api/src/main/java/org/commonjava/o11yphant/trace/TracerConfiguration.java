@@ -164,4 +164,24 @@ public interface TracerConfiguration
         return getBaseSampleRate();
     }
 
+    /**
+     * When true, root spans of a request follow its sampling decision (see SamplingDecision), so traces and metrics
+     * are kept for the same requests, and the method interceptors skip requests that are not sampled. If the request
+     * has no decision yet, the tracer makes it from the trace id at {@link #getSamplingRatio()}, and the metrics of the
+     * request follow it. Only tracer plugins with a decision-following sampler (the OpenTelemetry plugin) honour it.
+     */
+    default boolean isFollowSamplingDecision()
+    {
+        return false;
+    }
+
+    /**
+     * Trace one request out of every N when {@link #isFollowSamplingDecision()} is set and the request has no sampling
+     * decision yet. It should match the meter ratio of the metrics, since they follow the decision made here.
+     */
+    default int getSamplingRatio()
+    {
+        return 1;
+    }
+
 }
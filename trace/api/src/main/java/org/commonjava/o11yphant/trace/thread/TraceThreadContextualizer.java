@@ -31,6 +31,9 @@ package org.commonjava.o11yphant.trace.thread;
  * limitations under the License.
  */
 
+import org.commonjava.o11yphant.common.thread.ContextStorage;
+import org.commonjava.o11yphant.common.thread.ContextStorages;
+import org.commonjava.o11yphant.common.thread.ThreadContextualizer;
 import org.commonjava.o11yphant.trace.TraceManager;
 import org.commonjava.o11yphant.trace.TracerConfiguration;
 import org.commonjava.o11yphant.trace.spi.adapter.SpanAdapter;
@@ -40,6 +43,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Optional;
 
 public class TraceThreadContextualizer
+                implements ThreadContextualizer
 {
     private static final String THREAD_NAME = "thread.name";
 
@@ -47,9 +51,10 @@ public class TraceThreadContextualizer
 
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private static final ThreadLocal<Optional<SpanAdapter>> SPAN = new ThreadLocal<>();
+    private static final ContextStorage<Optional<SpanAdapter>> SPAN = ContextStorages.newStorage( "thread-span" );
 
-    private static final ThreadLocal<ThreadedTraceContext> TRACE_CONTEXT = new ThreadLocal<>();
+    private static final ContextStorage<ThreadedTraceContext> TRACE_CONTEXT =
+                    ContextStorages.newStorage( "threaded-trace-context" );
 
     private final TraceManager traceManager;
 
@@ -65,11 +70,13 @@ public class TraceThreadContextualizer
         this.tracingContext = tracingContext;
     }
 
+    @Override
     public String getId()
     {
         return "honeycomb.threadpool.spanner";
     }
 
+    @Override
     public Object extractCurrentContext()
     {
         if ( configuration.isEnabled() )
@@ -82,6 +89,7 @@ public class TraceThreadContextualizer
         return null;
     }
 
+    @Override
     public void setChildContext( final Object parentContext )
     {
         if ( configuration.isEnabled() )
@@ -107,6 +115,7 @@ public class TraceThreadContextualizer
         }
     }
 
+    @Override
     @SuppressWarnings( "PMD" )
     public void clearContext()
     {
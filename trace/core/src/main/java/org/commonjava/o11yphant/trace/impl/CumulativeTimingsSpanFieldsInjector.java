@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.trace.impl;
+
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.commonjava.o11yphant.metrics.CumulativeTimings;
+import org.commonjava.o11yphant.trace.spi.SpanFieldsInjector;
+import org.commonjava.o11yphant.trace.spi.adapter.SpanAdapter;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import static org.commonjava.o11yphant.metrics.MetricsConstants.AVERAGE_TIME_MS;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_COUNT;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.CUMULATIVE_TIMINGS;
+import static org.commonjava.o11yphant.metrics.MetricsConstants.MAX_TIME_MS;
+import static org.commonjava.o11yphant.metrics.util.NameUtils.name;
+
+/**
+ * Export the request's {@link CumulativeTimings} (gathered by MetricsManager.accumulate) into the span when it
+ * closes, using the same field names as TraceManager.addCumulativeField. This is one bulk pass at close, instead of
+ * updating in-progress span fields on every measured call.
+ *
+ * Names that the trace interceptors already recorded on the span through TraceManager.addCumulativeField are
+ * skipped, so each field has one writer.
+ */
+@ApplicationScoped
+public class CumulativeTimingsSpanFieldsInjector
+                implements SpanFieldsInjector
+{
+    @Override
+    public void decorateSpanAtClose( SpanAdapter span )
+    {
+        CumulativeTimings timings = CumulativeTimings.get( ThreadContext.getContext( false ), false );
+        if ( timings == null )
+        {
+            return;
+        }
+
+        timings.forEach( ( name, count, totalMs, maxMs ) -> {
+            String timingsField = name( name, CUMULATIVE_TIMINGS );
+            if ( span.getInProgressField( timingsField, null ) != null )
+            {
+                return;
+            }
+
+            span.addField( timingsField, totalMs );
+            span.addField( name( name, CUMULATIVE_COUNT ), count );
+            span.addField( name( name, MAX_TIME_MS ), maxMs );
+            span.addField( name( name, AVERAGE_TIME_MS ), totalMs / count );
+        } );
+    }
+}
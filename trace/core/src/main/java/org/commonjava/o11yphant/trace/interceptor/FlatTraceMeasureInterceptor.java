@@ -15,7 +15,9 @@
  */
 package org.commonjava.o11yphant.trace.interceptor;
 
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
 import org.commonjava.o11yphant.metrics.annotation.Measure;
+import org.commonjava.o11yphant.metrics.interceptor.InterceptionPlan;
 import org.commonjava.o11yphant.trace.TraceManager;
 import org.commonjava.o11yphant.trace.spi.adapter.SpanAdapter;
 import org.commonjava.o11yphant.trace.TracerConfiguration;
@@ -26,8 +28,8 @@ import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.Interceptor;
 import javax.interceptor.InvocationContext;
-import java.lang.reflect.Method;
 import java.util.Optional;
+import java.util.function.ToIntFunction;
 
 import static java.lang.System.currentTimeMillis;
 
@@ -43,27 +45,33 @@ public class FlatTraceMeasureInterceptor
     @Inject
     private TraceManager traceManager;
 
+    // bound once, so looking up the cached sample rate does not create a method reference per call
+    private final ToIntFunction<String> sampleRateResolver = name -> config.getSampleRate( name );
+
+    public FlatTraceMeasureInterceptor()
+    {
+    }
+
+    FlatTraceMeasureInterceptor( TracerConfiguration config, TraceManager traceManager ) // for test
+    {
+        this.config = config;
+        this.traceManager = traceManager;
+    }
+
     @AroundInvoke
     public Object operation( InvocationContext context ) throws Exception
     {
-        Method method = context.getMethod();
-        String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        InterceptionPlan plan = InterceptionPlan.of( context.getMethod() );
+        String name = plan.getName();
 
         logger.trace( "START: trace method wrapper: {}", name );
-        if ( !config.isEnabled() )
+        if ( !config.isEnabled() || ( config.isFollowSamplingDecision() && !SamplingDecision.isCurrentSampled() ) )
         {
             logger.trace( "SKIP: trace method wrapper: {}", name );
             return context.proceed();
         }
 
-        Measure measure = method.getAnnotation( Measure.class );
-        if ( measure == null )
-        {
-            measure = method.getDeclaringClass().getAnnotation( Measure.class );
-        }
-
-        int sampleRate = config.getSampleRate( name );
-        if ( measure == null || sampleRate < 1 )
+        if ( plan.getMeasure() == null || plan.getSampleRate( config, sampleRateResolver ) < 1 )
         {
             logger.trace( "SKIP: trace method wrapper (no annotation or span is not configured: {})", name );
             return context.proceed();
@@ -77,10 +85,11 @@ public class FlatTraceMeasureInterceptor
         finally
         {
             Optional<SpanAdapter> span = TraceManager.getActiveSpan();
-            span.ifPresent( s->{
+            if ( span.isPresent() )
+            {
                 long elapse = currentTimeMillis() - begin;
-                traceManager.addCumulativeField( s, name, elapse );
-            } );
+                traceManager.addCumulativeField( span.get(), name, elapse );
+            }
             logger.trace( "END: trace method wrapper: {}", name );
         }
     }
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.trace.impl;
+
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.commonjava.o11yphant.metrics.CumulativeTimings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CumulativeTimingsSpanFieldsInjectorTest
+{
+    @Test
+    public void fieldsRecordedByTheTraceSideAreNotWrittenAgain()
+    {
+        ThreadContext ctx = ThreadContext.getContext( true );
+        try
+        {
+            CumulativeTimings timings = CumulativeTimings.get( ctx, true );
+            timings.accumulate( "traced", 5.0 );
+            timings.accumulate( "metered", 2.0 );
+
+            MockSpan span = new MockSpan();
+            span.setInProgressField( "traced.cumulative-timings", 5.0 );
+
+            new CumulativeTimingsSpanFieldsInjector().decorateSpanAtClose( span );
+
+            assertFalse( span.getFields().containsKey( "traced.cumulative-timings" ) );
+            assertEquals( 2.0, span.getFields().get( "metered.cumulative-timings" ) );
+            assertEquals( 1L, span.getFields().get( "metered.cumulative-count" ) );
+        }
+        finally
+        {
+            ThreadContext.clearContext();
+        }
+    }
+}
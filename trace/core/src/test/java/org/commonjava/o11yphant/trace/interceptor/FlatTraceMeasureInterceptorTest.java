@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.trace.interceptor;
+
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.commonjava.o11yphant.metrics.annotation.Measure;
+import org.commonjava.o11yphant.trace.SpanFieldsDecorator;
+import org.commonjava.o11yphant.trace.TraceManager;
+import org.commonjava.o11yphant.trace.TracerConfiguration;
+import org.commonjava.o11yphant.trace.impl.MockSpan;
+import org.commonjava.o11yphant.trace.spi.ContextPropagator;
+import org.commonjava.o11yphant.trace.spi.O11yphantTracePlugin;
+import org.commonjava.o11yphant.trace.spi.SpanProvider;
+import org.commonjava.o11yphant.trace.spi.adapter.SpanAdapter;
+import org.commonjava.o11yphant.trace.spi.adapter.SpanContext;
+import org.commonjava.o11yphant.trace.thread.ThreadTracingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.interceptor.InvocationContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FlatTraceMeasureInterceptorTest
+{
+    private static final String COUNT_FIELD = "Measured.run.cumulative-count";
+
+    private final MockSpan span = new MockSpan();
+
+    private boolean followSamplingDecision;
+
+    private final TracerConfiguration config = new TracerConfiguration()
+    {
+        @Override
+        public boolean isEnabled()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isConsoleTransport()
+        {
+            return false;
+        }
+
+        @Override
+        public String getServiceName()
+        {
+            return "test";
+        }
+
+        @Override
+        public String getNodeId()
+        {
+            return "node";
+        }
+
+        @Override
+        public boolean isFollowSamplingDecision()
+        {
+            return followSamplingDecision;
+        }
+    };
+
+    private TraceManager traceManager;
+
+    @Before
+    public void setUp()
+    {
+        traceManager = new TraceManager( new MockPlugin(), new SpanFieldsDecorator( Collections.emptyList() ),
+                                         config );
+        ThreadContext.getContext( true );
+        traceManager.startChildSpan( "request" );
+
+        // traced, but not metered
+        SamplingDecision.set( SamplingDecision.NOT_SAMPLED );
+    }
+
+    @After
+    public void tearDown()
+    {
+        TraceManager.clearThreadSpans();
+        ThreadContext.clearContext();
+    }
+
+    @Test
+    public void fieldsAreRecordedForUnmeteredRequests()
+            throws Exception
+    {
+        new FlatTraceMeasureInterceptor( config, traceManager ).operation( invocation() );
+
+        assertEquals( Double.valueOf( 1.0 ), span.getInProgressField( COUNT_FIELD, null ) );
+    }
+
+    @Test
+    public void unmeteredRequestsAreSkippedWhenFollowingTheDecision()
+            throws Exception
+    {
+        followSamplingDecision = true;
+        new FlatTraceMeasureInterceptor( config, traceManager ).operation( invocation() );
+
+        assertNull( span.getInProgressField( COUNT_FIELD, null ) );
+    }
+
+    private static InvocationContext invocation()
+            throws NoSuchMethodException
+    {
+        Method method = Measured.class.getMethod( "run" );
+        InvocationHandler handler = ( proxy, m, args ) -> {
+            if ( "getMethod".equals( m.getName() ) )
+            {
+                return method;
+            }
+            if ( "proceed".equals( m.getName() ) )
+            {
+                return "done";
+            }
+            throw new UnsupportedOperationException( m.getName() );
+        };
+        return (InvocationContext) Proxy.newProxyInstance( FlatTraceMeasureInterceptorTest.class.getClassLoader(),
+                                                           new Class<?>[] { InvocationContext.class }, handler );
+    }
+
+    @Measure
+    public static class Measured
+    {
+        public void run()
+        {
+        }
+    }
+
+    private final class MockPlugin
+            implements O11yphantTracePlugin, SpanProvider
+    {
+        @Override
+        public SpanProvider getSpanProvider()
+        {
+            return this;
+        }
+
+        @Override
+        public ContextPropagator getContextPropagator()
+        {
+            return null;
+        }
+
+        @Override
+        public ThreadTracingContext getThreadTracingContext()
+        {
+            return null;
+        }
+
+        @Override
+        public SpanAdapter startServiceRootSpan( String spanName, Optional<SpanContext> parentContext )
+        {
+            return span;
+        }
+
+        @Override
+        public SpanAdapter startChildSpan( String spanName, Optional<SpanContext> parentContext )
+        {
+            return span;
+        }
+
+        @Override
+        public SpanAdapter startClientSpan( String spanName )
+        {
+            return span;
+        }
+
+        @Override
+        public SpanAdapter startClientSpan( String spanName, Optional<SpanContext> parentContext )
+        {
+            return span;
+        }
+    }
+}
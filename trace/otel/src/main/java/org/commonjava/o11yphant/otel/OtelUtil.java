@@ -31,6 +31,8 @@ import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
 import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.commonjava.o11yphant.otel.impl.SamplingDecisionSampler;
 import org.commonjava.o11yphant.trace.TracerConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,6 +94,11 @@ public class OtelUtil
         SpanProcessor processor = BatchSpanProcessor.builder( SpanExporter.composite( spanExporters ) ).build();
 
         SdkTracerProviderBuilder tracerProviderBuilder = SdkTracerProvider.builder().addSpanProcessor( processor );
+        if ( traceConfiguration.isFollowSamplingDecision() )
+        {
+            Sampler sampler = new SamplingDecisionSampler( traceConfiguration::getSamplingRatio );
+            tracerProviderBuilder.setSampler( Sampler.parentBased( sampler ) );
+        }
 
         Map<String, String> otelResources = otelConfig.getResources();
         if ( otelResources != null && !otelResources.isEmpty() )
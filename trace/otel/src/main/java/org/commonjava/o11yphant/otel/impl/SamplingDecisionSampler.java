@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.otel.impl;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Samples a span according to the {@link SamplingDecision} of the current request, so traces and metrics are kept
+ * for the same requests. If the request has no decision yet, it is made here from the trace id, so every service
+ * sampling the trace at the same ratio keeps the same requests, and the metrics of the request follow it.
+ */
+public class SamplingDecisionSampler
+        implements Sampler
+{
+    private final IntSupplier ratio;
+
+    /**
+     * @param ratio sample one request out of every N when the request has no decision yet
+     */
+    public SamplingDecisionSampler( IntSupplier ratio )
+    {
+        this.ratio = ratio;
+    }
+
+    @Override
+    public SamplingResult shouldSample( Context parentContext, String traceId, String name, SpanKind spanKind,
+                                        Attributes attributes, List<LinkData> parentLinks )
+    {
+        SamplingDecision decision = SamplingDecision.decide( ratio.getAsInt(), traceId );
+        return decision.isSampled() ? SamplingResult.recordAndSample() : SamplingResult.drop();
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "SamplingDecisionSampler{ratio=" + ratio.getAsInt() + "}";
+    }
+}
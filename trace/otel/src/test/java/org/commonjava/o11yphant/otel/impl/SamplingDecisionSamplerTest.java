@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2020-2023 Red Hat, Inc. (https://github.com/commonjava/o11yphant)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.o11yphant.otel.impl;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import org.commonjava.o11yphant.common.sampling.SamplingDecision;
+import org.commonjava.o11yphant.common.thread.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingDecisionSamplerTest
+{
+    private static final String SAMPLED_TRACE = "4bf92f3577b34da60000000000000001";
+
+    private static final String DROPPED_TRACE = "4bf92f3577b34da67fffffffffffffff";
+
+    private static final SamplingResult SAMPLE = SamplingResult.recordAndSample();
+
+    private static final SamplingResult DROP = SamplingResult.drop();
+
+    private final SamplingDecisionSampler sampler = new SamplingDecisionSampler( () -> 10 );
+
+    @Before
+    public void setUp()
+    {
+        ThreadContext.getContext( true );
+    }
+
+    @After
+    public void tearDown()
+    {
+        ThreadContext.clearContext();
+    }
+
+    @Test
+    public void decidesFromTheTraceId()
+    {
+        assertEquals( SAMPLE, sample( SAMPLED_TRACE ) );
+        ThreadContext.clearContext();
+
+        ThreadContext.getContext( true );
+        assertEquals( DROP, sample( DROPPED_TRACE ) );
+    }
+
+    @Test
+    public void metricsFollowTheDecision()
+    {
+        sample( SAMPLED_TRACE );
+
+        SamplingDecision decision = SamplingDecision.current();
+        assertTrue( decision.isSampled() );
+        assertEquals( 10, decision.getWeight() );
+    }
+
+    @Test
+    public void followsAnExistingDecision()
+    {
+        SamplingDecision.set( SamplingDecision.NOT_SAMPLED );
+        assertEquals( DROP, sample( SAMPLED_TRACE ) );
+
+        SamplingDecision.set( SamplingDecision.ALWAYS_SAMPLED );
+        assertEquals( SAMPLE, sample( DROPPED_TRACE ) );
+        assertEquals( 1, SamplingDecision.current().getWeight() );
+    }
+
+    private SamplingResult sample( String traceId )
+    {
+        return sampler.shouldSample( Context.root(), traceId, "request", SpanKind.SERVER, Attributes.empty(),
+                                     Collections.emptyList() );
+    }
+}